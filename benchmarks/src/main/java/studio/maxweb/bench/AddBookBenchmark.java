@@ -0,0 +1,70 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * Adding books: one auto-commit INSERT per book (the original handleAddNewBook), the same through
+ * the pool and statement cache, and addBatch/executeBatch in batches of BATCH_SIZE. Scores are per book.
+ */
+@State(Scope.Thread)
+public class AddBookBenchmark {
+    private static final int BATCH_SIZE = 100;
+    private static final String insertBookQuery = "INSERT INTO books (title, author, is_available) VALUES (?, ?, ?)";
+
+    private int nextBook;
+
+    @Benchmark
+    public int singleInsert(LibraryState state) throws SQLException {
+        return insertBook(state.plainConnection, ++nextBook);
+    }
+
+    @Benchmark
+    public int singleInsertPooledCached(LibraryState state) throws SQLException {
+        try (Connection connection = AppBridge.getConnection(state.connectionPool)) {
+            return insertBook(connection, ++nextBook);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] batchedInsert(LibraryState state) throws SQLException {
+        try (Connection connection = AppBridge.getConnection(state.connectionPool);
+             PreparedStatement preparedStatement = connection.prepareStatement(insertBookQuery)) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                bindBook(preparedStatement, ++nextBook);
+                preparedStatement.addBatch();
+            }
+            return preparedStatement.executeBatch();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteInsertedBooks(LibraryState state) throws SQLException {
+        try (Statement statement = state.plainConnection.createStatement()) {
+            statement.executeUpdate("DELETE FROM books WHERE title LIKE 'Bench book %'");
+        }
+    }
+
+    private static int insertBook(Connection connection, int bookNumber) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(insertBookQuery)) {
+            bindBook(preparedStatement, bookNumber);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    private static void bindBook(PreparedStatement preparedStatement, int bookNumber) throws SQLException {
+        preparedStatement.setString(1, "Bench book " + bookNumber);
+        preparedStatement.setString(2, "Bench author");
+        preparedStatement.setBoolean(3, true);
+    }
+}
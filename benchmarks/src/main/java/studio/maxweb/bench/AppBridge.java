@@ -0,0 +1,120 @@
+package studio.maxweb.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+
+/*
+ * Calls into the application classes (ConnectionPool, the repositories).
+ *
+ * The application lives in the default package, which code in a named package can't import,
+ * and JMH refuses to generate benchmarks in the default package. So the handful of entry points
+ * the benchmarks need are looked up once as MethodHandles; their call cost is a few nanoseconds,
+ * far below the database round trips being measured.
+ */
+final class AppBridge {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> CONNECTION_POOL = load("ConnectionPool");
+    private static final Class<?> BOOK_REPOSITORY = load("BookRepository");
+    private static final Class<?> MEMBER_REPOSITORY = load("MemberRepository");
+    private static final Class<?> LOAN_REPOSITORY = load("LoanRepository");
+
+    private static final MethodHandle NEW_CONNECTION_POOL = constructor(CONNECTION_POOL, String.class, String.class, String.class,
+            int.class, Duration.class, Duration.class, Duration.class, int.class);
+    private static final MethodHandle GET_CONNECTION = method(CONNECTION_POOL, "getConnection", Connection.class);
+    private static final MethodHandle NEW_BOOK_REPOSITORY = constructor(BOOK_REPOSITORY, CONNECTION_POOL, int.class, Duration.class);
+    private static final MethodHandle NEW_MEMBER_REPOSITORY = constructor(MEMBER_REPOSITORY, CONNECTION_POOL, int.class, Duration.class);
+    private static final MethodHandle NEW_LOAN_REPOSITORY = constructor(LOAN_REPOSITORY, CONNECTION_POOL, MEMBER_REPOSITORY, BOOK_REPOSITORY);
+    private static final MethodHandle FIND_MEMBER_ID = method(MEMBER_REPOSITORY, "findIdByEmail", int.class, String.class);
+    private static final MethodHandle FIND_BOOK_ID = method(BOOK_REPOSITORY, "findIdByTitleAndAuthor", int.class, String.class, String.class);
+    private static final MethodHandle BORROW = method(LOAN_REPOSITORY, "borrow", load("LoanRepository$BorrowOutcome"),
+            String.class, String.class, String.class, LocalDate.class, LocalDate.class);
+    private static final MethodHandle RETURN_BOOK = method(LOAN_REPOSITORY, "returnBook", load("LoanRepository$ReturnOutcome"),
+            String.class, String.class, String.class);
+
+    private AppBridge() {
+    }
+
+    static AutoCloseable newConnectionPool(BenchmarkDatabase database, int maxSize, int statementCacheSize) {
+        return (AutoCloseable) invoke(NEW_CONNECTION_POOL, database.url(), database.user(), database.password(), maxSize,
+                Duration.ofMinutes(5), Duration.ofMinutes(30), Duration.ofSeconds(10), statementCacheSize);
+    }
+
+    static Connection getConnection(Object connectionPool) throws SQLException {
+        return (Connection) invoke(GET_CONNECTION, connectionPool);
+    }
+
+    static Object newBookRepository(Object connectionPool, int lookupCacheSize) {
+        return invoke(NEW_BOOK_REPOSITORY, connectionPool, lookupCacheSize, Duration.ofMinutes(5));
+    }
+
+    static Object newMemberRepository(Object connectionPool, int lookupCacheSize) {
+        return invoke(NEW_MEMBER_REPOSITORY, connectionPool, lookupCacheSize, Duration.ofMinutes(5));
+    }
+
+    static Object newLoanRepository(Object connectionPool, Object memberRepository, Object bookRepository) {
+        return invoke(NEW_LOAN_REPOSITORY, connectionPool, memberRepository, bookRepository);
+    }
+
+    static int findMemberId(Object memberRepository, String email) throws SQLException {
+        return (int) invoke(FIND_MEMBER_ID, memberRepository, email);
+    }
+
+    static int findBookId(Object bookRepository, String title, String author) throws SQLException {
+        return (int) invoke(FIND_BOOK_ID, bookRepository, title, author);
+    }
+
+    static String borrow(Object loanRepository, String email, String title, String author) throws SQLException {
+        LocalDate today = LocalDate.now();
+        return invoke(BORROW, loanRepository, email, title, author, today, today.plusDays(14)).toString();
+    }
+
+    static String returnBook(Object loanRepository, String email, String title, String author) throws SQLException {
+        return invoke(RETURN_BOOK, loanRepository, email, title, author).toString();
+    }
+
+    private static Object invoke(MethodHandle handle, Object... arguments) {
+        try {
+            return handle.invokeWithArguments(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // SQLExceptions from the application are rethrown unchanged (sneaky throw keeps the signatures honest).
+            throw AppBridge.<RuntimeException>sneakyThrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> E sneakyThrow(Throwable throwable) throws E {
+        throw (E) throwable;
+    }
+
+    private static Class<?> load(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class " + className + " is not on the classpath. Run 'mvn install' in the project root first.", e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findConstructor(type, MethodType.methodType(void.class, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Constructor of " + type.getName() + " has changed.", e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> type, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findVirtual(type, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Method " + type.getName() + "." + name + " has changed.", e);
+        }
+    }
+}
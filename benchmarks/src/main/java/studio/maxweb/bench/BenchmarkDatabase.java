@@ -0,0 +1,131 @@
+package studio.maxweb.bench;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * The database every benchmark runs against.
+ *
+ * By default an embedded PostgreSQL is started once per JVM (JMH forks a fresh JVM per benchmark).
+ * With -Dbench.url=... an existing server is used instead. Either way all tables live in their own
+ * library_bench schema, which is dropped and re-seeded on startup, so a real library database is never touched.
+ */
+final class BenchmarkDatabase {
+    static final int BOOK_COUNT = Integer.getInteger("bench.books", 10_000);
+    static final int MEMBER_COUNT = Integer.getInteger("bench.members", 1_000);
+
+    private static final String SCHEMA = "library_bench";
+    private static BenchmarkDatabase instance;
+
+    private final EmbeddedPostgres embeddedPostgres;
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private BenchmarkDatabase(EmbeddedPostgres embeddedPostgres, String serverUrl, String user, String password) {
+        this.embeddedPostgres = embeddedPostgres;
+        this.url = serverUrl + (serverUrl.contains("?") ? "&" : "?") + "currentSchema=" + SCHEMA;
+        this.user = user;
+        this.password = password;
+    }
+
+    static synchronized BenchmarkDatabase get() throws IOException, SQLException {
+        if (instance == null) {
+            String configuredUrl = System.getProperty("bench.url");
+
+            if (configuredUrl != null) {
+                instance = new BenchmarkDatabase(null, configuredUrl,
+                        System.getProperty("bench.user", "postgres"), System.getProperty("bench.password", ""));
+            } else {
+                EmbeddedPostgres embeddedPostgres = EmbeddedPostgres.start();
+                instance = new BenchmarkDatabase(embeddedPostgres, embeddedPostgres.getJdbcUrl("postgres", "postgres"), "postgres", "postgres");
+            }
+
+            instance.createAndSeedSchema();
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::stop));
+        }
+        return instance;
+    }
+
+    String url() {
+        return url;
+    }
+
+    String user() {
+        return user;
+    }
+
+    String password() {
+        return password;
+    }
+
+    Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    static String memberEmail(int memberNumber) {
+        return "member" + memberNumber + "@library.test";
+    }
+
+    static String bookTitle(int bookNumber) {
+        return "Title " + bookNumber;
+    }
+
+    static String bookAuthor(int bookNumber) {
+        return "Author " + bookNumber % 500;
+    }
+
+    private void createAndSeedSchema() throws SQLException {
+        try (Connection connection = openConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            statement.execute("CREATE SCHEMA " + SCHEMA);
+            statement.execute("SET search_path TO " + SCHEMA);
+
+            statement.execute("""
+                    CREATE TABLE books (
+                        book_id SERIAL PRIMARY KEY,
+                        title TEXT NOT NULL,
+                        author TEXT NOT NULL,
+                        is_available BOOLEAN NOT NULL DEFAULT true
+                    )""");
+            statement.execute("""
+                    CREATE TABLE members (
+                        member_id SERIAL PRIMARY KEY,
+                        name TEXT NOT NULL,
+                        email TEXT NOT NULL
+                    )""");
+            statement.execute("""
+                    CREATE TABLE loans (
+                        loan_id SERIAL PRIMARY KEY,
+                        book_id INT NOT NULL REFERENCES books (book_id),
+                        member_id INT NOT NULL REFERENCES members (member_id),
+                        loan_date DATE NOT NULL,
+                        return_date DATE NOT NULL
+                    )""");
+            statement.execute("CREATE INDEX ON books (title, author)");
+            statement.execute("CREATE UNIQUE INDEX ON members (email)");
+            statement.execute("CREATE INDEX ON loans (book_id, member_id)");
+
+            statement.execute("INSERT INTO books (title, author) " +
+                    "SELECT 'Title ' || g, 'Author ' || (g % 500) FROM generate_series(1, " + BOOK_COUNT + ") g");
+            statement.execute("INSERT INTO members (name, email) " +
+                    "SELECT 'Member ' || g, 'member' || g || '@library.test' FROM generate_series(1, " + MEMBER_COUNT + ") g");
+            statement.execute("ANALYZE");
+        }
+    }
+
+    private void stop() {
+        if (embeddedPostgres != null) {
+            try {
+                embeddedPostgres.close();
+            } catch (IOException e) {
+                // The JVM is shutting down anyway.
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs every benchmark in throughput mode and in sample mode (which reports p50/p99/p99.9 latency),
+ * with the GC profiler attached for the allocation rate per operation (gc.alloc.rate.norm).
+ *
+ * Any regular JMH command line option still works, e.g. "java -jar target/benchmarks.jar Lookup -f 2".
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .mode(Mode.Throughput)
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json");
+
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackageName() + ".*");
+        }
+        if (!commandLineOptions.getForkCount().hasValue()) {
+            options.forks(1);
+        }
+        if (!commandLineOptions.getWarmupIterations().hasValue()) {
+            options.warmupIterations(3).warmupTime(TimeValue.seconds(2));
+        }
+        if (!commandLineOptions.getMeasurementIterations().hasValue()) {
+            options.measurementIterations(5).measurementTime(TimeValue.seconds(2));
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/*
+ * One operation = borrow a book and return it again, so the data stays the same across iterations.
+ *
+ * perStepStatements replays the original JDBC_Challenge flow (one auto-commit statement per step:
+ * 5 for borrowing, 4 for returning). singleStatement goes through LoanRepository, where each of
+ * borrow and return is one CTE in one transaction.
+ */
+public class BorrowReturnBenchmark {
+
+    @Benchmark
+    public void perStepStatements(LibraryState state, Blackhole blackhole) throws SQLException {
+        Connection connection = state.plainConnection;
+        int bookNumber = state.nextBookNumber();
+        String email = BenchmarkDatabase.memberEmail(state.nextMemberNumber());
+        String title = BenchmarkDatabase.bookTitle(bookNumber);
+        String author = BenchmarkDatabase.bookAuthor(bookNumber);
+
+        int memberId = queryForId(connection, "SELECT member_id FROM members WHERE email = ?", email);
+        int bookId = queryForId(connection, "SELECT book_id FROM books WHERE title = ? AND author = ?", title, author);
+        boolean isAvailable = queryForId(connection, "SELECT CASE WHEN is_available THEN 1 ELSE 0 END FROM books WHERE book_id = ?", bookId) == 1;
+
+        if (isAvailable) {
+            LocalDate today = LocalDate.now();
+            update(connection, "INSERT INTO loans (member_id, book_id, loan_date, return_date) VALUES (?, ?, ?, ?)",
+                    memberId, bookId, Date.valueOf(today), Date.valueOf(today.plusDays(14)));
+            update(connection, "UPDATE books SET is_available = ? WHERE book_id = ?", false, bookId);
+        }
+
+        memberId = queryForId(connection, "SELECT member_id FROM members WHERE email = ?", email);
+        bookId = queryForId(connection, "SELECT book_id FROM books WHERE title = ? AND author = ?", title, author);
+        blackhole.consume(update(connection, "DELETE FROM loans WHERE book_id = ? AND member_id = ?", bookId, memberId));
+        blackhole.consume(update(connection, "UPDATE books SET is_available = ? WHERE book_id = ?", true, bookId));
+    }
+
+    @Benchmark
+    public void singleStatement(LibraryState state, Blackhole blackhole) throws SQLException {
+        int bookNumber = state.nextBookNumber();
+        String email = BenchmarkDatabase.memberEmail(state.nextMemberNumber());
+        String title = BenchmarkDatabase.bookTitle(bookNumber);
+        String author = BenchmarkDatabase.bookAuthor(bookNumber);
+
+        blackhole.consume(AppBridge.borrow(state.loanRepository, email, title, author));
+        blackhole.consume(AppBridge.returnBook(state.loanRepository, email, title, author));
+    }
+
+    private static int queryForId(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        try (PreparedStatement preparedStatement = prepare(connection, sqlQuery, parameters);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : -1;
+        }
+    }
+
+    private static int update(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        try (PreparedStatement preparedStatement = prepare(connection, sqlQuery, parameters)) {
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+        for (int i = 0; i < parameters.length; i++) {
+            preparedStatement.setObject(i + 1, parameters[i]);
+        }
+        return preparedStatement;
+    }
+}
@@ -0,0 +1,53 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+
+/*
+ * Everything the benchmarks share: the seeded database, one plain connection used the way the original
+ * JDBC_Challenge used its static Connection, and the application's pool and repositories.
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+    BenchmarkDatabase database;
+    Connection plainConnection;
+    AutoCloseable connectionPool;
+    Object bookRepository;
+    Object memberRepository;
+    Object loanRepository;
+
+    private int nextMember;
+    private int nextBook;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = BenchmarkDatabase.get();
+        plainConnection = database.openConnection();
+        connectionPool = AppBridge.newConnectionPool(database, 4, 32);
+        bookRepository = AppBridge.newBookRepository(connectionPool, 10_000);
+        memberRepository = AppBridge.newMemberRepository(connectionPool, 10_000);
+        loanRepository = AppBridge.newLoanRepository(connectionPool, memberRepository, bookRepository);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        plainConnection.close();
+        connectionPool.close();
+    }
+
+    // Walks over all seeded members/books, so lookups are spread like real traffic instead of hitting one row.
+    int nextMemberNumber() {
+        nextMember = nextMember % BenchmarkDatabase.MEMBER_COUNT + 1;
+        return nextMember;
+    }
+
+    int nextBookNumber() {
+        nextBook = nextBook % BenchmarkDatabase.BOOK_COUNT + 1;
+        return nextBook;
+    }
+}
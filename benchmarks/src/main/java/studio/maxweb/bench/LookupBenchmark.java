@@ -0,0 +1,59 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Member-by-email lookup (the old getMemberId helper), from most to least expensive:
+ * a new connection per call, one shared connection with prepare/close per call,
+ * a pooled connection with the statement cache, and the repository with its lookup cache.
+ */
+public class LookupBenchmark {
+    private static final String findMemberIdQuery = "SELECT member_id FROM members WHERE email = ?";
+
+    @Benchmark
+    public int connectPerCall(LibraryState state) throws SQLException {
+        BenchmarkDatabase database = state.database;
+        try (Connection connection = DriverManager.getConnection(database.url(), database.user(), database.password())) {
+            return findMemberId(connection, BenchmarkDatabase.memberEmail(state.nextMemberNumber()));
+        }
+    }
+
+    @Benchmark
+    public int singleConnectionPreparePerCall(LibraryState state) throws SQLException {
+        return findMemberId(state.plainConnection, BenchmarkDatabase.memberEmail(state.nextMemberNumber()));
+    }
+
+    @Benchmark
+    public int pooledCachedStatement(LibraryState state) throws SQLException {
+        try (Connection connection = AppBridge.getConnection(state.connectionPool)) {
+            return findMemberId(connection, BenchmarkDatabase.memberEmail(state.nextMemberNumber()));
+        }
+    }
+
+    @Benchmark
+    public int repositoryWithLookupCache(LibraryState state) throws SQLException {
+        return AppBridge.findMemberId(state.memberRepository, BenchmarkDatabase.memberEmail(state.nextMemberNumber()));
+    }
+
+    @Benchmark
+    public int repositoryBookLookup(LibraryState state) throws SQLException {
+        int bookNumber = state.nextBookNumber();
+        return AppBridge.findBookId(state.bookRepository, BenchmarkDatabase.bookTitle(bookNumber), BenchmarkDatabase.bookAuthor(bookNumber));
+    }
+
+    private static int findMemberId(Connection connection, String email) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(findMemberIdQuery)) {
+            preparedStatement.setString(1, email);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
+            }
+        }
+    }
+}
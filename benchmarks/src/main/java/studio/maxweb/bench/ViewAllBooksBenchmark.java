@@ -0,0 +1,81 @@
+package studio.maxweb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Reading the whole books table: SELECT * buffered in one result set (the original handleViewAllBooks),
+ * keyset pages of PAGE_SIZE rows, and one cursor with a fetch size. Only the printed columns are read.
+ */
+public class ViewAllBooksBenchmark {
+    private static final int PAGE_SIZE = 20;
+    private static final int FETCH_SIZE = 500;
+
+    @Benchmark
+    public void selectStarBuffered(LibraryState state, Blackhole blackhole) throws SQLException {
+        try (PreparedStatement preparedStatement = state.plainConnection.prepareStatement("SELECT * FROM books");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getString("title"));
+                blackhole.consume(resultSet.getString("author"));
+                blackhole.consume(resultSet.getBoolean("is_available"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void keysetPages(LibraryState state, Blackhole blackhole) throws SQLException {
+        String sqlQuery = "SELECT book_id, title, author, is_available FROM books WHERE book_id > ? ORDER BY book_id LIMIT ?";
+        int lastBookId = Integer.MIN_VALUE;
+        int rowsInPage;
+
+        do {
+            rowsInPage = 0;
+            try (Connection connection = AppBridge.getConnection(state.connectionPool);
+                 PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+                preparedStatement.setInt(1, lastBookId);
+                preparedStatement.setInt(2, PAGE_SIZE);
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        lastBookId = resultSet.getInt(1);
+                        consumeRow(resultSet, blackhole);
+                        rowsInPage++;
+                    }
+                }
+            }
+        } while (rowsInPage == PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void cursorStream(LibraryState state, Blackhole blackhole) throws SQLException {
+        try (Connection connection = AppBridge.getConnection(state.connectionPool)) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT book_id, title, author, is_available FROM books ORDER BY book_id")) {
+                preparedStatement.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumeRow(resultSet, blackhole);
+                    }
+                }
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void consumeRow(ResultSet resultSet, Blackhole blackhole) throws SQLException {
+        blackhole.consume(resultSet.getString(2));
+        blackhole.consume(resultSet.getString(3));
+        blackhole.consume(resultSet.getBoolean(4));
+    }
+}
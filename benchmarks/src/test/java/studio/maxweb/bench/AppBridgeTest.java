@@ -0,0 +1,26 @@
+package studio.maxweb.bench;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * The benchmarks reach the application through MethodHandles looked up by name, so a changed signature
+ * only shows up when a benchmark run starts. These checks catch it at build time, without a database.
+ */
+class AppBridgeTest {
+
+    @Test
+    void everyApplicationEntryPointStillResolves() {
+        assertDoesNotThrow(() -> Class.forName(AppBridge.class.getName(), true, AppBridgeTest.class.getClassLoader()));
+    }
+
+    @Test
+    void namingHelpersMatchTheSeededRows() {
+        // Seeded as 'Title ' || g, 'Author ' || (g % 500) and 'member' || g || '@library.test'.
+        assertEquals("Title 1234", BenchmarkDatabase.bookTitle(1234));
+        assertEquals("Author 234", BenchmarkDatabase.bookAuthor(1234));
+        assertEquals("member7@library.test", BenchmarkDatabase.memberEmail(7));
+    }
+}
@@ -0,0 +1,35 @@
+import java.time.LocalDate;
+
+/*
+ * One row of the active_loans read model: a loan together with its book and member.
+ * returnDate is LocalDate.MAX for loans without a return date.
+ */
+public record ActiveLoan(int loanId, int bookId, int memberId, String title, String author,
+                         String memberName, String memberEmail, LocalDate loanDate, LocalDate returnDate) {
+    public static final RowMapper<ActiveLoan> MAPPER = resultSet -> {
+        int loanIdColumn = resultSet.findColumn("loan_id");
+        int bookIdColumn = resultSet.findColumn("book_id");
+        int memberIdColumn = resultSet.findColumn("member_id");
+        int titleColumn = resultSet.findColumn("title");
+        int authorColumn = resultSet.findColumn("author");
+        int memberNameColumn = resultSet.findColumn("member_name");
+        int memberEmailColumn = resultSet.findColumn("member_email");
+        int loanDateColumn = resultSet.findColumn("loan_date");
+        int returnDateColumn = resultSet.findColumn("return_date");
+
+        return row -> new ActiveLoan(
+                row.getInt(loanIdColumn),
+                row.getInt(bookIdColumn),
+                row.getInt(memberIdColumn),
+                row.getString(titleColumn),
+                row.getString(authorColumn),
+                row.getString(memberNameColumn),
+                row.getString(memberEmailColumn),
+                row.getObject(loanDateColumn, LocalDate.class),
+                row.getObject(returnDateColumn, LocalDate.class));
+    };
+
+    public boolean isOverdueOn(LocalDate date) {
+        return returnDate.isBefore(date);
+    }
+}
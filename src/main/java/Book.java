@@ -0,0 +1,17 @@
+/*
+ * One row of the books table.
+ */
+public record Book(int id, String title, String author, boolean available) {
+    public static final RowMapper<Book> MAPPER = resultSet -> {
+        int idColumn = resultSet.findColumn("book_id");
+        int titleColumn = resultSet.findColumn("title");
+        int authorColumn = resultSet.findColumn("author");
+        int availableColumn = resultSet.findColumn("is_available");
+
+        return row -> new Book(
+                row.getInt(idColumn),
+                row.getString(titleColumn),
+                row.getString(authorColumn),
+                row.getBoolean(availableColumn));
+    };
+}
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * In-memory trie over the words of book titles and authors, used to answer prefix searches without a round trip.
+ *
+ * 1) Every book is added under the start of each word of its title and author (lower-cased),
+ *    so "hob" finds "The Hobbit" and "tol" finds the Tolkien books.
+ * 2) Each node keeps at most maxBooksPerNode books. Once a node overflowed it may miss matches,
+ *    so it can't answer a query that wants more books than it still holds, and find() returns null:
+ *    the caller then asks the database instead.
+ * 3) The books are snapshots: titles and authors are exact, availability is whatever it was when the book was added.
+ *
+ * The index is thread-safe; all methods synchronize on it.
+ */
+public class BookPrefixIndex {
+    private final int maxBooksPerNode;
+    private final Node root = new Node();
+
+    public BookPrefixIndex(int maxBooksPerNode) {
+        this.maxBooksPerNode = maxBooksPerNode;
+    }
+
+    public synchronized void add(Book book) {
+        for (String word : wordsOf(book)) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.children.computeIfAbsent(word.charAt(i), character -> new Node());
+                node.add(book, maxBooksPerNode);
+            }
+        }
+    }
+
+    public synchronized void remove(String title, String author) {
+        Book key = new Book(0, title, author, false);
+
+        for (String word : wordsOf(key)) {
+            Node node = root;
+            for (int i = 0; i < word.length() && node != null; i++) {
+                node = node.children.get(word.charAt(i));
+                if (node != null) {
+                    node.books.removeIf(book -> book.title().equals(title) && book.author().equals(author));
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        root.children.clear();
+    }
+
+    /*
+     * Returns up to limit books whose title or author has a word starting with prefix (a single word),
+     * or null when this index can't answer for sure.
+     */
+    public synchronized List<Book> find(String prefix, int limit) {
+        String normalizedPrefix = prefix.trim().toLowerCase(Locale.ROOT);
+        if (!normalizedPrefix.matches("[\\p{L}\\p{N}]+")) {
+            return null;
+        }
+
+        Node node = root;
+        for (int i = 0; i < normalizedPrefix.length(); i++) {
+            node = node.children.get(normalizedPrefix.charAt(i));
+            if (node == null) {
+                break;
+            }
+        }
+
+        // No exact prefix match means it may be a typo, and only the database can do the fuzzy part.
+        if (node == null || node.books.isEmpty() || !node.complete && node.books.size() < limit) {
+            return null;
+        }
+        return List.copyOf(node.books.subList(0, Math.min(limit, node.books.size())));
+    }
+
+    private static List<String> wordsOf(Book book) {
+        List<String> words = new ArrayList<>();
+        for (String text : new String[]{book.title(), book.author()}) {
+            for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private final List<Book> books = new ArrayList<>(2);
+        // False once a book didn't fit, so the list may miss matches.
+        private boolean complete = true;
+
+        private void add(Book book, int maxBooks) {
+            for (Book existing : books) {
+                if (existing.id() == book.id()) {
+                    return;
+                }
+            }
+            if (books.size() < maxBooks) {
+                books.add(book);
+            } else {
+                complete = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * All SQL that touches the books table.
+ *
+ * Lookups of a book id by title and author go through a LookupCache, and every write that can change
+ * the answer of such a lookup invalidates it.
+ *
+ * search() finds books by any word prefix of the title or author (full-text, GIN index on a tsvector),
+ * forgives typos through pg_trgm word similarity (GIN trigram indexes), and ranks the results.
+ * Single-word prefixes are answered from the optional in-memory BookPrefixIndex when it can.
+ *
+ * With the optional CatalogSnapshot, book listings are served from memory once it is loaded, and the writes made
+ * through this program (here and in LoanRepository) update it after they commit.
+ */
+public class BookRepository {
+    private static final String insertBookQuery = "INSERT INTO books (title, author, is_available) VALUES (?, ?, ?) RETURNING book_id";
+    private static final String findIdQuery = "SELECT book_id FROM books WHERE title = ? AND author = ? ORDER BY book_id LIMIT 1";
+    private static final String deleteBookQuery = "DELETE FROM books WHERE title = ? AND author = ? RETURNING book_id";
+
+    // Keyset (seek) pagination: each page continues after the last book_id that was returned.
+    private static final String booksPageQuery =
+            "SELECT book_id, title, author, is_available FROM books WHERE book_id > ? ORDER BY book_id LIMIT ?";
+    private static final String borrowedBooksPageQuery =
+            "SELECT book_id, title, author, is_available FROM books WHERE is_available = false AND book_id > ? ORDER BY book_id LIMIT ?";
+    private static final String remainingBooksQuery =
+            "SELECT book_id, title, author, is_available FROM books WHERE book_id > ? ORDER BY book_id";
+    private static final String remainingBorrowedBooksQuery =
+            "SELECT book_id, title, author, is_available FROM books WHERE is_available = false AND book_id > ? ORDER BY book_id";
+
+    // The expressions must match the index definitions in V3__book_search_indexes.sql, or PostgreSQL won't use the indexes.
+    private static final String searchDocument = "to_tsvector('simple', title || ' ' || author)";
+
+    private static final String fuzzySearchQuery = """
+            SELECT book_id, title, author, is_available
+            FROM books
+            WHERE %1$s @@ to_tsquery('simple', ?)
+               OR ? <%% lower(title)
+               OR ? <%% lower(author)
+            ORDER BY ts_rank(%1$s, to_tsquery('simple', ?))
+                     + GREATEST(word_similarity(?, lower(title)), word_similarity(?, lower(author)))
+                     + CASE WHEN lower(title) LIKE ? THEN 1 ELSE 0 END DESC,
+                     book_id
+            LIMIT ?
+            """.formatted(searchDocument);
+
+    // Used when pg_trgm isn't installed: prefix matching only, no typo tolerance.
+    private static final String prefixSearchQuery = """
+            SELECT book_id, title, author, is_available
+            FROM books
+            WHERE %1$s @@ to_tsquery('simple', ?)
+            ORDER BY ts_rank(%1$s, to_tsquery('simple', ?))
+                     + CASE WHEN lower(title) LIKE ? THEN 1 ELSE 0 END DESC,
+                     book_id
+            LIMIT ?
+            """.formatted(searchDocument);
+
+    private static final RowMapper<Integer> BOOK_ID_MAPPER = resultSet -> row -> row.getInt(1);
+
+    public record BookKey(String title, String author) {
+    }
+
+    public record SearchResult(List<Book> books, boolean servedFromMemory) {
+    }
+
+    private final ReadWriteRouter router;
+    private final LookupCache<BookKey> idCache;
+    private final BookPrefixIndex prefixIndex;
+    private final CatalogSnapshot catalogSnapshot;
+    private volatile boolean prefixIndexLoaded;
+    private volatile int prefixIndexMaxBooks;
+    private volatile boolean booksDeletedDuringReload;
+    private volatile boolean fuzzySearchAvailable;
+
+    public BookRepository(ConnectionPool connectionPool, int lookupCacheSize, Duration lookupCacheTtl) {
+        this(new ReadWriteRouter(connectionPool), lookupCacheSize, lookupCacheTtl, null, null);
+    }
+
+    public BookRepository(ReadWriteRouter router, int lookupCacheSize, Duration lookupCacheTtl, BookPrefixIndex prefixIndex,
+                          CatalogSnapshot catalogSnapshot) {
+        this.router = router;
+        this.idCache = new LookupCache<>("book by title/author", lookupCacheSize, lookupCacheTtl);
+        this.prefixIndex = prefixIndex;
+        this.catalogSnapshot = catalogSnapshot;
+    }
+
+    public int add(String title, String author, boolean isAvailable) throws SQLException {
+        try (Connection connection = router.getWriteConnection()) {
+            int bookId = QueryRunner.queryForFirst(connection, insertBookQuery, BOOK_ID_MAPPER, title, author, isAvailable).orElseThrow();
+            idCache.invalidate(new BookKey(title, author));
+            Book book = new Book(bookId, title, author, isAvailable);
+            if (prefixIndex != null) {
+                prefixIndex.add(book);
+            }
+            if (catalogSnapshot != null) {
+                catalogSnapshot.put(book);
+            }
+            return 1;
+        }
+    }
+
+    public int deleteByTitleAndAuthor(String title, String author) throws SQLException {
+        try (Connection connection = router.getWriteConnection()) {
+            List<Integer> deletedBookIds = QueryRunner.queryForList(connection, deleteBookQuery, BOOK_ID_MAPPER, title, author);
+            idCache.invalidate(new BookKey(title, author));
+            if (prefixIndex != null) {
+                prefixIndex.remove(title, author);
+                booksDeletedDuringReload = true;
+            }
+            if (catalogSnapshot != null) {
+                deletedBookIds.forEach(catalogSnapshot::remove);
+            }
+            return deletedBookIds.size();
+        }
+    }
+
+    /*
+     * Checks whether pg_trgm is installed (see V3__book_search_indexes.sql); without it, search() still works
+     * but only matches word prefixes.
+     */
+    public void detectSearchSupport() throws SQLException {
+        try (Connection connection = router.getPrimary().getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT 1 FROM pg_extension WHERE extname = 'pg_trgm'")) {
+            fuzzySearchAvailable = resultSet.next();
+        }
+    }
+
+    public List<QueryPlanVerifier.HotQuery> hotQueries() {
+        return List.of(
+                new QueryPlanVerifier.HotQuery("book id by title and author", findIdQuery, "title", "author"),
+                new QueryPlanVerifier.HotQuery("page of borrowed books", borrowedBooksPageQuery, 0, 20),
+                fuzzySearchAvailable
+                        ? new QueryPlanVerifier.HotQuery("book search", fuzzySearchQuery,
+                                "tit:*", "tit", "tit", "tit:*", "tit", "tit", "tit%", 10)
+                        : new QueryPlanVerifier.HotQuery("book search", prefixSearchQuery, "tit:*", "tit:*", "tit%", 10));
+    }
+
+    /*
+     * Loads every book into the in-memory prefix index. If the catalog has more than maxBooks books,
+     * the index stays unused and every search goes to the database.
+     *
+     * Safe to run while sessions are using the repository (it runs in the background at startup):
+     * searches go to the database until it is done, and if a book was deleted meanwhile the cursor
+     * may have put it back, so the index stays unused until the next reload.
+     */
+    public synchronized void reloadPrefixIndex(int maxBooks, int fetchSize) throws SQLException {
+        if (prefixIndex == null) {
+            return;
+        }
+
+        prefixIndexMaxBooks = maxBooks;
+        prefixIndexLoaded = false;
+        booksDeletedDuringReload = false;
+        prefixIndex.clear();
+
+        try (Stream<Book> books = streamAfter(Integer.MIN_VALUE, false, fetchSize)) {
+            long loadedBooks = books.limit(maxBooks + 1L).peek(prefixIndex::add).count();
+            if (loadedBooks > maxBooks) {
+                prefixIndex.clear();
+                return;
+            }
+        }
+        prefixIndexLoaded = !booksDeletedDuringReload;
+    }
+
+    /*
+     * Loads the whole books table into the catalog snapshot, replacing what it held. Reads from the primary,
+     * so the books this program just wrote are never missing; the snapshot keeps serving its old copy meanwhile.
+     */
+    public void reloadCatalogSnapshot(int fetchSize) throws SQLException {
+        if (catalogSnapshot == null) {
+            return;
+        }
+
+        try (Stream<Book> books = QueryRunner.queryForStream(router.getPrimary(), fetchSize, remainingBooksQuery,
+                Book.MAPPER, Integer.MIN_VALUE)) {
+            catalogSnapshot.reload(books);
+        } catch (QueryRunner.UncheckedSQLException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * Applies a book change reported by the database (see ChangeNotificationListener), which may have been made
+     * by another program. previousKey is the book's old title and author when the change renamed it, else null.
+     * Inserts and renames invalidate the lookups of both keys, so a cached "not found" doesn't outlive the book's arrival.
+     */
+    public void applyChangedBook(Book book, BookKey previousKey, boolean inserted) {
+        BookKey key = new BookKey(book.title(), book.author());
+        if (inserted || previousKey != null) {
+            idCache.invalidate(key);
+        }
+        if (previousKey != null) {
+            idCache.invalidate(previousKey);
+        }
+
+        if (prefixIndex != null && (inserted || previousKey != null)) {
+            if (previousKey != null) {
+                prefixIndex.remove(previousKey.title(), previousKey.author());
+                booksDeletedDuringReload = true;
+            }
+            prefixIndex.add(book);
+        }
+        if (catalogSnapshot != null) {
+            catalogSnapshot.put(book);
+        }
+    }
+
+    public void applyDeletedBook(Book book) {
+        idCache.invalidate(new BookKey(book.title(), book.author()));
+        if (prefixIndex != null) {
+            prefixIndex.remove(book.title(), book.author());
+            booksDeletedDuringReload = true;
+        }
+        if (catalogSnapshot != null) {
+            catalogSnapshot.remove(book.id());
+        }
+    }
+
+    /*
+     * For when changes may have been missed: drops every cached lookup and loads the in-memory copies again.
+     */
+    public void reloadEverything(int fetchSize) throws SQLException {
+        forgetAllIds();
+        reloadCatalogSnapshot(fetchSize);
+        if (prefixIndexMaxBooks > 0) {
+            reloadPrefixIndex(prefixIndexMaxBooks, fetchSize);
+        }
+    }
+
+    // Called by LoanRepository (and the write-behind queue) after a borrow or a return committed, and by
+    // ChangeNotificationListener for the loans of other programs.
+    public void markAvailable(int bookId, boolean available) {
+        if (catalogSnapshot != null) {
+            catalogSnapshot.setAvailable(bookId, available);
+        }
+    }
+
+    public CatalogSnapshot getCatalogSnapshot() {
+        return catalogSnapshot;
+    }
+
+    public SearchResult search(String text, int limit) throws SQLException {
+        if (prefixIndexLoaded) {
+            List<Book> books = prefixIndex.find(text, limit);
+            if (books != null) {
+                return new SearchResult(withCurrentAvailability(books), true);
+            }
+        }
+
+        String prefixQuery = toPrefixTsQuery(text);
+        String normalizedText = text.trim().toLowerCase(Locale.ROOT);
+        if (prefixQuery.isEmpty()) {
+            return new SearchResult(List.of(), false);
+        }
+        String titlePrefixPattern = escapeLikePattern(normalizedText) + "%";
+
+        try (Connection connection = router.getReadConnection()) {
+            List<Book> books = fuzzySearchAvailable
+                    ? QueryRunner.queryForList(connection, fuzzySearchQuery, Book.MAPPER, prefixQuery, normalizedText, normalizedText,
+                            prefixQuery, normalizedText, normalizedText, titlePrefixPattern, limit)
+                    : QueryRunner.queryForList(connection, prefixSearchQuery, Book.MAPPER, prefixQuery,
+                            prefixQuery, titlePrefixPattern, limit);
+            return new SearchResult(books, false);
+        }
+    }
+
+    /*
+     * Returns the book id, or LookupCache.NOT_FOUND.
+     * The lookup goes to a replica; a miss is checked again on the primary before it gets cached,
+     * because the replica may not have the book yet.
+     */
+    public int findIdByTitleAndAuthor(String title, String author) throws SQLException {
+        return idCache.get(new BookKey(title, author), key -> {
+            try (Connection connection = router.getReadConnection()) {
+                Optional<Integer> bookId = QueryRunner.queryForFirst(connection, findIdQuery, BOOK_ID_MAPPER, key.title(), key.author());
+                if (bookId.isPresent()) {
+                    return bookId.get();
+                }
+            }
+            try (Connection connection = router.getPrimary().getConnection()) {
+                return QueryRunner.queryForFirst(connection, findIdQuery, BOOK_ID_MAPPER, key.title(), key.author())
+                        .orElse(LookupCache.NOT_FOUND);
+            }
+        });
+    }
+
+    public List<Book> findPageAfter(int afterBookId, int pageSize, boolean onlyBorrowed) throws SQLException {
+        if (catalogSnapshot != null && catalogSnapshot.isLoaded()) {
+            return catalogSnapshot.findPageAfter(afterBookId, pageSize, onlyBorrowed);
+        }
+        String sqlQuery = onlyBorrowed ? borrowedBooksPageQuery : booksPageQuery;
+
+        try (Connection connection = router.getReadConnection()) {
+            return QueryRunner.queryForList(connection, sqlQuery, Book.MAPPER, afterBookId, pageSize);
+        }
+    }
+
+    /*
+     * Streams every book after afterBookId through a cursor. The stream holds a pooled connection until it is closed.
+     * Once the catalog snapshot is loaded, it streams from memory instead.
+     */
+    public Stream<Book> streamAfter(int afterBookId, boolean onlyBorrowed, int fetchSize) throws SQLException {
+        if (catalogSnapshot != null && catalogSnapshot.isLoaded()) {
+            return catalogSnapshot.streamAfter(afterBookId, onlyBorrowed);
+        }
+        String sqlQuery = onlyBorrowed ? remainingBorrowedBooksQuery : remainingBooksQuery;
+        return QueryRunner.queryForStream(router.reads(), fetchSize, sqlQuery, Book.MAPPER, afterBookId);
+    }
+
+    /*
+     * Runs collector over every book with a parallel, partitioned scan of the books table (see ParallelTableScanner).
+     */
+    public <R> ParallelTableScanner.ScanResult<R> scanAll(ParallelTableScanner scanner, Collector<Book, ?, R> collector) throws SQLException {
+        return scanner.scan("books", "book_id", "book_id, title, author, is_available", Book.MAPPER, collector);
+    }
+
+    public Integer getCachedId(BookKey bookKey) {
+        return idCache.getIfPresent(bookKey);
+    }
+
+    // lookupGeneration is getIdGeneration() from before the query that found bookId.
+    public void rememberId(BookKey bookKey, Integer bookId, long lookupGeneration) {
+        idCache.putIfUnchanged(bookKey, bookId == null ? LookupCache.NOT_FOUND : bookId, lookupGeneration);
+    }
+
+    public long getIdGeneration() {
+        return idCache.generation();
+    }
+
+    public void forgetId(BookKey bookKey) {
+        idCache.invalidate(bookKey);
+    }
+
+    public void forgetAllIds() {
+        idCache.invalidateAll();
+    }
+
+    public LookupCache<BookKey> getIdCache() {
+        return idCache;
+    }
+
+    // The prefix index keeps availability as it was when a book was added; the snapshot knows the current one.
+    private List<Book> withCurrentAvailability(List<Book> books) {
+        if (catalogSnapshot == null) {
+            return books;
+        }
+        return books.stream()
+                .map(book -> {
+                    Boolean available = catalogSnapshot.isAvailable(book.id());
+                    return available == null || available == book.available()
+                            ? book
+                            : new Book(book.id(), book.title(), book.author(), available);
+                })
+                .toList();
+    }
+
+    // "lord of the" -> "lord:* & of:* & the:*" (only letters and digits reach to_tsquery, so no escaping is needed).
+    private static String toPrefixTsQuery(String text) {
+        return Stream.of(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty())
+                .map(word -> word + ":*")
+                .collect(Collectors.joining(" & "));
+    }
+
+    private static String escapeLikePattern(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,248 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Streams a CSV/TSV file of books or members into the database.
+ *
+ * 1) If the connection is a PostgreSQL one, the file is piped straight into COPY ... FROM STDIN via CopyManager.
+ * 2) Otherwise the rows are parsed one line at a time and sent with addBatch()/executeBatch() every batchSize rows.
+ *
+ * Either way the file is never loaded into memory: only one read buffer (COPY) or one batch (fallback) is held at a time.
+ * The whole import runs in one transaction, so a bad row leaves the tables untouched. For members that includes an email
+ * that is already registered (members.email is unique).
+ * Progress lines go to the PrintStream of the session that started the import.
+ *
+ * Expected columns (no id column, ids are generated):
+ * books   -> title, author, is_available
+ * members -> name, email
+ */
+public class CatalogImporter {
+    private static final int PROGRESS_INTERVAL_ROWS = 10_000;
+
+    public enum Target {
+        BOOKS("books", "title, author, is_available", 3),
+        MEMBERS("members", "name, email", 2);
+
+        private final String tableName;
+        private final String columns;
+        private final int columnCount;
+
+        Target(String tableName, String columns, int columnCount) {
+            this.tableName = tableName;
+            this.columns = columns;
+            this.columnCount = columnCount;
+        }
+    }
+
+    public enum Format {
+        CSV(','),
+        TSV('\t');
+
+        private final char delimiter;
+
+        Format(char delimiter) {
+            this.delimiter = delimiter;
+        }
+    }
+
+    public record ImportResult(long rows, long elapsedMillis, boolean usedCopy) {
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+    private final int batchSize;
+    private final PrintStream progress;
+
+    public CatalogImporter(ConnectionPool connectionPool, int batchSize, PrintStream progress) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+        this.connectionPool = connectionPool;
+        this.batchSize = batchSize;
+        this.progress = progress;
+    }
+
+    public ImportResult importFile(Path file, Target target, Format format, boolean hasHeader) throws SQLException, IOException {
+        long startedAt = System.currentTimeMillis();
+
+        try (Connection connection = connectionPool.getConnection();
+             BufferedReader fileReader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            connection.setAutoCommit(false);
+
+            try {
+                boolean useCopy = connection.isWrapperFor(PGConnection.class);
+                long rows = useCopy
+                        ? copyIn(connection, fileReader, target, format, hasHeader, startedAt)
+                        : batchInsert(connection, fileReader, target, format, hasHeader, startedAt);
+
+                connection.commit();
+                return new ImportResult(rows, System.currentTimeMillis() - startedAt, useCopy);
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private long copyIn(Connection connection, Reader fileReader, Target target, Format format,
+                        boolean hasHeader, long startedAt) throws SQLException, IOException {
+        String delimiter = format == Format.TSV ? "E'\\t'" : "','";
+        String sqlQuery = "COPY " + target.tableName + " (" + target.columns + ") FROM STDIN " +
+                "WITH (FORMAT csv, DELIMITER " + delimiter + ", HEADER " + hasHeader + ")";
+
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        return copyManager.copyIn(sqlQuery, new ProgressReader(fileReader, startedAt));
+    }
+
+    private long batchInsert(Connection connection, BufferedReader fileReader, Target target, Format format,
+                             boolean hasHeader, long startedAt) throws SQLException, IOException {
+        String placeholders = "?, ".repeat(target.columnCount - 1) + "?";
+        String sqlQuery = "INSERT INTO " + target.tableName + " (" + target.columns + ") VALUES (" + placeholders + ")";
+
+        long rows = 0;
+        int rowsInBatch = 0;
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            if (hasHeader) {
+                fileReader.readLine();
+            }
+
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                bindRow(preparedStatement, target, parseLine(line, format.delimiter), rows + 1);
+                preparedStatement.addBatch();
+                rows++;
+
+                if (++rowsInBatch == batchSize) {
+                    preparedStatement.executeBatch();
+                    rowsInBatch = 0;
+                }
+                if (rows % PROGRESS_INTERVAL_ROWS == 0) {
+                    printProgress(rows, startedAt);
+                }
+            }
+
+            if (rowsInBatch > 0) {
+                preparedStatement.executeBatch();
+            }
+        }
+
+        return rows;
+    }
+
+    private static void bindRow(PreparedStatement preparedStatement, Target target, List<String> fields, long rowNumber) throws SQLException {
+        if (fields.size() != target.columnCount) {
+            throw new SQLException("Row " + rowNumber + " has " + fields.size() + " fields, expected " + target.columnCount + ".");
+        }
+
+        switch (target) {
+            case BOOKS -> {
+                preparedStatement.setString(1, fields.get(0));
+                preparedStatement.setString(2, fields.get(1));
+                preparedStatement.setBoolean(3, parseBoolean(fields.get(2), rowNumber));
+            }
+            case MEMBERS -> {
+                preparedStatement.setString(1, fields.get(0));
+                preparedStatement.setString(2, fields.get(1));
+            }
+        }
+    }
+
+    // Same spellings PostgreSQL accepts for a boolean in COPY, so both import paths agree on the input.
+    private static boolean parseBoolean(String value, long rowNumber) throws SQLException {
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true", "t", "yes", "y", "on", "1" -> true;
+            case "false", "f", "no", "n", "off", "0" -> false;
+            default -> throw new SQLException("Row " + rowNumber + " has an invalid is_available value: " + value);
+        };
+    }
+
+    /*
+     * Splits one line on the delimiter, honouring double-quoted fields ("a, b" and "" as an escaped quote).
+     * Quoted fields spanning several lines are only supported by the COPY path.
+     */
+    static List<String> parseLine(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (inQuotes) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private void printProgress(long rows, long startedAt) {
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+        progress.println("📦 " + rows + " rows imported (" + rows * 1000 / elapsedMillis + " rows/s)");
+    }
+
+    /*
+     * Counts the lines CopyManager pulls through it, so COPY can report progress as well.
+     */
+    private final class ProgressReader extends FilterReader {
+        private final long startedAt;
+        private long lines;
+
+        private ProgressReader(Reader in, long startedAt) {
+            super(in);
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+
+            for (int i = offset; i < offset + count; i++) {
+                if (buffer[i] == '\n' && ++lines % PROGRESS_INTERVAL_ROWS == 0) {
+                    printProgress(lines, startedAt);
+                }
+            }
+
+            return count;
+        }
+    }
+}
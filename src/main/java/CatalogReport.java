@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collector;
+
+/*
+ * Totals over the whole catalog: how many books, how many are on the shelf, and the authors with the most books.
+ *
+ * collector() can be used with a parallel scan: every partition counts into its own Tally, and the tallies are merged at the end.
+ */
+public record CatalogReport(long books, long availableBooks, long authors, List<AuthorCount> topAuthors) {
+
+    public record AuthorCount(String author, long books) {
+    }
+
+    public static Collector<Book, ?, CatalogReport> collector(int topAuthorCount) {
+        return Collector.of(Tally::new, Tally::add, Tally::merge, tally -> tally.toReport(topAuthorCount));
+    }
+
+    private static final class Tally {
+        private final Map<String, Long> booksPerAuthor = new HashMap<>();
+        private long books;
+        private long availableBooks;
+
+        private void add(Book book) {
+            books++;
+            if (book.available()) {
+                availableBooks++;
+            }
+            booksPerAuthor.merge(book.author(), 1L, Long::sum);
+        }
+
+        private Tally merge(Tally other) {
+            books += other.books;
+            availableBooks += other.availableBooks;
+            other.booksPerAuthor.forEach((author, count) -> booksPerAuthor.merge(author, count, Long::sum));
+            return this;
+        }
+
+        private CatalogReport toReport(int topAuthorCount) {
+            List<AuthorCount> authorCounts = new ArrayList<>(booksPerAuthor.size());
+            booksPerAuthor.forEach((author, count) -> authorCounts.add(new AuthorCount(author, count)));
+            authorCounts.sort(Comparator.comparingLong(AuthorCount::books).reversed().thenComparing(AuthorCount::author));
+
+            return new CatalogReport(books, availableBooks, booksPerAuthor.size(),
+                    List.copyOf(authorCounts.subList(0, Math.min(topAuthorCount, authorCounts.size()))));
+        }
+    }
+}
@@ -0,0 +1,553 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * In-memory copy of the books table (book_id, title, author, is_available), so listings and availability checks
+ * are answered without a round trip.
+ *
+ * 1) Books are kept in primitive arrays ordered by book_id instead of one Book (and two Strings) per row:
+ *    titles are UTF-8 bytes packed into one array, authors are interned into a pool and referenced by number,
+ *    and availability (and "not deleted") are bitsets. A map from book_id to array position uses open addressing
+ *    on int keys, so lookups don't box. About 30-40 bytes per book plus the title bytes, and only a few objects
+ *    for the garbage collector however big the catalog is.
+ * 2) reload() builds a new copy from a stream of books and swaps it in. Until the first reload the snapshot is
+ *    not loaded and the callers go to the database. Changes made while a reload runs are applied to the current copy
+ *    and remembered, then applied again to the new copy before the swap (every change is idempotent).
+ * 3) put(), remove() and setAvailable() keep it current with this program's own writes; call them after the commit.
+ *    Changes made by other programs only show up with the next reload, so run reload() periodically.
+ * 4) Deleted books leave a gap (their bit is cleared) until the next reload compacts the arrays.
+ *
+ * The snapshot is thread-safe: reads share a read lock, changes take the write lock.
+ */
+public class CatalogSnapshot {
+    private static final int STREAM_CHUNK_SIZE = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Catalog catalog = new Catalog(16);
+    private boolean loaded;
+    private List<Consumer<Catalog>> changesDuringReload;
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder servedReads = new LongAdder();
+    private volatile long lastReloadMillis;
+
+    public boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return loaded;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Replaces the whole snapshot with books, which must come in book_id order (ORDER BY book_id).
+     * Only one reload runs at a time; if reading the books fails, the current copy stays as it is.
+     */
+    public synchronized void reload(Stream<Book> books) {
+        long startedAt = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            changesDuringReload = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Catalog freshCatalog = new Catalog(Math.max(16, size()));
+        boolean complete = false;
+        try {
+            books.forEach(freshCatalog::put);
+            freshCatalog.trimToSize();
+            complete = true;
+        } finally {
+            lock.writeLock().lock();
+            try {
+                List<Consumer<Catalog>> changes = changesDuringReload;
+                changesDuringReload = null;
+                if (complete) {
+                    changes.forEach(change -> change.accept(freshCatalog));
+                    catalog = freshCatalog;
+                    loaded = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        reloads.increment();
+        lastReloadMillis = System.currentTimeMillis() - startedAt;
+    }
+
+    public void put(Book book) {
+        change(catalog -> catalog.put(book));
+    }
+
+    public void remove(int bookId) {
+        change(catalog -> catalog.remove(bookId));
+    }
+
+    public void setAvailable(int bookId, boolean available) {
+        change(catalog -> catalog.setAvailable(bookId, available));
+    }
+
+    /*
+     * Whether the book is on the shelf, or null when the snapshot doesn't know the book (or isn't loaded).
+     */
+    public Boolean isAvailable(int bookId) {
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                return null;
+            }
+            int position = catalog.positionOf(bookId);
+            return position < 0 ? null : catalog.isAvailableAt(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * The same page as "WHERE book_id > afterBookId [AND NOT is_available] ORDER BY book_id LIMIT pageSize".
+     */
+    public List<Book> findPageAfter(int afterBookId, int pageSize, boolean onlyBorrowed) {
+        lock.readLock().lock();
+        try {
+            servedReads.increment();
+            return catalog.pageAfter(afterBookId, pageSize, onlyBorrowed);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Every book after afterBookId, in book_id order. The stream reads the snapshot in chunks,
+     * so it never blocks writers for long and sees changes made while it is being consumed.
+     */
+    public Stream<Book> streamAfter(int afterBookId, boolean onlyBorrowed) {
+        servedReads.increment();
+        Spliterator<Book> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private List<Book> chunk = List.of();
+            private int nextInChunk;
+            private int lastBookId = afterBookId;
+            private boolean exhausted;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Book> action) {
+                if (nextInChunk == chunk.size()) {
+                    if (exhausted) {
+                        return false;
+                    }
+                    lock.readLock().lock();
+                    try {
+                        chunk = catalog.pageAfter(lastBookId, STREAM_CHUNK_SIZE, onlyBorrowed);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    nextInChunk = 0;
+                    exhausted = chunk.size() < STREAM_CHUNK_SIZE;
+                    if (chunk.isEmpty()) {
+                        return false;
+                    }
+                }
+                Book book = chunk.get(nextInChunk++);
+                lastBookId = book.id();
+                action.accept(book);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return catalog.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            if (!loaded) {
+                return "Catalog snapshot: not loaded yet";
+            }
+            return String.format("Catalog snapshot: %d books in %.1f MB, %d reloads (last one took %d ms), %d reads served from memory",
+                    catalog.size(), catalog.memoryBytes() / (1024.0 * 1024.0), reloads.sum(), lastReloadMillis, servedReads.sum());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bytes of title storage in use, including the old bytes of titles that were replaced by longer ones.
+    int titleBytesUsed() {
+        lock.readLock().lock();
+        try {
+            return catalog.titleBytesUsed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void change(Consumer<Catalog> change) {
+        lock.writeLock().lock();
+        try {
+            change.accept(catalog);
+            if (changesDuringReload != null) {
+                changesDuringReload.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * One copy of the catalog. Not thread-safe by itself; CatalogSnapshot guards it with its lock.
+     */
+    private static final class Catalog {
+        private int size;
+        private int liveBooks;
+        private int[] bookIds;
+        private int[] titleOffsets;
+        private int[] titleLengths;
+        private int[] authorRefs;
+        private long[] availableBits;
+        private long[] liveBits;
+
+        private byte[] titleBytes;
+        private int titleBytesUsed;
+
+        private String[] authors = new String[64];
+        private int authorCount;
+        private final Map<String, Integer> authorIndex = new HashMap<>();
+
+        private final IntIntMap positions;
+
+        private Catalog(int capacity) {
+            bookIds = new int[capacity];
+            titleOffsets = new int[capacity];
+            titleLengths = new int[capacity];
+            authorRefs = new int[capacity];
+            availableBits = new long[bitWords(capacity)];
+            liveBits = new long[bitWords(capacity)];
+            titleBytes = new byte[capacity * 24];
+            positions = new IntIntMap(capacity);
+        }
+
+        private int size() {
+            return liveBooks;
+        }
+
+        private int positionOf(int bookId) {
+            return positions.get(bookId);
+        }
+
+        private boolean isAvailableAt(int position) {
+            return isSet(availableBits, position);
+        }
+
+        private void put(Book book) {
+            int position = positions.get(book.id());
+            boolean known = position >= 0;
+            if (!known) {
+                position = insertPosition(book.id());
+                positions.put(book.id(), position);
+                liveBooks++;
+            }
+
+            storeTitle(position, book.title(), known);
+            authorRefs[position] = internAuthor(book.author());
+            setBit(availableBits, position, book.available());
+            setBit(liveBits, position, true);
+        }
+
+        private void remove(int bookId) {
+            int position = positions.remove(bookId);
+            if (position >= 0) {
+                setBit(liveBits, position, false);
+                liveBooks--;
+            }
+        }
+
+        private void setAvailable(int bookId, boolean available) {
+            int position = positions.get(bookId);
+            if (position >= 0) {
+                setBit(availableBits, position, available);
+            }
+        }
+
+        private List<Book> pageAfter(int afterBookId, int pageSize, boolean onlyBorrowed) {
+            List<Book> page = new ArrayList<>(Math.min(pageSize, 64));
+            int position = afterBookId == Integer.MAX_VALUE ? size : firstPositionAfter(afterBookId);
+
+            while (page.size() < pageSize && (position = nextMatch(position, onlyBorrowed)) < size) {
+                page.add(bookAt(position));
+                position++;
+            }
+            return page;
+        }
+
+        // The first position at or after from that holds a live book (and, with onlyBorrowed, a borrowed one).
+        private int nextMatch(int from, boolean onlyBorrowed) {
+            int wordIndex = from >>> 6;
+            if (wordIndex >= bitWords(size)) {
+                return size;
+            }
+            long word = matchingBits(wordIndex, onlyBorrowed) & (-1L << (from & 63));
+
+            while (word == 0) {
+                if (++wordIndex >= bitWords(size)) {
+                    return size;
+                }
+                word = matchingBits(wordIndex, onlyBorrowed);
+            }
+            return Math.min(size, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+        }
+
+        private long matchingBits(int wordIndex, boolean onlyBorrowed) {
+            return onlyBorrowed ? liveBits[wordIndex] & ~availableBits[wordIndex] : liveBits[wordIndex];
+        }
+
+        private Book bookAt(int position) {
+            String title = new String(titleBytes, titleOffsets[position], titleLengths[position], StandardCharsets.UTF_8);
+            return new Book(bookIds[position], title, authors[authorRefs[position]], isSet(availableBits, position));
+        }
+
+        private int firstPositionAfter(int bookId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (bookIds[middle] <= bookId) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /*
+         * Makes room for bookId and returns its position. Ids normally arrive in ascending order and are appended;
+         * an id lower than the last one (two sessions adding books at the same time) shifts the positions after it.
+         */
+        private int insertPosition(int bookId) {
+            ensureCapacity(size + 1);
+            int position = size == 0 || bookIds[size - 1] < bookId ? size : firstPositionAfter(bookId);
+            int tail = size - position;
+
+            if (tail > 0) {
+                System.arraycopy(bookIds, position, bookIds, position + 1, tail);
+                System.arraycopy(titleOffsets, position, titleOffsets, position + 1, tail);
+                System.arraycopy(titleLengths, position, titleLengths, position + 1, tail);
+                System.arraycopy(authorRefs, position, authorRefs, position + 1, tail);
+                for (int i = size; i > position; i--) {
+                    setBit(availableBits, i, isSet(availableBits, i - 1));
+                    setBit(liveBits, i, isSet(liveBits, i - 1));
+                    if (isSet(liveBits, i)) {
+                        positions.put(bookIds[i], i);
+                    }
+                }
+            }
+
+            bookIds[position] = bookId;
+            size++;
+            return position;
+        }
+
+        /*
+         * A known book's new title overwrites the old bytes when it fits in them (the same title again, or a shorter one),
+         * so repeated changes to a book don't pile up copies of its title until the next reload. Otherwise it is appended.
+         */
+        private void storeTitle(int position, String title, boolean known) {
+            byte[] encodedTitle = title.getBytes(StandardCharsets.UTF_8);
+            if (known && encodedTitle.length <= titleLengths[position]) {
+                System.arraycopy(encodedTitle, 0, titleBytes, titleOffsets[position], encodedTitle.length);
+                titleLengths[position] = encodedTitle.length;
+                return;
+            }
+            if (titleBytesUsed + encodedTitle.length > titleBytes.length) {
+                titleBytes = Arrays.copyOf(titleBytes, Math.max(titleBytes.length * 2, titleBytesUsed + encodedTitle.length));
+            }
+            System.arraycopy(encodedTitle, 0, titleBytes, titleBytesUsed, encodedTitle.length);
+            titleOffsets[position] = titleBytesUsed;
+            titleLengths[position] = encodedTitle.length;
+            titleBytesUsed += encodedTitle.length;
+        }
+
+        private int internAuthor(String author) {
+            Integer authorRef = authorIndex.get(author);
+            if (authorRef != null) {
+                return authorRef;
+            }
+            if (authorCount == authors.length) {
+                authors = Arrays.copyOf(authors, authorCount * 2);
+            }
+            authors[authorCount] = author;
+            authorIndex.put(author, authorCount);
+            return authorCount++;
+        }
+
+        // Drops the slack left by doubling while loading (a few percent is kept for the books added later).
+        private void trimToSize() {
+            resize(size + size / 32 + 16);
+            titleBytes = Arrays.copyOf(titleBytes, titleBytesUsed + titleBytesUsed / 32 + 1024);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bookIds.length) {
+                resize(Math.max(capacity, bookIds.length * 2));
+            }
+        }
+
+        private void resize(int newCapacity) {
+            bookIds = Arrays.copyOf(bookIds, newCapacity);
+            titleOffsets = Arrays.copyOf(titleOffsets, newCapacity);
+            titleLengths = Arrays.copyOf(titleLengths, newCapacity);
+            authorRefs = Arrays.copyOf(authorRefs, newCapacity);
+            availableBits = Arrays.copyOf(availableBits, bitWords(newCapacity));
+            liveBits = Arrays.copyOf(liveBits, bitWords(newCapacity));
+        }
+
+        // Approximate: the arrays, plus about 100 bytes per distinct author for its String and map entry.
+        private long memoryBytes() {
+            return 16L * bookIds.length + 16L * availableBits.length + titleBytes.length
+                    + positions.memoryBytes() + 100L * authorCount;
+        }
+
+        private static int bitWords(int bits) {
+            return (bits + 63) >>> 6;
+        }
+
+        private static boolean isSet(long[] bits, int index) {
+            return (bits[index >>> 6] & (1L << index)) != 0;
+        }
+
+        private static void setBit(long[] bits, int index, boolean value) {
+            if (value) {
+                bits[index >>> 6] |= 1L << index;
+            } else {
+                bits[index >>> 6] &= ~(1L << index);
+            }
+        }
+    }
+
+    /*
+     * int -> int hash map with open addressing (linear probing) over two int arrays, kept at most half full.
+     * Integer.MIN_VALUE marks a free slot, so it can't be used as a key (book ids come from a serial, they are positive).
+     */
+    static final class IntIntMap {
+        private static final int FREE = Integer.MIN_VALUE;
+
+        private int[] keys;
+        private int[] values;
+        private int mask;
+        private int shift;
+        private int count;
+
+        IntIntMap(int expectedSize) {
+            allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1));
+        }
+
+        // Returns the value, or -1 when key is absent.
+        int get(int key) {
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                if (keys[slot] == FREE) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(int key, int value) {
+            if (key == FREE) {
+                throw new IllegalArgumentException("Key " + FREE + " can't be stored.");
+            }
+            if ((count + 1) * 2 > keys.length) {
+                grow();
+            }
+            int slot = slotOf(key);
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == FREE) {
+                keys[slot] = key;
+                count++;
+            }
+            values[slot] = value;
+        }
+
+        // Returns the removed value, or -1. Later entries of the probe chain are moved back, so no tombstones are needed.
+        int remove(int key) {
+            int slot = slotOf(key);
+            while (keys[slot] != key) {
+                if (keys[slot] == FREE) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int removedValue = values[slot];
+
+            int gap = slot;
+            for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+                int home = slotOf(keys[next]);
+                // Move the entry into the gap unless its home slot lies cyclically in (gap, next].
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = FREE;
+            count--;
+            return removedValue;
+        }
+
+        int size() {
+            return count;
+        }
+
+        private long memoryBytes() {
+            return 8L * keys.length;
+        }
+
+        private int slotOf(int key) {
+            // Fibonacci hashing: serial ids are consecutive, the multiplication spreads them over the table.
+            return (key * 0x9E3779B9) >>> shift;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, FREE);
+            mask = capacity - 1;
+            shift = Integer.numberOfLeadingZeros(capacity) + 1;
+            count = 0;
+        }
+    }
+}
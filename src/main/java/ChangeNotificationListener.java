@@ -0,0 +1,189 @@
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Keeps the lookup caches, the prefix index and the catalog snapshot coherent with writes made by other programs
+ * (other instances of this one, psql, imports), through the notifications sent by the triggers of
+ * V5__change_notifications.sql (as narrowed by V7__key_and_availability_notifications.sql).
+ *
+ * 1) A daemon thread keeps one dedicated connection to the primary (outside the pool) that runs LISTEN library_changes
+ *    and waits for notifications with PGConnection.getNotifications(timeout).
+ * 2) Each notification describes one changed row (see the migrations for the format). Inserts, deletes and updates
+ *    that change a lookup key (title and author, or email) invalidate just that key: an insert may turn a cached
+ *    "not found" into a hit. Every book change is also applied to the prefix index and the catalog snapshot.
+ *    Lent and returned books arrive in bulk ("books|A", up to 500 ids) and only update the catalog snapshot.
+ * 3) "books|*" and "members|*" (bulk statements, TRUNCATE, oversized rows) and notifications that can't be parsed
+ *    drop everything cached for that table, and reload the in-memory copies of the books.
+ * 4) Notifications sent while the connection is down are lost, so after a reconnect everything is dropped and
+ *    reloaded once. Reconnect attempts are reconnectDelay apart.
+ * 5) This program's own writes come back as notifications too; applying them a second time changes nothing.
+ */
+public class ChangeNotificationListener implements AutoCloseable {
+    private static final String CHANNEL = "library_changes";
+    private static final String FIELD_SEPARATOR = "\u001f";
+    private static final int POLL_MILLIS = 500;
+
+    private final ConnectionPool connectionPool;
+    private final BookRepository bookRepository;
+    private final MemberRepository memberRepository;
+    private final int fetchSize;
+    private final long reconnectDelayMillis;
+    private final Thread listener;
+    private volatile boolean closed;
+
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder fullInvalidations = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    public ChangeNotificationListener(ConnectionPool connectionPool, BookRepository bookRepository,
+                                      MemberRepository memberRepository, int fetchSize, Duration reconnectDelay) {
+        this.connectionPool = connectionPool;
+        this.bookRepository = bookRepository;
+        this.memberRepository = memberRepository;
+        this.fetchSize = fetchSize;
+        this.reconnectDelayMillis = reconnectDelay.toMillis();
+
+        this.listener = new Thread(this::listen, "change-notification-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            listener.join(POLL_MILLIS * 4L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Change notifications: " + notifications.sum() + " received, " + fullInvalidations.sum()
+                + " full invalidations, " + reconnects.sum() + " reconnects";
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+        boolean outageReported = false;
+
+        while (!closed) {
+            try (Connection connection = connectionPool.openDedicatedConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+                if (connectedBefore) {
+                    reconnects.increment();
+                    System.out.println("✅ Listening for changes again; reloading what may have been missed.");
+                    invalidateEverything("books");
+                    invalidateEverything("members");
+                }
+                connectedBefore = true;
+                outageReported = false;
+
+                while (!closed) {
+                    PGNotification[] received = pgConnection.getNotifications(POLL_MILLIS);
+                    if (received == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : received) {
+                        notifications.increment();
+                        apply(notification.getParameter());
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                if (!outageReported) {
+                    outageReported = true;
+                    System.out.println("⚠️ Not listening for changes (caches may go stale until it reconnects): " + e.getMessage());
+                }
+                sleep(reconnectDelayMillis);
+            }
+        }
+    }
+
+    private void apply(String payload) throws SQLException {
+        String[] fields = payload.split(FIELD_SEPARATOR, -1);
+        String table = fields[0];
+
+        try {
+            if (table.equals("books") && fields.length == 4 && fields[1].equals("A")) {
+                applyAvailabilityChange(fields);
+                return;
+            }
+            if (table.equals("books") && (fields.length == 6 || fields.length == 8)) {
+                applyBookChange(fields);
+                return;
+            }
+            if (table.equals("members") && (fields.length == 4 || fields.length == 5)) {
+                applyMemberChange(fields);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // Falls through: a title held the separator or the format changed, so the safe answer is to drop the whole table.
+        }
+
+        if (table.equals("books") || table.equals("members")) {
+            invalidateEverything(table);
+        }
+    }
+
+    // books|I/U/D|book_id|is_available|title|author[|old title|old author]
+    private void applyBookChange(String[] fields) {
+        Book book = new Book(Integer.parseInt(fields[2]), fields[4], fields[5], fields[3].equals("t"));
+
+        switch (fields[1]) {
+            case "I" -> bookRepository.applyChangedBook(book, null, true);
+            case "U" -> bookRepository.applyChangedBook(book,
+                    fields.length == 8 ? new BookRepository.BookKey(fields[6], fields[7]) : null, false);
+            case "D" -> bookRepository.applyDeletedBook(book);
+            default -> throw new IllegalArgumentException("Unknown change " + fields[1]);
+        }
+    }
+
+    // books|A|t or f|book_id,book_id,...
+    private void applyAvailabilityChange(String[] fields) {
+        boolean available = fields[2].equals("t");
+        for (String bookId : fields[3].split(",")) {
+            bookRepository.markAvailable(Integer.parseInt(bookId), available);
+        }
+    }
+
+    // members|I/U/D|member_id|email[|old email]
+    // Inserts may replace a cached "not found" and deletes a cached id; updates only matter when they changed the email.
+    private void applyMemberChange(String[] fields) {
+        if (!fields[1].equals("U") || fields.length == 5) {
+            memberRepository.forgetId(fields[3]);
+        }
+        if (fields.length == 5) {
+            memberRepository.forgetId(fields[4]);
+        }
+    }
+
+    private void invalidateEverything(String table) throws SQLException {
+        fullInvalidations.increment();
+        if (table.equals("books")) {
+            bookRepository.reloadEverything(fetchSize);
+        } else {
+            memberRepository.forgetAllIds();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+/*
+ * Stops sending work to a database that keeps failing, so callers fail at once instead of each waiting
+ * for their own connect or socket timeout.
+ *
+ * 1) CLOSED: calls go through. failureThreshold connection failures in a row open the circuit.
+ * 2) OPEN: every call fails immediately with a CircuitOpenException, until openDuration has passed.
+ * 3) HALF_OPEN: one trial call is let through (the others still fail fast). If it succeeds the circuit closes,
+ *    if it fails the circuit opens again for another openDuration.
+ *
+ * Other errors (constraint violations, syntax errors, query timeouts, ...) prove the database is reachable and count as
+ * successes. Calls that never reached it (the local pool had no free connection) are recorded as inconclusive.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static class CircuitOpenException extends SQLTransientConnectionException {
+        private static final long serialVersionUID = 1L;
+
+        private CircuitOpenException(long retryInMillis) {
+            super("The database is unreachable; not trying again for another " + Math.max(1, (retryInMillis + 999) / 1000) + " s.",
+                    "08000");
+        }
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long timesOpened;
+    private long rejectedCalls;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The failure threshold must be at least 1.");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDuration.toMillis();
+    }
+
+    /*
+     * Call before every attempt. Throws while the circuit is open; in HALF_OPEN only the trial call gets through.
+     */
+    public synchronized void beforeCall() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            long openFor = System.currentTimeMillis() - openedAt;
+            if (openFor < openDurationMillis) {
+                rejectedCalls++;
+                throw new CircuitOpenException(openDurationMillis - openFor);
+            }
+            state = State.HALF_OPEN;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                rejectedCalls++;
+                throw new CircuitOpenException(0);
+            }
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            System.out.println("✅ The database is reachable again, circuit closed.");
+        }
+    }
+
+    // Neither a success nor a failure; in HALF_OPEN the next call becomes the trial.
+    public synchronized void recordInconclusive() {
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            timesOpened++;
+            System.out.println("🚨 Circuit opened after " + consecutiveFailures + " failures in a row: failing fast for "
+                    + openDurationMillis + " ms.");
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Circuit breaker: " + state + ", opened " + timesOpened + " times, " + rejectedCalls + " calls failed fast";
+    }
+}
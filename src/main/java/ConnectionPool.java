@@ -0,0 +1,411 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A small bounded pool of physical connections.
+ *
+ * 1) At most maxSize connections are open (or leased) at the same time.
+ * 2) getConnection() waits up to borrowTimeout for a free slot, then fails.
+ * 3) A connection that sat idle for longer than a second is validated with isValid() before it is
+ *    handed out. Recently used ones are handed out as they are: a connection that broke in the meantime fails its
+ *    first statement with a socket error, and release() then closes it instead of putting it back.
+ * 4) Connections idle for longer than idleTimeout are closed by a background evictor.
+ * 5) Connections older than maxLifetime are retired instead of being reused.
+ * 6) Each physical connection owns a StatementCache of up to statementCacheSize statements (0 turns it off).
+ * 7) With a QueryMetrics, physical connections are instrumented once when they are opened and connect time is recorded.
+ * 8) Connections are opened on demand; warmUp(n) opens n of them ahead of time, in parallel.
+ * 9) With a queryTimeout, every statement created through a leased connection gets setQueryTimeout(), so a statement
+ *    stuck on a lock or a dead server is cancelled instead of hanging the caller. Callers can still set their own.
+ *
+ * The Connection returned by getConnection() is a proxy: calling close() on it gives the
+ * physical connection back to the pool, so callers keep using try-with-resources as usual.
+ */
+public class ConnectionPool implements ConnectionSource, AutoCloseable {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long VALIDATION_IDLE_THRESHOLD_MILLIS = 1_000;
+
+    private final String url;
+    private final Properties connectionProperties;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+    private final int queryTimeoutSeconds;
+    private final StatementCache.Counters statementCacheCounters = new StatementCache.Counters();
+    private final QueryMetrics queryMetrics;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String username, String password, int maxSize,
+                          Duration idleTimeout, Duration maxLifetime, Duration borrowTimeout, int statementCacheSize) {
+        this(url, username, password, maxSize, idleTimeout, maxLifetime, borrowTimeout, statementCacheSize, null);
+    }
+
+    public ConnectionPool(String url, String username, String password, int maxSize,
+                          Duration idleTimeout, Duration maxLifetime, Duration borrowTimeout, int statementCacheSize,
+                          QueryMetrics queryMetrics) {
+        this(url, credentials(username, password), maxSize, idleTimeout, maxLifetime, borrowTimeout, statementCacheSize, queryMetrics);
+    }
+
+    /*
+     * connectionProperties go to the driver as they are: user, password and driver options such as prepareThreshold.
+     */
+    public ConnectionPool(String url, Properties connectionProperties, int maxSize,
+                          Duration idleTimeout, Duration maxLifetime, Duration borrowTimeout, int statementCacheSize,
+                          QueryMetrics queryMetrics) {
+        this(url, connectionProperties, maxSize, idleTimeout, maxLifetime, borrowTimeout, statementCacheSize, queryMetrics, Duration.ZERO);
+    }
+
+    // A zero queryTimeout leaves statements without a timeout; otherwise it is rounded up to whole seconds.
+    public ConnectionPool(String url, Properties connectionProperties, int maxSize,
+                          Duration idleTimeout, Duration maxLifetime, Duration borrowTimeout, int statementCacheSize,
+                          QueryMetrics queryMetrics, Duration queryTimeout) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1.");
+        }
+
+        this.url = url;
+        this.connectionProperties = connectionProperties;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.maxLifetimeMillis = maxLifetime.toMillis();
+        this.borrowTimeoutMillis = borrowTimeout.toMillis();
+        this.statementCacheSize = statementCacheSize;
+        this.queryTimeoutSeconds = (int) Math.min(Integer.MAX_VALUE, (queryTimeout.toMillis() + 999) / 1000);
+        this.queryMetrics = queryMetrics;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionPeriod = Math.max(1_000, idleTimeoutMillis / 2);
+        evictor.scheduleAtFixedRate(this::evictIdleConnections, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        acquirePermit();
+
+        try {
+            PooledConnection pooledConnection;
+            while ((pooledConnection = idleConnections.pollFirst()) != null) {
+                if (isUsable(pooledConnection)) {
+                    return pooledConnection.lease();
+                }
+                pooledConnection.closePhysicalConnection();
+            }
+
+            return openConnection().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /*
+     * Opens one physical connection ahead of time, so the first menu action
+     * doesn't pay the connect cost.
+     */
+    public void warmUp() throws SQLException {
+        warmUp(1);
+    }
+
+    /*
+     * Opens up to connections physical connections at the same time (one virtual thread each),
+     * so warming up n connections takes about one connect instead of n.
+     */
+    public void warmUp(int connections) throws SQLException {
+        int count = Math.min(connections, maxSize);
+        List<Future<Connection>> leases = new ArrayList<>(count);
+        List<Connection> leasedConnections = new ArrayList<>(count);
+        SQLException failure = null;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                leases.add(executor.submit(this::getConnection));
+            }
+
+            // All are held until every lease is done, so none of them is handed out twice.
+            for (Future<Connection> lease : leases) {
+                try {
+                    leasedConnections.add(lease.get());
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof SQLException sqlException
+                            ? sqlException
+                            : new SQLException("Could not open a connection.", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new SQLException("Interrupted while warming up the pool.", e);
+                }
+            }
+        }
+
+        for (Connection connection : leasedConnections) {
+            connection.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public StatementCache.Counters getStatementCacheCounters() {
+        return statementCacheCounters;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null) {
+            pooledConnection.closePhysicalConnection();
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        "Timed out after " + borrowTimeoutMillis + " ms waiting for a free connection (pool size " + maxSize + ").");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a free connection.", e);
+        }
+    }
+
+    /*
+     * A plain connection with the pool's settings that doesn't count against the pool, for work that keeps one
+     * connection open indefinitely (LISTEN). The caller closes it.
+     */
+    public Connection openDedicatedConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+        return DriverManager.getConnection(url, connectionProperties);
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        if (queryMetrics == null) {
+            return new PooledConnection(DriverManager.getConnection(url, connectionProperties));
+        }
+
+        long startedAt = System.nanoTime();
+        Connection physicalConnection = DriverManager.getConnection(url, connectionProperties);
+        queryMetrics.recordConnect(System.nanoTime() - startedAt);
+        // Wrapped before the statement cache sees it, so cached statements are measured too.
+        return new PooledConnection(queryMetrics.instrument(physicalConnection));
+    }
+
+    private static Properties credentials(String username, String password) {
+        Properties properties = new Properties();
+        properties.setProperty("user", username);
+        properties.setProperty("password", password);
+        return properties;
+    }
+
+    private boolean isUsable(PooledConnection pooledConnection) {
+        if (pooledConnection.isExpired()) {
+            return false;
+        }
+        // Skips the round trip of isValid() for a connection that was fine a moment ago.
+        if (System.currentTimeMillis() - pooledConnection.lastUsedAt <= VALIDATION_IDLE_THRESHOLD_MILLIS) {
+            return true;
+        }
+
+        try {
+            return pooledConnection.physicalConnection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooledConnection) {
+        try {
+            if (closed || pooledConnection.isExpired() || !resetConnectionState(pooledConnection.physicalConnection)) {
+                pooledConnection.closePhysicalConnection();
+            } else {
+                pooledConnection.lastUsedAt = System.currentTimeMillis();
+                idleConnections.offerFirst(pooledConnection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Whatever the borrower left behind (open transaction, auto-commit off) must not leak into the next lease.
+    private boolean resetConnectionState(Connection physicalConnection) {
+        try {
+            if (physicalConnection.isClosed()) {
+                return false;
+            }
+            if (!physicalConnection.getAutoCommit()) {
+                physicalConnection.rollback();
+                physicalConnection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> iterator = idleConnections.iterator();
+
+        while (iterator.hasNext()) {
+            PooledConnection pooledConnection = iterator.next();
+            boolean idleTooLong = now - pooledConnection.lastUsedAt > idleTimeoutMillis;
+
+            if ((idleTooLong || pooledConnection.isExpired()) && idleConnections.remove(pooledConnection)) {
+                pooledConnection.closePhysicalConnection();
+            }
+        }
+    }
+
+    private final class PooledConnection {
+        private final Connection physicalConnection;
+        private final StatementCache statementCache;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastUsedAt = createdAt;
+
+        private PooledConnection(Connection physicalConnection) {
+            this.physicalConnection = physicalConnection;
+            this.statementCache = statementCacheSize > 0
+                    ? new StatementCache(physicalConnection, statementCacheSize, statementCacheCounters)
+                    : null;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > maxLifetimeMillis;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new LeasedConnectionHandler(this));
+        }
+
+        private void closePhysicalConnection() {
+            if (statementCache != null) {
+                statementCache.close();
+            }
+
+            try {
+                physicalConnection.close();
+            } catch (SQLException e) {
+                // The connection is being thrown away anyway.
+            }
+        }
+    }
+
+    /*
+     * Forwards every call to the physical connection, except close() which returns it to the pool,
+     * and prepareStatement(sql) which is served from the connection's statement cache.
+     * Statements handed out get the pool's query timeout.
+     * After close() the lease is dead: any further call fails like on a really closed connection.
+     */
+    private final class LeasedConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooledConnection;
+        private boolean returned;
+
+        private LeasedConnectionHandler(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        release(pooledConnection);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned || pooledConnection.physicalConnection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "PooledConnection[" + pooledConnection.physicalConnection + "]";
+                }
+                default -> {
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                }
+            }
+
+            Object result;
+            if (pooledConnection.statementCache != null && isPlainPrepareStatement(method)) {
+                result = pooledConnection.statementCache.prepare((String) args[0]);
+            } else {
+                try {
+                    result = method.invoke(pooledConnection.physicalConnection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            // Cached statements are set again every time they are handed out, in case the previous borrower changed the timeout.
+            if (queryTimeoutSeconds > 0 && result instanceof Statement statement) {
+                statement.setQueryTimeout(queryTimeoutSeconds);
+            }
+            return result;
+        }
+
+        private boolean isPlainPrepareStatement(Method method) {
+            return method.getName().equals("prepareStatement") && method.getParameterCount() == 1;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * Anything that hands out connections that go back where they came from on close():
+ * a ConnectionPool, or the read side of a ReadWriteRouter.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+    Connection getConnection() throws SQLException;
+}
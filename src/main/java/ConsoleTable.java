@@ -0,0 +1,202 @@
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.time.LocalDate;
+
+/*
+ * Renders listing rows into one reusable buffer and writes them to the session's PrintStream in large blocks.
+ *
+ * 1) Cells are appended straight into a StringBuilder that is reused for every row (numbers and dates are formatted
+ *    in place, no String per cell or per row), and the header is written before the first row.
+ * 2) flush() encodes the buffered text into a reusable byte buffer and writes it with out.write(): one write and
+ *    one flush per page instead of a synchronized, auto-flushing println() per row. Big listings also flush
+ *    whenever about FLUSH_THRESHOLD characters have piled up.
+ * 3) TABLE pads every cell to its column's width (cutting long values with '…'); TSV separates cells with tabs,
+ *    with tabs and line breaks inside values turned into spaces so every row stays on one line.
+ *
+ * Call flush() before prompting the user, and at the end of the listing.
+ */
+public class ConsoleTable {
+    private static final int FLUSH_THRESHOLD = 16 * 1024;
+    private static final String COLUMN_GAP = "  ";
+
+    public enum Format {
+        TABLE, TSV
+    }
+
+    public record Column(String header, int width) {
+    }
+
+    private final PrintStream out;
+    private final Format format;
+    private final Column[] columns;
+    private final StringBuilder text = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+
+    private int nextColumn;
+    private boolean headerWritten;
+    private long rows;
+
+    public ConsoleTable(PrintStream out, Format format, Column... columns) {
+        this.out = out;
+        this.format = format;
+        this.columns = columns;
+        this.encoder = out.charset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = CharBuffer.allocate(FLUSH_THRESHOLD + 1024);
+        this.bytes = ByteBuffer.allocate((int) (FLUSH_THRESHOLD * encoder.maxBytesPerChar()) + 1024);
+    }
+
+    public ConsoleTable cell(CharSequence value) {
+        int start = beginCell();
+        if (value != null) {
+            text.append(value);
+            for (int i = start; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\t' || c == '\n' || c == '\r') {
+                    text.setCharAt(i, ' ');
+                }
+            }
+        }
+        return endCell(start);
+    }
+
+    public ConsoleTable cell(long value) {
+        int start = beginCell();
+        text.append(value);
+        return endCell(start);
+    }
+
+    // ISO date (2024-05-31) without going through LocalDate.toString().
+    public ConsoleTable cell(LocalDate value) {
+        int start = beginCell();
+        if (value != null) {
+            text.append(value.getYear()).append('-');
+            appendTwoDigits(value.getMonthValue());
+            text.append('-');
+            appendTwoDigits(value.getDayOfMonth());
+        }
+        return endCell(start);
+    }
+
+    /*
+     * Ends the current row. A row with fewer cells than columns is left short.
+     */
+    public void endRow() {
+        if (format == Format.TABLE) {
+            trimTrailingSpaces();
+        }
+        text.append('\n');
+        nextColumn = 0;
+        rows++;
+
+        if (text.length() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        if (text.isEmpty()) {
+            return;
+        }
+
+        // Encoding from an array-backed buffer is much faster than from a wrapped StringBuilder.
+        CharBuffer chars = this.chars.capacity() >= text.length() ? this.chars.clear() : CharBuffer.allocate(text.length());
+        text.getChars(0, text.length(), chars.array(), 0);
+        chars.limit(text.length());
+        while (encoder.encode(chars, bytes, true).isOverflow()) {
+            writeBytes();
+        }
+        while (encoder.flush(bytes).isOverflow()) {
+            writeBytes();
+        }
+        writeBytes();
+        encoder.reset();
+        text.setLength(0);
+        out.flush();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    private int beginCell() {
+        if (!headerWritten) {
+            headerWritten = true;
+            writeHeader();
+        }
+        if (nextColumn > 0) {
+            text.append(format == Format.TABLE ? COLUMN_GAP : "\t");
+        }
+        return text.length();
+    }
+
+    private ConsoleTable endCell(int start) {
+        if (format == Format.TABLE && nextColumn < columns.length) {
+            fitToWidth(start, columns[nextColumn].width());
+        }
+        nextColumn++;
+        return this;
+    }
+
+    private void writeHeader() {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                text.append(format == Format.TABLE ? COLUMN_GAP : "\t");
+            }
+            int start = text.length();
+            text.append(columns[i].header());
+            if (format == Format.TABLE) {
+                fitToWidth(start, columns[i].width());
+            }
+        }
+
+        if (format == Format.TABLE) {
+            trimTrailingSpaces();
+            text.append('\n');
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    text.append(COLUMN_GAP);
+                }
+                text.repeat('-', columns[i].width());
+            }
+        }
+        text.append('\n');
+    }
+
+    private void fitToWidth(int start, int width) {
+        int length = text.length() - start;
+        if (length > width) {
+            text.setLength(start + width - 1);
+            text.append('…');
+        } else {
+            text.repeat(' ', width - length);
+        }
+    }
+
+    private void trimTrailingSpaces() {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        text.setLength(end);
+    }
+
+    private void appendTwoDigits(int value) {
+        if (value < 10) {
+            text.append('0');
+        }
+        text.append(value);
+    }
+
+    private void writeBytes() {
+        bytes.flip();
+        out.write(bytes.array(), 0, bytes.limit());
+        bytes.clear();
+    }
+}
@@ -1,13 +1,25 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.List;
 
 // Download: PostgreSQL JDBC Driver
 
 public class DemoJDBC_1 {
+    // A RowMapper resolves the column indexes once per ResultSet, then reads every row by index.
+    record Student(int id, String name) {
+        static final RowMapper<Student> MAPPER = resultSet -> {
+            int idColumn = resultSet.findColumn("student_id");
+            int nameColumn = resultSet.findColumn("name");
+            return row -> new Student(row.getInt(idColumn), row.getString(nameColumn));
+        };
+    }
+
     public static void main(String[] args) {
         try {
             /*
              * 1) Import package
-             * 2) Load and register driver
+             * 2) Register driver (automatic since JDBC 4: the driver jar lists itself in META-INF/services)
              * 3) Create connection
              * 4) Create statement
              * 5) Execute statement
@@ -15,18 +27,19 @@ public class DemoJDBC_1 {
              * 7) Close the connection
              * */
 
-            // 1) (Optional) Load Driver class and register driver so that the JDBC DriverManager knows which database driver to use when establishing connection.
-            Class.forName("org.postgresql.Driver");
+            // 1) DriverManager finds the PostgreSQL driver through the service loader, so Class.forName("org.postgresql.Driver") isn't needed.
 
             // 2) Create connection between the database
-            String url = "jdbc:postgresql://localhost:13000/jdbc-course";
+            // URL, user, password and driver options come from library.properties (see LibraryConfig), not from the code.
+            LibraryConfig config = LibraryConfig.load();
+            String url = config.getString("db.url");
             // Java uses JDBC to connect to PostgreSQL via a socket or localhost where the database server is running.
 
-
-            String name = "postgres";
-            String password = "-------------";
-
-            Connection connection = DriverManager.getConnection(url, name, password);
+            // Every statement run through this connection is timed; statements over 100 ms go to slow-queries.log.
+            QueryMetrics queryMetrics = new QueryMetrics(100, Path.of("slow-queries.log"));
+            long connectStartedAt = System.nanoTime();
+            Connection connection = queryMetrics.instrument(DriverManager.getConnection(url, config.getConnectionProperties()));
+            queryMetrics.recordConnect(System.nanoTime() - connectStartedAt);
             System.out.println("Connection Established");
 
             // Creates Statement object for sending SQL statements on the database
@@ -41,8 +54,10 @@ public class DemoJDBC_1 {
             statement.close();
             connection.close();
             System.out.println("Connection Closed");
-        } catch (ClassNotFoundException e){
-            System.out.println("Make sure that class Driver exists, and imported correctly");
+            System.out.println(queryMetrics.dump());
+            queryMetrics.close();
+        } catch (IOException e){
+            System.out.println("Could not read the configuration: " + e.getMessage());
         } catch(SQLException e){
             System.out.println("Failed to connect to the database.");
             System.out.println(e.getMessage());
@@ -56,12 +71,11 @@ public class DemoJDBC_1 {
                 "FROM students " +
                 "WHERE student_id = " + id;
 
-        ResultSet result = statement.executeQuery(sqlQuery);
+        List<Student> students = QueryRunner.toList(statement.executeQuery(sqlQuery), Student.MAPPER);
 
         System.out.println("// ------------------------------------------ //");
-        if(result.next()){ // you are asking the ResultSet to move its internal cursor to the next row in the result set.
-            String studentName = result.getString("name"); // select column by name or by index
-            System.out.println("\t\t Student name is: " + studentName);
+        if(!students.isEmpty()){
+            System.out.println("\t\t Student name is: " + students.get(0).name());
         } else {
             System.out.println("There was no rows found by hat id.");
         }
@@ -74,15 +88,17 @@ public class DemoJDBC_1 {
         String sqlQuery = "SELECT * " +
                            "FROM students";
 
-        ResultSet result = statement.executeQuery(sqlQuery);
+        List<Student> students = QueryRunner.toList(statement.executeQuery(sqlQuery), Student.MAPPER);
 
+        // Rows are collected in one buffer and printed with a single write, instead of one println() per row.
+        ConsoleTable table = new ConsoleTable(System.out, ConsoleTable.Format.TABLE,
+                new ConsoleTable.Column("Student id", 10), new ConsoleTable.Column("Name", 30));
 
         System.out.println("// ----------------- All Students ----------------- //");
-        while (result.next()){
-            int studentId = result.getInt("student_id");
-            String studentName = result.getString("name");
-            System.out.println("Student id is: " + studentId + ", \nStudent name is: " + studentName + ".\n");
+        for (Student student : students){
+            table.cell(student.id()).cell(student.name()).endRow();
         }
+        table.flush();
 
         System.out.println("// ------------------------------------------------ //");
         System.out.println();
@@ -1,4 +1,7 @@
+import java.io.IOException;
 import java.sql.*;
+import java.util.Map;
+import java.util.TreeMap;
 
 
 /*
@@ -7,24 +10,13 @@ import java.sql.*;
  * 2) When you use a PreparedStatement, it safely handles user input and makes sure it can't be used to trick the system into running dangerous code.
  * 3) It also makes your program faster because it can reuse the same query and automatically fixes any special characters in the input.
  * 4) This makes PreparedStatement a safer and more efficient choice compared to using a Statement with manual string building.
+ * 5) Many rows can be bound with addBatch() and sent with one executeBatch(), instead of one round trip per executeUpdate().
  *
  * Copyright by maxweb.studio
  */
 
 public class DemoJDBC_2 {
-    private static final String url = "jdbc:postgresql://localhost:13000/jdbc-course";
-    private static final String user = "postgres";
-    private static final String password = "-------";
-    private static Connection connection;
-
-    // For legacy JDBC (usually not needed in modern setups)
-    static {
-        try {
-            Class.forName("org.postgresql.Driver");
-        } catch (ClassNotFoundException e) {
-            System.err.println("PostgresSQL driver not found: " + e.getMessage());
-        }
-    }
+    private static ConnectionPool connectionPool;
 
     public static void main(String[] args) {
         try {
@@ -33,34 +25,70 @@ public class DemoJDBC_2 {
             closeDatabaseConnection();
         } catch (SQLException e) {
             System.err.println("Database operation failed: \n\n" + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Could not read the configuration: " + e.getMessage());
         }
     }
 
-    public static void initializeDatabaseConnection() throws SQLException {
-        connection = DriverManager.getConnection(url, user, password);
+    // Connection details come from library.properties (see LibraryConfig); the demo only needs a tiny pool.
+    public static void initializeDatabaseConnection() throws IOException {
+        LibraryConfig config = LibraryConfig.load();
+        connectionPool = new ConnectionPool(config.getString("db.url"), config.getConnectionProperties(), 2,
+                config.getDuration("pool.idleTimeout"), config.getDuration("pool.maxLifetime"),
+                config.getDuration("pool.borrowTimeout"), 8, null);
     }
 
     public static void performDatabaseOperations() throws SQLException {
         addNewStudent(6, "Jonas");
+        addNewStudents(Map.of(7, "Mia", 8, "Lukas", 9, "Sofia"));
     }
 
     public static void addNewStudent(int id, String name) throws SQLException {
         String sqlQuery = "INSERT INTO students VALUES(?, ?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
 
-        preparedStatement.setInt(1, id);
-        preparedStatement.setString(2, name);
+        // Closing the pooled connection hands it back to the pool instead of dropping the socket.
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+            preparedStatement.setInt(1, id);
+            preparedStatement.setString(2, name);
+
+            int rowsCountIncreased = preparedStatement.executeUpdate();
+
+            if(rowsCountIncreased > 0){
+                System.out.println("✅ The row has been successfully created in the database.");
+            } else {
+                System.out.println("⚠️No student has been added.");
+            }
+        }
+    }
+
+    // All students go out in one batch and one transaction: either every row is added or none is.
+    public static void addNewStudents(Map<Integer, String> namesById) throws SQLException {
+        String sqlQuery = "INSERT INTO students VALUES(?, ?)";
+
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
 
-        int rowsCountIncreased = preparedStatement.executeUpdate();
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+                for (Map.Entry<Integer, String> student : new TreeMap<>(namesById).entrySet()) {
+                    preparedStatement.setInt(1, student.getKey());
+                    preparedStatement.setString(2, student.getValue());
+                    preparedStatement.addBatch();
+                }
 
-        if(rowsCountIncreased > 0){
-            System.out.println("✅ The row has been successfully created in the database.");
-        } else {
-            System.out.println("⚠️No student has been added.");
+                int[] rowsCountIncreased = preparedStatement.executeBatch();
+                connection.commit();
+                System.out.println("✅ " + rowsCountIncreased.length + " students have been added in one batch.");
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         }
     }
 
-    public static void closeDatabaseConnection() throws SQLException {
-        connection.close();
+    public static void closeDatabaseConnection() {
+        connectionPool.close();
     }
 }
@@ -1,16 +1,25 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /*
 // ------------- 🔧 Part 1: Create Tables ------------- //
 
-Tables:
+Tables (created at startup by the migrations in src/main/resources/db/migration):
 
 books -> book_id, title, author, is_available
 members -> member_id, name , email
@@ -34,24 +43,84 @@ Choose an option:
  */
 
 public class JDBC_Challenge {
-    private static String url = "jdbc:postgresql://localhost:13000/jdbc-course";
-    private static String username = "postgres";
-    private static String password = "------------";
-    private static Connection connection;
-    private static BufferedReader reader;
-    private static boolean programLifecycleIsNotOver = true;
-
-    static {
-       try{
-           Class.forName("org.postgresql.Driver");
-       } catch (ClassNotFoundException e){
-           System.out.println("Driver for postgres not found.");
-       }
-    }
-
+    // Connection, pool, cache and timeout settings come from LibraryConfig (library.properties, environment, -Dlibrary.*).
+    private static final Path slowQueryLogFile = Path.of("slow-queries.log");
+    private static final String migrationLocation = "db/migration";
+    private static final int searchResultLimit = 10;
+    private static final int reportTopAuthors = 5;
+    private static final int prefixIndexMaxBooks = 100_000;
+    private static final int prefixIndexMaxBooksPerNode = 50;
+    private static final int defaultServerPort = 5050;
+    private static final int numberOfOptions = 16;
+
+    // Per-session state: every console or server session has its own reader, output and lifecycle flag.
+    private final BufferedReader reader;
+    private final PrintStream out;
+    private final ConnectionPool connectionPool;
+    private final BookRepository bookRepository;
+    private final MemberRepository memberRepository;
+    private final LoanRepository loanRepository;
+    private final QueryMetrics queryMetrics;
+    private final int streamingFetchSize;
+    private final ConnectionSource readConnectionSource;
+    private final LibraryServices libraryServices;
+    private final ResilientExecutor resilientExecutor;
+    private final ConsoleTable.Format listingFormat;
+    private final int listingPageSize;
+    private final int importBatchSize;
+    private boolean programLifecycleIsNotOver = true;
+
+    public JDBC_Challenge(LibraryServices libraryServices, BufferedReader reader, PrintStream out) {
+        this.reader = reader;
+        this.out = out;
+        this.connectionPool = libraryServices.getConnectionPool();
+        this.bookRepository = libraryServices.getBookRepository();
+        this.memberRepository = libraryServices.getMemberRepository();
+        this.loanRepository = libraryServices.getLoanRepository();
+        this.queryMetrics = libraryServices.getQueryMetrics();
+        this.streamingFetchSize = libraryServices.getFetchSize();
+        this.readConnectionSource = libraryServices.getReadConnectionSource();
+        this.libraryServices = libraryServices;
+        this.resilientExecutor = libraryServices.getResilientExecutor();
+        this.listingFormat = libraryServices.getListingFormat();
+        this.listingPageSize = libraryServices.getListingPageSize();
+        this.importBatchSize = libraryServices.getImportBatchSize();
+    }
+
+    /*
+     * No arguments: one console session on stdin/stdout.
+     * --server [port]: serve the same menu to many sessions over a local socket (one virtual thread per session).
+     * --write-behind: borrows and returns are queued and written in group-committed batches (see LoanWriteBehindQueue).
+     * --replica <url> (repeatable): send listings, searches and lookups to these read replicas (see ReadWriteRouter).
+     * --export <table>=<file> (repeatable): export books, members, loans or active-loans to the file and exit, without the menu.
+     *   The file name picks the format, as in the menu: .csv, .tsv or .col (columnar), plus .gz to compress.
+     *
+     * The PostgreSQL driver registers itself through the JDBC service loader, so there is no Class.forName() here.
+     */
     public static void main(String[] args) {
-        try{
-            initializeProgramLifeCycle();
+        List<String> arguments = List.of(args);
+        boolean writeBehind = arguments.contains("--write-behind");
+        int serverFlagIndex = arguments.indexOf("--server");
+        List<String> replicaUrls = new ArrayList<>();
+        List<String> exports = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--replica")) {
+                replicaUrls.add(args[i + 1]);
+            } else if (args[i].equals("--export")) {
+                exports.add(args[i + 1]);
+            }
+        }
+
+        try (LibraryServices libraryServices = openLibraryServices(LibraryConfig.load(), writeBehind, replicaUrls)) {
+            if (!exports.isEmpty()) {
+                runExports(libraryServices, exports);
+            } else if (serverFlagIndex >= 0) {
+                boolean hasPort = serverFlagIndex + 1 < args.length && !args[serverFlagIndex + 1].startsWith("--");
+                int port = hasPort ? Integer.parseInt(args[serverFlagIndex + 1]) : defaultServerPort;
+                runServer(libraryServices, port);
+            } else {
+                runConsoleSession(libraryServices);
+            }
         } catch (IOException e){
             printFormatedException("IO exception occurred. More specific reasons: ", e);
         } catch (SQLException e){
@@ -61,374 +130,731 @@ public class JDBC_Challenge {
         }
     }
 
-    private static void initializeProgramLifeCycle()  throws IOException, SQLException {
-        initializeDatabaseConnection();
-        initializeBufferedReader();
-        runProgramLifeCycle();
-        closeDatabaseConnection();
-        closeBufferedReader();
+    /*
+     * Only what the first menu needs happens before it is shown: the schema migrations (which open the first connection)
+     * and the search support check. Opening the remaining connections, loading the catalog snapshot and the prefix index
+     * and checking the query plans continue in the background (see finishStartupInBackground).
+     */
+    private static LibraryServices openLibraryServices(LibraryConfig config, boolean writeBehind, List<String> replicaUrls)
+            throws SQLException, IOException {
+        QueryMetrics queryMetrics = new QueryMetrics(config.getDuration("query.slowThreshold").toMillis(), slowQueryLogFile);
+        queryMetrics.registerMBean();
+
+        ConnectionPool connectionPool = openConnectionPool(config, config.getString("db.url"), queryMetrics);
+        // Replica pools aren't warmed up: an unreachable replica must not stop startup, the health check takes it out of rotation.
+        List<ConnectionPool> replicaPools = new ArrayList<>();
+        List<String> allReplicaUrls = new ArrayList<>(config.getList("db.replicas"));
+        allReplicaUrls.addAll(replicaUrls);
+        for (String replicaUrl : allReplicaUrls) {
+            replicaPools.add(openConnectionPool(config, replicaUrl, queryMetrics));
+        }
+        ReadWriteRouter router = new ReadWriteRouter(connectionPool, replicaPools,
+                config.getEnum("replicas.balancing", ReadWriteRouter.Balancing.class),
+                config.getDuration("replicas.readYourWritesWindow"), config.getDuration("replicas.healthCheckInterval"));
+        try {
+            migrateSchema(connectionPool);
+            LoanWriteBehindQueue writeBehindQueue = writeBehind
+                    ? new LoanWriteBehindQueue(connectionPool, config.getInt("writeBehind.queueCapacity"),
+                            config.getInt("writeBehind.maxBatchSize"), config.getDuration("writeBehind.maxDelay"),
+                            config.getDuration("writeBehind.enqueueTimeout"), config.getDuration("writeBehind.closeTimeout"),
+                            config.getOptionalPath("writeBehind.journalFile"))
+                    : null;
+            OverdueLoanJob overdueLoanJob = config.getBoolean("overdueJob.enabled")
+                    ? new OverdueLoanJob(connectionPool, config.getInt("overdueJob.chunkSize"), config.getDuration("overdueJob.interval"))
+                    : null;
+            LibraryServices libraryServices = new LibraryServices(router, queryMetrics,
+                    config.getInt("lookupCache.size"), config.getDuration("lookupCache.ttl"),
+                    new BookPrefixIndex(prefixIndexMaxBooksPerNode),
+                    config.getBoolean("catalogSnapshot.enabled") ? new CatalogSnapshot() : null,
+                    config.getDuration("catalogSnapshot.refreshInterval"),
+                    config.getBoolean("changeNotifications.enabled") ? config.getDuration("changeNotifications.reconnectDelay") : null,
+                    writeBehindQueue, overdueLoanJob, openResilientExecutor(config),
+                    config.getInt("query.fetchSize"),
+                    config.getInt("scan.parallelism"), config.getLong("scan.rowsPerPartition"),
+                    config.getEnum("listing.format", ConsoleTable.Format.class), config.getInt("listing.pageSize"),
+                    config.getInt("import.batchSize"));
+
+            libraryServices.getBookRepository().detectSearchSupport();
+            finishStartupInBackground(libraryServices, config.getInt("pool.warmUpConnections"));
+            if (overdueLoanJob != null) {
+                overdueLoanJob.start();
+            }
+            return libraryServices;
+        } catch (SQLException | IOException e) {
+            router.close();
+            connectionPool.close();
+            queryMetrics.close();
+            throw e;
+        }
     }
 
-    private static void initializeDatabaseConnection() throws SQLException {
-        connection = DriverManager.getConnection(url, username, password);
+    private static ConnectionPool openConnectionPool(LibraryConfig config, String url, QueryMetrics queryMetrics) {
+        return new ConnectionPool(url, config.getConnectionProperties(), config.getInt("pool.size"),
+                config.getDuration("pool.idleTimeout"), config.getDuration("pool.maxLifetime"),
+                config.getDuration("pool.borrowTimeout"), config.getInt("pool.statementCacheSize"), queryMetrics,
+                config.getDuration("query.timeout"));
     }
 
-    private static void initializeBufferedReader() {
-        reader = new BufferedReader(new InputStreamReader(System.in));
+    private static ResilientExecutor openResilientExecutor(LibraryConfig config) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(config.getInt("resilience.circuitFailureThreshold"),
+                config.getDuration("resilience.circuitOpenDuration"));
+        return new ResilientExecutor(config.getInt("resilience.maxAttempts"), config.getDuration("resilience.initialBackoff"),
+                config.getDuration("resilience.maxBackoff"), config.getDuration("resilience.retryDeadline"), circuitBreaker);
     }
 
-    private static void runProgramLifeCycle() throws IOException, SQLException {
+    // Nothing here is needed for correctness: until the catalog snapshot and the prefix index are loaded,
+    // listings and searches simply go to the database.
+    private static void finishStartupInBackground(LibraryServices libraryServices, int warmUpConnections) {
+        Thread.ofVirtual().name("startup-warm-up").start(() -> {
+            try {
+                libraryServices.getConnectionPool().warmUp(warmUpConnections);
+                // Before the prefix index, which then loads from the snapshot instead of the database.
+                libraryServices.getBookRepository().reloadCatalogSnapshot(libraryServices.getFetchSize());
+                libraryServices.getBookRepository().reloadPrefixIndex(prefixIndexMaxBooks, libraryServices.getFetchSize());
+                verifyHotQueryPlans(libraryServices);
+            } catch (SQLException e) {
+                System.out.println("⚠️ Background startup work failed (the menu keeps working): " + e.getMessage());
+            }
+        });
+    }
+
+    private static void migrateSchema(ConnectionPool connectionPool) throws SQLException, IOException {
+        List<SchemaMigrator.Migration> appliedMigrations = new SchemaMigrator(connectionPool, migrationLocation).migrate();
+
+        for (SchemaMigrator.Migration migration : appliedMigrations) {
+            System.out.println("🛠️ Applied migration V" + migration.version() + "__" + migration.description());
+        }
+    }
+
+    // Warns at startup when a hot query would have to scan a whole table (e.g. an index was dropped by hand).
+    private static void verifyHotQueryPlans(LibraryServices libraryServices) throws SQLException {
+        List<QueryPlanVerifier.HotQuery> hotQueries = new ArrayList<>();
+        hotQueries.addAll(libraryServices.getMemberRepository().hotQueries());
+        hotQueries.addAll(libraryServices.getBookRepository().hotQueries());
+        hotQueries.addAll(libraryServices.getLoanRepository().hotQueries());
+
+        List<QueryPlanVerifier.Verdict> verdicts = new QueryPlanVerifier(libraryServices.getConnectionPool()).verify(hotQueries);
+        long queriesUsingIndexes = verdicts.stream().filter(QueryPlanVerifier.Verdict::usesIndexes).count();
+
+        System.out.println("🔍 " + queriesUsingIndexes + " of " + verdicts.size() + " hot queries use indexes.");
+        verdicts.stream().filter(verdict -> !verdict.usesIndexes()).forEach(System.out::println);
+    }
+
+    private static void runExports(LibraryServices libraryServices, List<String> exports) throws IOException, SQLException {
+        TableExporter exporter = new TableExporter(libraryServices.getReadConnectionSource(), libraryServices.getFetchSize(), System.out);
+
+        for (String export : exports) {
+            int separator = export.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected --export <table>=<file>, got: " + export);
+            }
+            TableExporter.Source source = TableExporter.Source.valueOf(
+                    export.substring(0, separator).trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            Path file = Path.of(export.substring(separator + 1).trim());
+
+            System.out.println("📤 " + describeExport(exporter.export(source, TableExporter.formatOf(file), file,
+                    TableExporter.isGzipped(file)), file));
+        }
+    }
+
+    private static String describeExport(TableExporter.ExportResult result, Path file) {
+        String method = result.usedCopy() ? "COPY" : "a cursor";
+        return "Exported " + result.rows() + " rows to " + file + " (" + result.bytes() + " bytes) via " + method
+                + " in " + result.elapsedMillis() + " ms (" + result.rowsPerSecond() + " rows/s).";
+    }
+
+    private static void runConsoleSession(LibraryServices libraryServices) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            new JDBC_Challenge(libraryServices, reader, System.out).runProgramLifeCycle();
+        }
+        System.out.println(libraryServices.describeStatistics());
+    }
+
+    private static void runServer(LibraryServices libraryServices, int port) throws IOException {
+        try (LibraryServer server = new LibraryServer(libraryServices, port)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            System.out.println("📡 Library server listening on localhost:" + server.getPort() + " (Ctrl+C to stop)");
+            server.acceptSessions();
+        }
+        System.out.println(libraryServices.describeStatistics());
+    }
+
+    /*
+     * A failed operation is reported and the menu is shown again: only closing the input ends the session.
+     * Retryable failures have already been retried by the ResilientExecutor by the time they get here.
+     */
+    public void runProgramLifeCycle() throws IOException {
         while (programLifecycleIsNotOver){
             printOptions();
             int option = getUserOption();
-            processUserOption(option);
+            try {
+                processUserOption(option);
+            } catch (SQLException e) {
+                out.println("🚨 " + ResilientExecutor.describe(e) + "\n");
+            } catch (QueryRunner.UncheckedSQLException e) {
+                out.println("🚨 " + ResilientExecutor.describe(e.getCause()) + "\n");
+            }
         }
     }
 
-    private static void printOptions(){
-        System.out.println("Choose an option: ");
-        System.out.println("1 - Add a new book");
-        System.out.println("2 - Delete book");
-        System.out.println("3 - Register a new member");
-        System.out.println("4 - Borrow a book");
-        System.out.println("5 - Return a book");
-        System.out.println("6 - View all books");
-        System.out.println("7 - View borrowed books");
-        System.out.println("8 - Exit");
-        System.out.println();
-    }
-
-    private static int getUserOption() throws IOException {
+    private void printOptions(){
+        out.println("Choose an option: ");
+        out.println("1 - Add a new book");
+        out.println("2 - Delete book");
+        out.println("3 - Register a new member");
+        out.println("4 - Borrow a book");
+        out.println("5 - Return a book");
+        out.println("6 - Register several members");
+        out.println("7 - Borrow several books");
+        out.println("8 - View all books");
+        out.println("9 - View borrowed books");
+        out.println("10 - View overdue loans");
+        out.println("11 - Import books or members from a CSV/TSV file");
+        out.println("12 - Export a table to a file");
+        out.println("13 - Search books");
+        out.println("14 - View catalog report");
+        out.println("15 - View query statistics");
+        out.println("16 - Exit");
+        out.println();
+    }
+
+    private int getUserOption() throws IOException {
         while (true) {
-            System.out.print("😃 Enter your choice (1 - 8): ");
+            out.print("😃 Enter your choice (1 - " + numberOfOptions + "): ");
             try {
-                int option = Integer.parseInt(reader.readLine().trim());
+                int option = Integer.parseInt(readLine().trim());
 
-                if (option < 1 || option > 8) {
+                if (option < 1 || option > numberOfOptions) {
                     throw new InputMismatchException("Out of valid range.");
                 }
 
                 return option;
 
             } catch (NumberFormatException e) {
-                System.out.println("❌ Invalid input. Please enter a valid integer.");
+                out.println("❌ Invalid input. Please enter a valid integer.");
             } catch (InputMismatchException e) {
-                System.out.println("❌ Please enter a number between 1 and 7." + e.getMessage());
+                out.println("❌ Please enter a number between 1 and " + numberOfOptions + ". " + e.getMessage());
             }
         }
     }
 
-    private static void processUserOption(int option) throws SQLException, IOException {
+    private void processUserOption(int option) throws SQLException, IOException {
         switch (option) {
             case 1 -> handleAddNewBook();
             case 2 -> handleDeleteBook();
             case 3 -> handleRegisterNewMember();
             case 4 -> handleBorrowBook();
             case 5 -> handleReturnBook();
-            case 6 -> handleViewAllBooks();
-            case 7 -> handleViewBorrowedBooks();
-            case 8 -> handleExit();
-            default -> System.out.println("Invalid option. Please try again.");
+            case 6 -> handleRegisterSeveralMembers();
+            case 7 -> handleBorrowSeveralBooks();
+            case 8 -> handleViewAllBooks();
+            case 9 -> handleViewBorrowedBooks();
+            case 10 -> handleViewOverdueLoans();
+            case 11 -> handleImportCatalog();
+            case 12 -> handleExportTable();
+            case 13 -> handleSearchBooks();
+            case 14 -> handleViewCatalogReport();
+            case 15 -> handleViewQueryStatistics();
+            case 16 -> handleExit();
+            default -> out.println("Invalid option. Please try again.");
         }
     }
 
-    private static void handleAddNewBook() throws SQLException, IOException {
+    private void handleAddNewBook() throws SQLException, IOException {
         String title = getBookTitle();
         String author = getBookAuthor();
         boolean isAvailable = getAvailabilityStatus();
 
-        String sqlQuery = "INSERT INTO books (title, author, is_available) VALUES (?, ?, ?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setString(1, title);
-        preparedStatement.setString(2, author);
-        preparedStatement.setBoolean(3, isAvailable);
-
-        int insertedRows = preparedStatement.executeUpdate();
+        int insertedRows = resilientExecutor.write(() -> bookRepository.add(title, author, isAvailable));
         displayDatabaseOperationMessage(insertedRows, "Book was added to the database successfully!", "Failed to add the book.");
-
-        preparedStatement.close();
     }
 
-    private static boolean getAvailabilityStatus() throws IOException {
-        while (true) {
-            System.out.print("Is the book available (yes/no): ");
-            String input = reader.readLine().toLowerCase();
-
-            if (input.equals("yes")) {
-                return true;
-            } else if (input.equals("no")) {
-                return false;
-            } else {
-                System.out.println("Invalid input! Please enter 'yes' or 'no'.");
-            }
-        }
+    private boolean getAvailabilityStatus() throws IOException {
+        return getYesNoAnswer("Is the book available (yes/no): ");
     }
 
 
-    private static void handleDeleteBook() throws SQLException, IOException {
+    private void handleDeleteBook() throws SQLException, IOException {
         String title = getBookTitle();
         String author = getBookAuthor();
 
-        if(!doesBookExist(title, author)){
-            System.out.println("😱Book not found in the database. \n");
+        if(resilientExecutor.read(() -> bookRepository.findIdByTitleAndAuthor(title, author)) == LookupCache.NOT_FOUND){
+            out.println("😱Book not found in the database. \n");
             return;
         }
 
-        String sqlQuery = "DELETE FROM books WHERE title = ? AND author = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setString(1, title);
-        preparedStatement.setString(2, author);
-
-        int rowWasDeleted = preparedStatement.executeUpdate();
+        int rowWasDeleted = resilientExecutor.write(() -> bookRepository.deleteByTitleAndAuthor(title, author));
         displayDatabaseOperationMessage(rowWasDeleted, "Books has been successfully deleted.", "Failed to delete the book");
-        preparedStatement.close();
-    }
-
-    private static boolean doesBookExist(String title, String author) throws SQLException {
-        String sqlQuery = "SELECT COUNT(*) FROM books WHERE title = ? AND author = ?";
-        PreparedStatement checkStatement = connection.prepareStatement(sqlQuery);
-        checkStatement.setString(1, title);
-        checkStatement.setString(2, author);
-
-        ResultSet resultSet = checkStatement.executeQuery();
-        if (resultSet.next()) return resultSet.getInt(1) > 0;
-        resultSet.close();
-
-        return false;
     }
 
-    public static void displayDatabaseOperationMessage(int rowsAffected, String successMessage, String failureMessage) {
+    private void displayDatabaseOperationMessage(int rowsAffected, String successMessage, String failureMessage) {
         String message = rowsAffected > 0 ? "✨" + successMessage : "🚨" + failureMessage;
-        System.out.println(message + "\n");
+        out.println(message + "\n");
     }
 
-    private static void handleRegisterNewMember() throws SQLException, IOException {
+    private void handleRegisterNewMember() throws SQLException, IOException {
         String name = getMemberName();
         String email = getMemberEmail();
 
-        String sqlQuery = "INSERT INTO members (name, email) VALUES (?, ?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setString(1, name);
-        preparedStatement.setString(2, email);
-
-        int insertedRows = preparedStatement.executeUpdate();
-        displayDatabaseOperationMessage(insertedRows, "Member was added to the database successfully!", "Failed to add the member.");
-
-        preparedStatement.close();
+        int insertedRows = resilientExecutor.write(() -> memberRepository.register(name, email));
+        displayDatabaseOperationMessage(insertedRows, "Member was added to the database successfully!",
+                "A member with this email is already registered.");
     }
 
-    private static void handleBorrowBook() throws SQLException, IOException {
+    private void handleBorrowBook() throws SQLException, IOException {
         String email = getMemberEmail();
-        int memberId = getMemberId(email);
+        String title = getBookTitle();
+        String author = getBookAuthor();
 
-        if(memberId == -1) {
-            System.out.println("\n Sorry but we can't give you a loan for the book, because you are not a member of our college. \n");
+        LocalDate loanDate = LocalDate.now();
+        LocalDate returnDate = loanDate.plusDays(LoanRepository.LOAN_PERIOD_DAYS);
+
+        switch (resilientExecutor.transaction(() -> loanRepository.borrow(email, title, author, loanDate, returnDate))) {
+            case NOT_A_MEMBER -> out.println("\n Sorry but we can't give you a loan for the book, because you are not a member of our college. \n");
+            case BOOK_NOT_FOUND -> out.println("\n 📚 Book not found with this title and author.\n");
+            case ALREADY_BORROWED -> out.println("\n 😭 Sorry, but this book is currently borrowed by some member. \n");
+            case BORROWED -> out.println("✨Loan was added and the book is now marked as borrowed. Return date: " + returnDate + "\n");
+            case QUEUED -> out.println("✨Loan was queued and will be saved shortly. Return date: " + returnDate + "\n");
+        }
+    }
+
+    /*
+     * Collects members until an empty name, then registers all of them in one batch and one transaction.
+     */
+    private void handleRegisterSeveralMembers() throws SQLException, IOException {
+        List<MemberRepository.NewMember> members = new ArrayList<>();
+        while (true) {
+            out.print("Please prompt a name (empty to finish): ");
+            String name = readLine();
+            if (name.isBlank()) {
+                break;
+            }
+            members.add(new MemberRepository.NewMember(name, getMemberEmail()));
+        }
+        if (members.isEmpty()) {
+            out.println("Nothing to register.\n");
             return;
         }
 
-        String title = getBookTitle();
-        String author = getBookAuthor();
-        int bookId = getBookId(title, author);
+        long startedAt = System.currentTimeMillis();
+        List<MemberRepository.Registration> registrations = resilientExecutor.transaction(() -> memberRepository.registerAll(members));
+        long elapsedMillis = System.currentTimeMillis() - startedAt;
+
+        int registered = 0;
+        for (MemberRepository.Registration registration : registrations) {
+            String member = registration.member().name() + " <" + registration.member().email() + ">";
+            switch (registration.outcome()) {
+                case REGISTERED -> {
+                    registered++;
+                    out.println("✨" + member + " was registered with id " + registration.memberId() + ".");
+                }
+                case ALREADY_REGISTERED -> out.println("⚠️ " + member + " is already registered.");
+                case INVALID -> out.println("🚨" + member + " needs a name and a valid email.");
+            }
+        }
+        out.println("Registered " + registered + " of " + registrations.size() + " members in " + elapsedMillis + " ms.\n");
+    }
 
-        if (bookId == -1) {
-            System.out.println("\n 📚 Book not found with this title and author.\n");
+    /*
+     * Collects books for one member until an empty title, then lends all of them in one batch and one transaction.
+     */
+    private void handleBorrowSeveralBooks() throws SQLException, IOException {
+        String email = getMemberEmail();
+        List<BookRepository.BookKey> books = new ArrayList<>();
+        while (true) {
+            out.print("Enter the book title (empty to finish): ");
+            String title = readLine();
+            if (title.isBlank()) {
+                break;
+            }
+            books.add(new BookRepository.BookKey(title, getBookAuthor()));
+        }
+        if (books.isEmpty()) {
+            out.println("Nothing to borrow.\n");
             return;
         }
 
-        if(bookIsBorrowed(bookId)){
-            System.out.println("\n 😭 Sorry, but this book is currently borrowed by some member. \n");
+        LocalDate loanDate = LocalDate.now();
+        LocalDate returnDate = loanDate.plusDays(LoanRepository.LOAN_PERIOD_DAYS);
+        List<LoanRepository.Checkout> checkouts = resilientExecutor.transaction(
+                () -> loanRepository.borrowAll(email, books, loanDate, returnDate));
+
+        if (checkouts.get(0).outcome() == LoanRepository.BorrowOutcome.NOT_A_MEMBER) {
+            out.println("\n Sorry but we can't give you a loan for the books, because you are not a member of our college. \n");
             return;
         }
 
-        insertLoanIntoTheDatabase(memberId, bookId);
-        updateBookAvailability(bookId, false);
+        int lent = 0;
+        for (LoanRepository.Checkout checkout : checkouts) {
+            String book = "'" + checkout.book().title() + "' by " + checkout.book().author();
+            switch (checkout.outcome()) {
+                case BORROWED, QUEUED -> {
+                    lent++;
+                    out.println("✨" + book + (checkout.outcome() == LoanRepository.BorrowOutcome.BORROWED
+                            ? " was lent (loan " + checkout.loanId() + ")." : " was queued."));
+                }
+                case BOOK_NOT_FOUND -> out.println("📚 " + book + " was not found.");
+                case ALREADY_BORROWED -> out.println("😭 " + book + " is currently borrowed by some member.");
+                case NOT_A_MEMBER -> {
+                }
+            }
+        }
+        out.println("Lent " + lent + " of " + checkouts.size() + " books. Return date: " + returnDate + "\n");
     }
 
-    private static String getMemberName() throws IOException {
-        System.out.print("Please prompt a name: ");
-        return reader.readLine();
+    private String getMemberName() throws IOException {
+        out.print("Please prompt a name: ");
+        return readLine();
     }
 
-    private static  String getMemberEmail() throws IOException {
-        System.out.print("Please prompt an email: ");
-        return reader.readLine();
+    private String getMemberEmail() throws IOException {
+        out.print("Please prompt an email: ");
+        return readLine();
     }
 
-    private static String getBookTitle() throws IOException {
-        System.out.print("Enter the book title: ");
-        return reader.readLine();
+    private String getBookTitle() throws IOException {
+        out.print("Enter the book title: ");
+        return readLine();
     }
 
-    private static String getBookAuthor() throws IOException {
-        System.out.print("Enter the book author: ");
-        return reader.readLine();
+    private String getBookAuthor() throws IOException {
+        out.print("Enter the book author: ");
+        return readLine();
     }
 
-    private static int getBookId(String title, String author) throws SQLException {
-        int bookId = -1;
+    private void handleReturnBook() throws SQLException, IOException {
+        String email = getMemberEmail();
+        String title = getBookTitle();
+        String author = getBookAuthor();
 
-        String sqlQuery = "SELECT book_id FROM books WHERE title = ? AND author = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setString(1, title);
-        preparedStatement.setString(2, author);
+        switch (resilientExecutor.transaction(() -> loanRepository.returnBook(email, title, author))) {
+            case BOOK_NOT_FOUND -> out.println("\n There is no loan for the book with such title or an author \n");
+            case NO_SUCH_LOAN -> displayDatabaseOperationMessage(0, "", "Loan doesn't exist in the database.");
+            case RETURNED -> displayDatabaseOperationMessage(1, "Loan is successfully deleted and the book is available again.", "");
+            case QUEUED -> displayDatabaseOperationMessage(1, "Return was queued and will be saved shortly.", "");
+        }
+    }
+
+    /*
+     * Listings use keyset (seek) pagination: each page continues after the last row that was shown,
+     * so page N costs the same as page 1 and no connection is held while the clerk reads a page.
+     * Typing 'all' streams the rest through a server-side cursor instead of buffering it in memory.
+     */
+    private void handleViewAllBooks() throws SQLException, IOException {
+        ConsoleTable table = new ConsoleTable(out, listingFormat, new ConsoleTable.Column("Title", 40),
+                new ConsoleTable.Column("Author", 25), new ConsoleTable.Column("Availability", 13));
 
-        ResultSet resultSet = preparedStatement.executeQuery();
+        boolean hasResults = showPageByPage(new PageSource<Book>() {
+            @Override
+            public List<Book> pageAfter(Book lastBook, int pageSize) throws SQLException {
+                return resilientExecutor.read(() -> bookRepository.findPageAfter(lastBookId(lastBook), pageSize, false));
+            }
+
+            @Override
+            public Stream<Book> streamAfter(Book lastBook) throws SQLException {
+                return resilientExecutor.read(() -> bookRepository.streamAfter(lastBookId(lastBook), false, streamingFetchSize));
+            }
+        }, table, book -> printBook(table, book));
 
-        if(resultSet.next()){
-            bookId = resultSet.getInt("book_id");
+        if (!hasResults) {
+            out.println("📚 There are no books in the library yet.");
         }
 
-        resultSet.close();
-        preparedStatement.close();
-        return bookId;
+        out.println();
     }
 
-    private static int getMemberId(String email) throws SQLException {
-        int memberId = -1;
+    // Borrowed books come from the active_loans read model, so the member and due date are shown without extra joins.
+    private void handleViewBorrowedBooks() throws SQLException, IOException {
+        boolean hasResults = showActiveLoansPageByPage(LocalDate.MAX);
 
-        String sqlQuery = "SELECT member_id FROM members WHERE email = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setString(1, email);
+        if (!hasResults) {
+            out.println("✅ All books are currently available.");
+        }
+
+        out.println();
+    }
 
-        ResultSet resultSet = preparedStatement.executeQuery();
+    private void handleViewOverdueLoans() throws SQLException, IOException {
+        boolean hasResults = showActiveLoansPageByPage(LocalDate.now().minusDays(1));
 
-        if(resultSet.next()){
-            memberId = resultSet.getInt("member_id");
+        if (!hasResults) {
+            out.println("✅ No loans are overdue.");
         }
 
-        resultSet.close();
-        preparedStatement.close();
-        return memberId;
+        out.println();
     }
 
-    private static void insertLoanIntoTheDatabase(int memberId, int bookId) throws SQLException {
-        LocalDate loanDate = LocalDate.now();
-        LocalDate returnDate = loanDate.plusDays(14);
-        Date sqlLoanDate = Date.valueOf(loanDate);
-        Date sqlReturnDate = Date.valueOf(returnDate);
+    private boolean showActiveLoansPageByPage(LocalDate dueOnOrBefore) throws SQLException, IOException {
+        LocalDate today = LocalDate.now();
+        ConsoleTable table = new ConsoleTable(out, listingFormat, new ConsoleTable.Column("Title", 32),
+                new ConsoleTable.Column("Author", 20), new ConsoleTable.Column("Member", 20),
+                new ConsoleTable.Column("Email", 28), new ConsoleTable.Column("Due", 14), new ConsoleTable.Column("Status", 7));
 
-        String sqlQuery = "INSERT INTO loans (member_id, book_id, loan_date, return_date) VALUES (?, ?, ?, ?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setInt(1, memberId);
-        preparedStatement.setInt(2, bookId);
-        preparedStatement.setDate(3, sqlLoanDate);
-        preparedStatement.setDate(4, sqlReturnDate);
+        return showPageByPage(new PageSource<ActiveLoan>() {
+            @Override
+            public List<ActiveLoan> pageAfter(ActiveLoan lastLoan, int pageSize) throws SQLException {
+                return resilientExecutor.read(() -> loanRepository.findActiveLoansPageAfter(lastLoan, dueOnOrBefore, pageSize));
+            }
 
-        int insertedRows = preparedStatement.executeUpdate();
-        displayDatabaseOperationMessage(insertedRows, "Loan was added to the database successfully!", "Failed to add the loan.");
-        preparedStatement.close();
+            @Override
+            public Stream<ActiveLoan> streamAfter(ActiveLoan lastLoan) throws SQLException {
+                return resilientExecutor.read(() -> loanRepository.streamActiveLoansAfter(lastLoan, dueOnOrBefore, streamingFetchSize));
+            }
+        }, table, loan -> printActiveLoan(table, loan, today));
     }
 
-    private static void updateBookAvailability(int bookId, boolean isAvailable) throws SQLException {
-        String sqlQuery = "UPDATE books SET is_available = ? WHERE book_id = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setBoolean(1, isAvailable);
-        preparedStatement.setInt(2, bookId);
+    // Rows go into the table's buffer; it is flushed once per page, before the prompt.
+    private <T> boolean showPageByPage(PageSource<T> pageSource, ConsoleTable table, Consumer<T> printRow) throws SQLException, IOException {
+        T lastRow = null;
+        boolean hasResults = false;
 
-        int updatedBooksCount = preparedStatement.executeUpdate();
-        displayDatabaseOperationMessage(updatedBooksCount, "Book status was updated in the database successfully!", "Failed to update the book status.");
+        while (true) {
+            List<T> page = pageSource.pageAfter(lastRow, listingPageSize);
 
-        preparedStatement.close();
-    }
+            for (T row : page) {
+                printRow.accept(row);
+                lastRow = row;
+            }
 
-    private static boolean bookIsBorrowed(int bookId) throws SQLException {
-        boolean isBorrowed = true;
-        String sqlQuery = "SELECT is_available FROM books WHERE book_id = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setInt(1, bookId);
+            table.flush();
+            hasResults |= !page.isEmpty();
+            if (page.size() < listingPageSize) {
+                return hasResults;
+            }
 
-        ResultSet resultSet = preparedStatement.executeQuery();
+            out.print("-- Enter: next page, 'all': show the rest, 'q': stop -- ");
+            String answer = readLine().trim().toLowerCase(Locale.ROOT);
 
-        if(resultSet.next()){
-            isBorrowed = !resultSet.getBoolean("is_available");
+            if (answer.equals("q")) {
+                return true;
+            } else if (answer.equals("all")) {
+                try (Stream<T> remainingRows = pageSource.streamAfter(lastRow)) {
+                    remainingRows.forEach(printRow);
+                } finally {
+                    table.flush();
+                }
+                return true;
+            }
         }
+    }
+
+    private static int lastBookId(Book lastBook) {
+        return lastBook == null ? Integer.MIN_VALUE : lastBook.id();
+    }
 
-        resultSet.close();
-        preparedStatement.close();
+    private static void printBook(ConsoleTable table, Book book) {
+        table.cell(book.title()).cell(book.author()).cell(book.available() ? "available" : "not available").endRow();
+    }
 
-        return isBorrowed;
+    private static void printActiveLoan(ConsoleTable table, ActiveLoan loan, LocalDate today) {
+        table.cell(loan.title()).cell(loan.author()).cell(loan.memberName()).cell(loan.memberEmail());
+        if (loan.returnDate().equals(LocalDate.MAX)) {
+            table.cell("no return date");
+        } else {
+            table.cell(loan.returnDate());
+        }
+        table.cell(loan.isOverdueOn(today) ? "overdue" : "").endRow();
     }
 
-    private static void handleReturnBook() throws SQLException, IOException {
-        String email = getMemberEmail();
-        int memberId = getMemberId(email);
-        String title = getBookTitle();
-        String author = getBookAuthor();
-        int bookId = getBookId(title, author);
+    /*
+     * Finds books by the start of any word in the title or author, ignoring case and small typos,
+     * best matches first.
+     */
+    private void handleSearchBooks() throws SQLException, IOException {
+        out.print("Search for (title or author, typos are ok): ");
+        String text = readLine();
 
-        if(bookId == -1){
-            System.out.println("\n There is no loan for the book with such title or an author \n");
+        BookRepository.SearchResult result = resilientExecutor.read(() -> bookRepository.search(text, searchResultLimit));
+        if (result.books().isEmpty()) {
+            out.println("📚 No books match \"" + text.trim() + "\".\n");
             return;
         }
 
-        handleDeleteLoan(memberId, bookId);
-        updateBookAvailability(bookId, true);
+        for (Book book : result.books()) {
+            out.println("🔎 " + book.title() + " by " + book.author());
+        }
+        if (result.servedFromMemory()) {
+            out.println("(served from the in-memory prefix index)");
+        }
+        out.println();
     }
 
-    private static void handleDeleteLoan(int memberId, int bookId) throws SQLException {
-        String sqlQuery = "DELETE FROM loans WHERE book_id = ? AND member_id = ?";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        preparedStatement.setInt(1, bookId);
-        preparedStatement.setInt(2, memberId);
+    private void handleImportCatalog() throws SQLException, IOException {
+        CatalogImporter.Target target = getImportTarget();
+        Path file = getImportFile();
+        if (file == null) {
+            return;
+        }
+        CatalogImporter.Format format = file.toString().toLowerCase(Locale.ROOT).endsWith(".tsv")
+                ? CatalogImporter.Format.TSV
+                : CatalogImporter.Format.CSV;
+        boolean hasHeader = getYesNoAnswer("Does the file start with a header row (yes/no): ");
+
+        CatalogImporter importer = new CatalogImporter(connectionPool, importBatchSize, out);
+        // Imports and exports are not retried: they are long file jobs, and a failed one is reported like any other failure.
+        CatalogImporter.ImportResult result;
+        try {
+            result = importer.importFile(file, target, format, hasHeader);
+        } catch (IOException e) {
+            reportFileFailure("import", file, e);
+            return;
+        }
+        if (target == CatalogImporter.Target.BOOKS) {
+            bookRepository.forgetAllIds();
+            bookRepository.reloadCatalogSnapshot(streamingFetchSize);
+            bookRepository.reloadPrefixIndex(prefixIndexMaxBooks, streamingFetchSize);
+        } else {
+            memberRepository.forgetAllIds();
+        }
+
+        String method = result.usedCopy() ? "COPY" : "batched inserts";
+        displayDatabaseOperationMessage((int) Math.min(result.rows(), Integer.MAX_VALUE),
+                "Imported " + result.rows() + " rows via " + method + " in " + result.elapsedMillis() + " ms (" + result.rowsPerSecond() + " rows/s).",
+                "The file contained no rows to import.");
+    }
 
-        int deletedLoan = preparedStatement.executeUpdate();
-        displayDatabaseOperationMessage(deletedLoan, "Loan is successfully deleted from the database", "Loan doesn't exist in the database.");
+    private CatalogImporter.Target getImportTarget() throws IOException {
+        while (true) {
+            out.print("What do you want to import (books/members): ");
+            String input = readLine().trim().toLowerCase(Locale.ROOT);
 
-        preparedStatement.close();
+            if (input.equals("books")) {
+                return CatalogImporter.Target.BOOKS;
+            } else if (input.equals("members")) {
+                return CatalogImporter.Target.MEMBERS;
+            } else {
+                out.println("Invalid input! Please enter 'books' or 'members'.");
+            }
+        }
     }
 
-    private static void handleViewAllBooks() throws SQLException {
-        String sqlQuery = "SELECT * FROM books";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+    private Path getImportFile() throws IOException {
+        Path file = readPath("Enter the path to the .csv or .tsv file: ");
+
+        if (file != null && !Files.isReadable(file)) {
+            out.println("😱File not found or not readable: " + file + "\n");
+            return null;
+        }
+        return file;
+    }
 
-        ResultSet resultSet = preparedStatement.executeQuery();
+    private void handleExportTable() throws SQLException, IOException {
+        TableExporter.Source source = getExportSource();
+        Path file = readPath("Enter the output file (.csv, .tsv or .col for columnar, add .gz to compress): ");
+        if (file == null) {
+            return;
+        }
 
-        while (resultSet.next()) {
-            String title = resultSet.getString("title");
-            String author = resultSet.getString("author");
-            String availability = resultSet.getBoolean("is_available") ? "available" : "not available";
-            System.out.println("Title: " + title + ", author: " + author + ", availability: " + availability);
+        TableExporter exporter = new TableExporter(readConnectionSource, streamingFetchSize, out);
+        TableExporter.ExportResult result;
+        try {
+            result = exporter.export(source, TableExporter.formatOf(file), file, TableExporter.isGzipped(file));
+        } catch (IOException e) {
+            reportFileFailure("export", file, e);
+            return;
         }
+        out.println("✨" + describeExport(result, file) + "\n");
+    }
+
+    // Returns null (after saying why) when the answer isn't a valid path on this system.
+    private Path readPath(String prompt) throws IOException {
+        out.print(prompt);
+        String input = readLine().trim();
+        try {
+            return Path.of(input);
+        } catch (InvalidPathException e) {
+            out.println("😱Not a valid path: " + e.getMessage() + "\n");
+            return null;
+        }
+    }
 
-        System.out.println();
-        resultSet.close();
-        preparedStatement.close();
+    // A file that can't be opened, read or written fails the job, not the session.
+    private void reportFileFailure(String job, Path file, IOException e) {
+        out.println("🚨 The " + job + " of " + file + " failed: " + e.getClass().getSimpleName() + ": " + e.getMessage() + "\n");
     }
 
-    private static void handleViewBorrowedBooks() throws SQLException {
-        String sqlQuery = "SELECT * FROM books WHERE is_available = false";
-        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
-        ResultSet resultSet = preparedStatement.executeQuery();
+    private TableExporter.Source getExportSource() throws IOException {
+        while (true) {
+            out.print("What do you want to export (books/members/loans/active-loans): ");
+            String input = readLine().trim().toLowerCase(Locale.ROOT);
 
-        boolean hasResults = false;
+            switch (input) {
+                case "books" -> {
+                    return TableExporter.Source.BOOKS;
+                }
+                case "members" -> {
+                    return TableExporter.Source.MEMBERS;
+                }
+                case "loans" -> {
+                    return TableExporter.Source.LOANS;
+                }
+                case "active-loans" -> {
+                    return TableExporter.Source.ACTIVE_LOANS;
+                }
+                default -> out.println("Invalid input! Please enter 'books', 'members', 'loans' or 'active-loans'.");
+            }
+        }
+    }
+
+    private boolean getYesNoAnswer(String prompt) throws IOException {
+        while (true) {
+            out.print(prompt);
+            String input = readLine().trim().toLowerCase(Locale.ROOT);
 
-        while (resultSet.next()) {
-            hasResults = true;
-            String title = resultSet.getString("title");
-            String author = resultSet.getString("author");
-            System.out.printf("❌ Borrowed: %s by %s\n", title, author);
+            if (input.equals("yes")) {
+                return true;
+            } else if (input.equals("no")) {
+                return false;
+            } else {
+                out.println("Invalid input! Please enter 'yes' or 'no'.");
+            }
         }
+    }
 
-        if (!hasResults) {
-            System.out.println("✅ All books are currently available.");
+    private void handleViewCatalogReport() throws SQLException {
+        ParallelTableScanner.ScanResult<CatalogReport> scan = resilientExecutor.read(() -> bookRepository.scanAll(
+                libraryServices.newParallelScanner(), CatalogReport.collector(reportTopAuthors)));
+        CatalogReport report = scan.result();
+
+        out.println("📈 Catalog report (" + scan.rows() + " books scanned in " + scan.partitions()
+                + (scan.partitions() == 1 ? " partition, " : " partitions, ")
+                + scan.elapsedMillis() + " ms, " + scan.rowsPerSecond() + " rows/s):");
+        out.println("   Books: " + report.books() + ", on the shelf: " + report.availableBooks()
+                + ", borrowed: " + (report.books() - report.availableBooks()) + ", authors: " + report.authors());
+        for (CatalogReport.AuthorCount authorCount : report.topAuthors()) {
+            out.println("   " + authorCount.author() + ": " + authorCount.books() + " books");
         }
+        out.println();
+    }
 
-        System.out.println();
-        resultSet.close();
-        preparedStatement.close();
+    private void handleViewQueryStatistics() {
+        out.println("📊 Query statistics (since start or last reset):");
+        out.println(queryMetrics.dump());
     }
 
-    public static void handleExit(){
-        System.out.println("👋 Exiting the program.");
+    private void handleExit(){
+        out.println("👋 Exiting the program.");
         programLifecycleIsNotOver = false;
     }
 
-    private static void closeBufferedReader() throws IOException {
-        reader.close();
+    // Prompts are printed without a newline, so flush before blocking on the answer (matters for socket sessions).
+    private String readLine() throws IOException {
+        out.flush();
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("The session input was closed.");
+        }
+        return line;
     }
 
-    private static void closeDatabaseConnection() throws SQLException {
-        connection.close();
+    /*
+     * One listing as seen by showPageByPage(): a page after the last shown row (null before the first page),
+     * or the rest of the rows as a stream.
+     */
+    private interface PageSource<T> {
+        List<T> pageAfter(T lastRow, int pageSize) throws SQLException;
+
+        Stream<T> streamAfter(T lastRow) throws SQLException;
     }
 
     private static void printFormatedException(String message, Exception e){
@@ -0,0 +1,71 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free latency histogram with power-of-two microsecond buckets.
+ *
+ * Bucket i counts durations in [2^(i-1), 2^i) microseconds, so percentiles are approximate
+ * (within a factor of two), but recording is one array increment and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = nanos / 1_000;
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getAverageMillis() {
+        long recorded = getCount();
+        return recorded == 0 ? 0.0 : totalNanos.sum() / 1_000_000.0 / recorded;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    /*
+     * Upper bound of the bucket that contains the given percentile (0-100), in milliseconds.
+     */
+    public double getPercentileMillis(double percentile) {
+        long recorded = getCount();
+        if (recorded == 0) {
+            return 0.0;
+        }
+
+        long target = (long) Math.ceil(recorded * percentile / 100.0);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= target) {
+                return Math.min((1L << bucket) / 1_000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets.set(bucket, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Settings for the library app, so connection details and tuning don't need a recompile.
+ *
+ * Sources, from lowest to highest priority:
+ * 1) library.properties on the classpath (src/main/resources): the defaults, and the list of known keys.
+ * 2) An external properties file: the path in -Dlibrary.config or LIBRARY_CONFIG, otherwise ./library.properties if it exists.
+ * 3) Environment variables: LIBRARY_ + the key in upper snake case, e.g. db.password -> LIBRARY_DB_PASSWORD,
+ *    pool.borrowTimeout -> LIBRARY_POOL_BORROW_TIMEOUT. Only keys that appear in one of the files can be set this way.
+ * 4) System properties: -Dlibrary.<key>, e.g. -Dlibrary.pool.size=8. These may also add new keys (such as driver options).
+ *
+ * Every db.driver.<option> key is passed to the JDBC driver as a connection property (prepareThreshold, reWriteBatchedInserts, ...).
+ * Durations are written as 200ms, 10s, 5m, 1h or ISO-8601 (PT10S).
+ */
+public class LibraryConfig {
+    private static final String resourceName = "library.properties";
+    private static final String keyPrefix = "library.";
+    private static final String environmentPrefix = "LIBRARY_";
+    private static final String driverOptionPrefix = "db.driver.";
+    private static final Pattern SIMPLE_DURATION = Pattern.compile("(\\d+)\\s*(ms|s|m|h|d)");
+
+    private final Properties properties;
+
+    private LibraryConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static LibraryConfig load() throws IOException {
+        return load(System.getenv(), System.getProperties());
+    }
+
+    public static LibraryConfig load(Map<String, String> environment, Properties systemProperties) throws IOException {
+        Properties properties = new Properties();
+
+        try (InputStream defaults = LibraryConfig.class.getClassLoader().getResourceAsStream(resourceName)) {
+            if (defaults == null) {
+                throw new IOException("No " + resourceName + " found on the classpath.");
+            }
+            try (Reader reader = new InputStreamReader(defaults, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+
+        Path externalFile = findExternalFile(environment, systemProperties);
+        if (externalFile != null) {
+            try (Reader reader = Files.newBufferedReader(externalFile, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = environment.get(toEnvironmentName(key));
+            if (value != null) {
+                properties.setProperty(key, value);
+            }
+        }
+
+        for (String name : systemProperties.stringPropertyNames()) {
+            if (name.startsWith(keyPrefix) && !name.equals(keyPrefix + "config")) {
+                properties.setProperty(name.substring(keyPrefix.length()), systemProperties.getProperty(name));
+            }
+        }
+
+        return new LibraryConfig(properties);
+    }
+
+    public String getString(String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing configuration setting " + key + ".");
+        }
+        return value.trim();
+    }
+
+    public int getInt(String key) {
+        try {
+            return Integer.parseInt(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be a whole number, but was '" + getString(key) + "'.");
+        }
+    }
+
+    public long getLong(String key) {
+        try {
+            return Long.parseLong(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be a whole number, but was '" + getString(key) + "'.");
+        }
+    }
+
+    public boolean getBoolean(String key) {
+        String value = getString(key).toLowerCase(Locale.ROOT);
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("Setting " + key + " must be true or false, but was '" + getString(key) + "'.");
+        }
+        return value.equals("true");
+    }
+
+    public Duration getDuration(String key) {
+        String value = getString(key);
+        Matcher matcher = SIMPLE_DURATION.matcher(value.toLowerCase(Locale.ROOT));
+
+        if (matcher.matches()) {
+            long amount = Long.parseLong(matcher.group(1));
+            return switch (matcher.group(2)) {
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                case "h" -> Duration.ofHours(amount);
+                default -> Duration.ofDays(amount);
+            };
+        }
+
+        try {
+            return Duration.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Setting " + key + " must be a duration like 500ms, 10s or 5m, but was '" + value + "'.");
+        }
+    }
+
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type) {
+        String value = getString(key);
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Setting " + key + " has an unknown value '" + value + "'.");
+        }
+    }
+
+    /*
+     * A comma-separated setting; an empty value is an empty list.
+     */
+    public List<String> getList(String key) {
+        List<String> values = new ArrayList<>();
+        for (String value : getString(key).split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+
+    /*
+     * A file path setting; an empty value means "no file" and gives null.
+     */
+    public Path getOptionalPath(String key) {
+        String value = getString(key);
+        return value.isEmpty() ? null : Path.of(value);
+    }
+
+    /*
+     * The properties handed to DriverManager: user, password and every db.driver.* option.
+     */
+    public Properties getConnectionProperties() {
+        Properties connectionProperties = new Properties();
+        connectionProperties.setProperty("user", getString("db.username"));
+        connectionProperties.setProperty("password", properties.getProperty("db.password", ""));
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(driverOptionPrefix)) {
+                connectionProperties.setProperty(key.substring(driverOptionPrefix.length()), getString(key));
+            }
+        }
+        return connectionProperties;
+    }
+
+    private static Path findExternalFile(Map<String, String> environment, Properties systemProperties) throws IOException {
+        String configuredPath = systemProperties.getProperty(keyPrefix + "config", environment.get(environmentPrefix + "CONFIG"));
+        if (configuredPath != null) {
+            Path path = Path.of(configuredPath);
+            if (!Files.isRegularFile(path)) {
+                throw new IOException("Configuration file " + path.toAbsolutePath() + " does not exist.");
+            }
+            return path;
+        }
+
+        Path workingDirectoryFile = Path.of(resourceName);
+        return Files.isRegularFile(workingDirectoryFile) ? workingDirectoryFile : null;
+    }
+
+    // pool.borrowTimeout -> LIBRARY_POOL_BORROW_TIMEOUT
+    private static String toEnvironmentName(String key) {
+        return environmentPrefix + key.replaceAll("([a-z0-9])([A-Z])", "$1_$2").replace('.', '_').toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Serves the library menu to many clerks at once over a local socket.
+ *
+ * 1) Every accepted socket becomes a session running the usual JDBC_Challenge menu on its own virtual thread.
+ * 2) A session blocked on reading its socket parks its virtual thread and costs no carrier thread,
+ *    so thousands of idle sessions are cheap.
+ * 3) All sessions share one LibraryServices (bounded connection pool, repositories, caches).
+ *    A session only holds a database connection while one operation runs; if all connections are busy,
+ *    it waits up to the pool's borrow timeout.
+ *
+ * Connect with any line-based client, e.g. "nc localhost 5050", or use LoadGenerator.
+ */
+public class LibraryServer implements AutoCloseable {
+    private final LibraryServices libraryServices;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicLong totalSessions = new AtomicLong();
+
+    public LibraryServer(LibraryServices libraryServices, int port) throws IOException {
+        this.libraryServices = libraryServices;
+        // Only local clients: the desk terminals connect through localhost.
+        this.serverSocket = new ServerSocket(port, 1_024, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public long getTotalSessions() {
+        return totalSessions.get();
+    }
+
+    /*
+     * Accepts sessions until the server is closed.
+     */
+    public void acceptSessions() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+
+            totalSessions.incrementAndGet();
+            sessionExecutor.submit(() -> runSession(socket));
+        }
+    }
+
+    private void runSession(Socket socket) {
+        activeSessions.incrementAndGet();
+
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+            // Database failures are reported inside the session, which then carries on.
+            new JDBC_Challenge(libraryServices, reader, out).runProgramLifeCycle();
+            out.flush();
+        } catch (EOFException | SocketException e) {
+            // The client went away; nothing left to tell it.
+        } catch (IOException e) {
+            System.out.println("Session ended with an IO exception: " + e.getMessage());
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Shutting down anyway.
+        }
+        sessionExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,185 @@
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Everything the menu sessions share: the connection pool (and the replica routing), the query metrics
+ * and the repositories (with their lookup caches).
+ *
+ * One instance is created at startup and handed to every session, so the console and all server sessions
+ * go through the same bounded pool. Sessions only lease a connection for the duration of one operation,
+ * which is why thousands of idle sessions can share a handful of database connections.
+ *
+ * The optional write-behind queue is closed (and so drained) before the pools, and so is the optional OverdueLoanJob.
+ * The query metrics are closed last, so the slow statements of the final flush still reach the slow-query log.
+ *
+ * The ResilientExecutor (and its circuit breaker) is shared too: when the database goes away, every session fails fast
+ * instead of each one waiting out its own timeouts.
+ *
+ * With a CatalogSnapshot, a background thread reloads it every catalogSnapshotRefreshInterval (the first load is
+ * part of the startup work), and the write-behind queue reports its flushed borrows and returns to it.
+ *
+ * With change notifications on, a ChangeNotificationListener applies the writes of other programs to the caches as they commit.
+ */
+public class LibraryServices implements AutoCloseable {
+    private final QueryMetrics queryMetrics;
+    private final ReadWriteRouter router;
+    private final BookRepository bookRepository;
+    private final MemberRepository memberRepository;
+    private final LoanRepository loanRepository;
+    private final LoanWriteBehindQueue writeBehindQueue;
+    private final OverdueLoanJob overdueLoanJob;
+    private final ResilientExecutor resilientExecutor;
+    private final int fetchSize;
+    private final ConsoleTable.Format listingFormat;
+    private final int listingPageSize;
+    private final int importBatchSize;
+    private final int scanParallelism;
+    private final long scanRowsPerPartition;
+    private final ScheduledExecutorService catalogSnapshotRefresher;
+    private final ChangeNotificationListener changeNotificationListener;
+
+    public LibraryServices(ReadWriteRouter router, QueryMetrics queryMetrics,
+                           int lookupCacheSize, Duration lookupCacheTtl, BookPrefixIndex bookPrefixIndex,
+                           CatalogSnapshot catalogSnapshot, Duration catalogSnapshotRefreshInterval,
+                           Duration changeNotificationsReconnectDelay,
+                           LoanWriteBehindQueue writeBehindQueue, OverdueLoanJob overdueLoanJob, ResilientExecutor resilientExecutor,
+                           int fetchSize, int scanParallelism, long scanRowsPerPartition, ConsoleTable.Format listingFormat,
+                           int listingPageSize, int importBatchSize) {
+        this.queryMetrics = queryMetrics;
+        this.listingFormat = listingFormat;
+        this.listingPageSize = listingPageSize;
+        this.importBatchSize = importBatchSize;
+        this.resilientExecutor = resilientExecutor;
+        this.fetchSize = fetchSize;
+        this.scanParallelism = scanParallelism;
+        this.scanRowsPerPartition = scanRowsPerPartition;
+        this.router = router;
+        this.bookRepository = new BookRepository(router, lookupCacheSize, lookupCacheTtl, bookPrefixIndex, catalogSnapshot);
+        this.memberRepository = new MemberRepository(router, lookupCacheSize, lookupCacheTtl);
+        this.writeBehindQueue = writeBehindQueue;
+        this.overdueLoanJob = overdueLoanJob;
+        this.loanRepository = new LoanRepository(router, memberRepository, bookRepository, writeBehindQueue);
+        // A null reconnect delay turns change notifications off.
+        this.changeNotificationListener = changeNotificationsReconnectDelay != null
+                ? new ChangeNotificationListener(router.getPrimary(), bookRepository, memberRepository, fetchSize,
+                        changeNotificationsReconnectDelay)
+                : null;
+
+        if (catalogSnapshot == null) {
+            this.catalogSnapshotRefresher = null;
+        } else {
+            if (writeBehindQueue != null) {
+                writeBehindQueue.setAvailabilityListener(bookRepository::markAvailable);
+            }
+            this.catalogSnapshotRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "catalog-snapshot-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = catalogSnapshotRefreshInterval.toMillis();
+            catalogSnapshotRefresher.scheduleWithFixedDelay(this::refreshCatalogSnapshot, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return router.getPrimary();
+    }
+
+    // Replicas when there are any (see ReadWriteRouter), for long read-only work such as exports.
+    public ConnectionSource getReadConnectionSource() {
+        return router.reads();
+    }
+
+    /*
+     * A scanner for one whole-table job. All its connections come from one server, a replica when there is a healthy one.
+     * A scan takes its workers plus a coordinating connection, so at most pool size - 2 workers run:
+     * at least one connection of the pool stays free for the menu and server sessions.
+     */
+    public ParallelTableScanner newParallelScanner() {
+        ConnectionPool pool = router.choosePoolForReads();
+        int parallelism = Math.max(1, Math.min(scanParallelism, pool.getMaxSize() - 2));
+        return new ParallelTableScanner(pool, parallelism, scanRowsPerPartition, fetchSize);
+    }
+
+    public BookRepository getBookRepository() {
+        return bookRepository;
+    }
+
+    public MemberRepository getMemberRepository() {
+        return memberRepository;
+    }
+
+    public LoanRepository getLoanRepository() {
+        return loanRepository;
+    }
+
+    public ResilientExecutor getResilientExecutor() {
+        return resilientExecutor;
+    }
+
+    // Rows per round trip for cursor-streamed listings.
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    // How sessions print listings: an aligned table or tab-separated values.
+    public ConsoleTable.Format getListingFormat() {
+        return listingFormat;
+    }
+
+    public int getListingPageSize() {
+        return listingPageSize;
+    }
+
+    public int getImportBatchSize() {
+        return importBatchSize;
+    }
+
+    // A failed refresh keeps the previous copy; the next one tries again.
+    private void refreshCatalogSnapshot() {
+        try {
+            bookRepository.reloadCatalogSnapshot(fetchSize);
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("⚠️ Could not refresh the catalog snapshot: " + e.getMessage());
+        }
+    }
+
+    public String describeStatistics() {
+        return "📊 Statement cache: " + router.getPrimary().getStatementCacheCounters() + "\n"
+                + "📊 " + router + "\n"
+                + "📊 Lookup cache " + memberRepository.getIdCache() + "\n"
+                + "📊 Lookup cache " + bookRepository.getIdCache() + "\n"
+                + "📊 " + resilientExecutor
+                + (changeNotificationListener != null ? "\n📊 " + changeNotificationListener : "")
+                + (bookRepository.getCatalogSnapshot() != null ? "\n📊 " + bookRepository.getCatalogSnapshot() : "")
+                + (writeBehindQueue != null ? "\n📊 " + writeBehindQueue : "")
+                + (overdueLoanJob != null ? "\n📊 " + overdueLoanJob : "");
+    }
+
+    @Override
+    public void close() {
+        if (changeNotificationListener != null) {
+            changeNotificationListener.close();
+        }
+        if (catalogSnapshotRefresher != null) {
+            catalogSnapshotRefresher.shutdownNow();
+        }
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+        }
+        if (overdueLoanJob != null) {
+            overdueLoanJob.close();
+        }
+        router.close();
+        router.getPrimary().close();
+        queryMetrics.close();
+    }
+}
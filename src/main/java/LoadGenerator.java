@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Load-generator client for LibraryServer.
+ *
+ * 1) Opens idleSessions sessions that only sit at the menu.
+ * 2) A setup session registers the member and prepares one book per active session ("<title> <n>"), so the sessions
+ *    don't compete for the same copy: a missing book is added, a copy left on loan by an earlier run is returned.
+ * 3) activeSessions sessions then each borrow and return their own book operationsPerSession times.
+ *    Every session runs on its own virtual thread.
+ * 4) Every answer is checked: anything but a ✨ success is a failure, so "already borrowed", "not found" (which
+ *    a cached miss answers without touching the database) or an error can't pass for pooled database work.
+ *    At the end it prints the outcomes, the throughput and the latency of one menu operation
+ *    (request sent -> next menu prompt).
+ *
+ * Usage: LoadGenerator [host] [port] [activeSessions] [idleSessions] [operationsPerSession] [email] [title] [author]
+ */
+public class LoadGenerator {
+    private static final String menuPrompt = "Enter your choice";
+    private static final String menuStart = "Choose an option";
+    private static final String success = "✨";
+    private static final int addBookOption = 1;
+    private static final int borrowOption = 4;
+    private static final int returnOption = 5;
+    private static final int registerSeveralOption = 6;
+    // The prompts the requests above answer; they are echoed on the same line as the outcome.
+    private static final List<String> prompts = List.of("Please prompt a name (empty to finish): ", "Please prompt an email: ",
+            "Enter the book title: ", "Enter the book author: ", "Is the book available (yes/no): ");
+    private static final int maxOutcomeLength = 100;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5050;
+        int activeSessions = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int idleSessions = args.length > 3 ? Integer.parseInt(args[3]) : 2_000;
+        int operationsPerSession = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+        String email = args.length > 5 ? args[5] : "load@example.com";
+        String title = args.length > 6 ? args[6] : "Load Test";
+        String author = args.length > 7 ? args[7] : "Generator";
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder succeeded = new LongAdder();
+        LongAdder failures = new LongAdder();
+        Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        List<Session> idle = new ArrayList<>(idleSessions);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Session>> openedIdleSessions = new ArrayList<>(idleSessions);
+            for (int i = 0; i < idleSessions; i++) {
+                openedIdleSessions.add(executor.submit(() -> Session.open(host, port)));
+            }
+            for (Future<Session> openedSession : openedIdleSessions) {
+                try {
+                    idle.add(openedSession.get());
+                } catch (Exception e) {
+                    failures.increment();
+                    count(outcomes, "🔌 idle session could not connect: " + e.getMessage());
+                }
+            }
+            System.out.println("😴 " + idle.size() + " idle sessions connected.");
+
+            try (Session setup = Session.open(host, port)) {
+                prepare(setup, email, title, author, activeSessions);
+            }
+            System.out.println("📚 Member " + email + " and " + activeSessions + " books are ready.");
+
+            long startedAt = System.nanoTime();
+            for (int i = 0; i < activeSessions; i++) {
+                String borrowRequest = borrowRequest(email, bookTitle(title, i), author);
+                String returnRequest = returnRequest(email, bookTitle(title, i), author);
+                executor.submit(() -> {
+                    try (Session session = Session.open(host, port)) {
+                        for (int operation = 0; operation < operationsPerSession; operation++) {
+                            Reply reply = session.send(operation % 2 == 0 ? borrowRequest : returnRequest);
+                            latencies.record(reply.nanos());
+                            (reply.succeeded() ? succeeded : failures).increment();
+                            count(outcomes, reply.outcome());
+                        }
+                    } catch (IOException e) {
+                        failures.increment();
+                        count(outcomes, "🔌 session failed: " + e.getMessage());
+                    }
+                    return null;
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+
+            double elapsedSeconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+            System.out.printf("🏁 %d operations in %.1f s (%.0f ops/s), succeeded=%d, failures=%d%n",
+                    latencies.getCount(), elapsedSeconds, latencies.getCount() / elapsedSeconds, succeeded.sum(), failures.sum());
+            outcomes.entrySet().stream()
+                    .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                    .forEach(outcome -> System.out.printf("   %8d  %s%n", outcome.getValue().sum(), outcome.getKey()));
+            System.out.printf("⏱️ latency avg=%.2f ms, p50=%.2f ms, p99=%.2f ms, max=%.2f ms%n",
+                    latencies.getAverageMillis(), latencies.getPercentileMillis(50),
+                    latencies.getPercentileMillis(99), latencies.getMaxMillis());
+        } finally {
+            for (Session session : idle) {
+                session.close();
+            }
+        }
+    }
+
+    /*
+     * Registers the member (an existing one is fine) and leaves every session's book on the shelf.
+     * Trying to borrow the book tells what state it is in; the answer decides how to fix it.
+     */
+    private static void prepare(Session setup, String email, String title, String author, int books) throws IOException {
+        Reply registration = setup.send(registerSeveralOption + "\nLoad Generator\n" + email + "\n\n");
+        if (registration.text().contains("🚨")) {
+            throw new IllegalStateException("Could not register " + email + ": " + registration.outcome());
+        }
+
+        for (int i = 0; i < books; i++) {
+            String bookTitle = bookTitle(title, i);
+            Reply borrowed = setup.send(borrowRequest(email, bookTitle, author));
+
+            Reply fixed;
+            if (borrowed.succeeded() || borrowed.text().contains("currently borrowed")) {
+                // Lent now, or still lent to this member by an earlier run that was interrupted.
+                fixed = setup.send(returnRequest(email, bookTitle, author));
+            } else if (borrowed.text().contains("Book not found")) {
+                fixed = setup.send(addBookOption + "\n" + bookTitle + "\n" + author + "\nyes\n");
+            } else {
+                fixed = borrowed;
+            }
+            if (!fixed.succeeded()) {
+                throw new IllegalStateException("Could not prepare '" + bookTitle + "' by " + author + ": " + fixed.outcome());
+            }
+        }
+    }
+
+    private static String bookTitle(String title, int session) {
+        return title + " " + (session + 1);
+    }
+
+    private static String borrowRequest(String email, String title, String author) {
+        return borrowOption + "\n" + email + "\n" + title + "\n" + author + "\n";
+    }
+
+    private static String returnRequest(String email, String title, String author) {
+        return returnOption + "\n" + email + "\n" + title + "\n" + author + "\n";
+    }
+
+    private static void count(Map<String, LongAdder> outcomes, String outcome) {
+        // Return dates and ids would make every answer its own line.
+        String key = outcome.replaceAll("\\d{4}-\\d{2}-\\d{2}", "<date>").replaceAll("\\d+", "<n>");
+        if (key.length() > maxOutcomeLength) {
+            key = key.substring(0, maxOutcomeLength) + "...";
+        }
+        outcomes.computeIfAbsent(key, ignored -> new LongAdder()).increment();
+    }
+
+    /*
+     * What the server printed for one request, up to the next menu. The outcome is the last line it printed,
+     * without the prompts that came before it.
+     */
+    private record Reply(long nanos, String text) {
+        private boolean succeeded() {
+            return outcome().startsWith(success);
+        }
+
+        private String outcome() {
+            String[] lines = text.split("\n");
+            for (int i = lines.length - 1; i >= 0; i--) {
+                String line = lines[i];
+                for (String prompt : prompts) {
+                    line = line.replace(prompt, "");
+                }
+                if (!line.isBlank()) {
+                    return line.strip();
+                }
+            }
+            return "(no answer)";
+        }
+    }
+
+    /*
+     * One client connection. send() writes a full request and waits until the server prints the next menu prompt.
+     */
+    private static final class Session implements AutoCloseable {
+        private final Socket socket;
+        private final Reader reader;
+        private final Writer writer;
+        private final StringBuilder received = new StringBuilder();
+        private final char[] buffer = new char[4_096];
+
+        private Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+            this.writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        private static Session open(String host, int port) throws IOException {
+            Session session = new Session(new Socket(host, port));
+            try {
+                session.awaitMenuPrompt();
+                return session;
+            } catch (IOException e) {
+                session.close();
+                throw e;
+            }
+        }
+
+        private Reply send(String request) throws IOException {
+            long startedAt = System.nanoTime();
+            writer.write(request);
+            writer.flush();
+            awaitMenuPrompt();
+            long nanos = System.nanoTime() - startedAt;
+
+            int answerEnd = received.indexOf(menuStart);
+            return new Reply(nanos, received.substring(0, answerEnd >= 0 ? answerEnd : received.length()));
+        }
+
+        private void awaitMenuPrompt() throws IOException {
+            received.setLength(0);
+            while (true) {
+                int read = reader.read(buffer);
+                if (read < 0) {
+                    throw new IOException("The server closed the session.");
+                }
+                received.append(buffer, 0, read);
+
+                int promptStart = received.lastIndexOf(menuPrompt);
+                if (promptStart >= 0 && received.indexOf("): ", promptStart) >= 0) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+        }
+    }
+}
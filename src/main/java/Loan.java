@@ -0,0 +1,21 @@
+import java.time.LocalDate;
+
+/*
+ * One row of the loans table.
+ */
+public record Loan(int id, int bookId, int memberId, LocalDate loanDate, LocalDate returnDate) {
+    public static final RowMapper<Loan> MAPPER = resultSet -> {
+        int idColumn = resultSet.findColumn("loan_id");
+        int bookIdColumn = resultSet.findColumn("book_id");
+        int memberIdColumn = resultSet.findColumn("member_id");
+        int loanDateColumn = resultSet.findColumn("loan_date");
+        int returnDateColumn = resultSet.findColumn("return_date");
+
+        return row -> new Loan(
+                row.getInt(idColumn),
+                row.getInt(bookIdColumn),
+                row.getInt(memberIdColumn),
+                row.getObject(loanDateColumn, LocalDate.class),
+                row.getObject(returnDateColumn, LocalDate.class));
+    };
+}
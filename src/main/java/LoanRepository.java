@@ -0,0 +1,521 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+ * Borrowing and returning books, plus reads of the loans table.
+ *
+ * Borrowing is one statement in one transaction:
+ * the member and book lookups, the availability check, the loan insert and the availability update
+ * are all CTEs of the same query, so the whole thing costs a single round trip (plus COMMIT).
+ *
+ * The UPDATE only flips books that are still available. If two clerks lend the same copy at the same time,
+ * the second UPDATE waits for the first one's row lock, re-checks is_available and matches nothing,
+ * so no second loan is inserted.
+ *
+ * When the member and book ids are already in the lookup caches, the "ById" variants skip the lookups.
+ * All four queries return the same row: (member_id, book_id, loan_id or number of returned loans).
+ *
+ * The active_loans read model, kept in sync by triggers on loans, answers "who has which book and when is it due"
+ * without joining books and members, sorted by due date.
+ *
+ * borrowAll() lends a stack of books to one member: one query resolves the member and every book id, then one JDBC batch
+ * of the "by ids" statement lends them, all in one transaction, with a result (and the new loan id) per book.
+ *
+ * lookUp() resolves a member, a book and the book's availability with one joined query, so a caller that needs
+ * all three pays one round trip instead of one per lookup. The write-behind paths below use it when the ids
+ * aren't cached yet, and it fills both lookup caches.
+ *
+ * With a LoanWriteBehindQueue, borrow() and returnBook() only resolve the ids and queue the change, answering QUEUED.
+ * borrow() always goes through lookUp(), so a book that is already out is refused at once (ALREADY_BORROWED)
+ * instead of being queued; a copy lent by another session in the meantime is still caught when the queue is flushed.
+ * returnBook() doesn't need the availability and takes the ids from the caches when it can.
+ */
+public class LoanRepository {
+    public static final int LOAN_PERIOD_DAYS = 14;
+
+    private static final String borrowBookQuery = """
+            WITH member AS (
+                SELECT member_id FROM members WHERE email = ? ORDER BY member_id LIMIT 1
+            ), book AS (
+                SELECT book_id FROM books WHERE title = ? AND author = ? ORDER BY book_id LIMIT 1
+            ), lent_book AS (
+                UPDATE books SET is_available = false
+                WHERE book_id = (SELECT book_id FROM book) AND is_available AND EXISTS (SELECT 1 FROM member)
+                RETURNING book_id
+            ), loan AS (
+                INSERT INTO loans (member_id, book_id, loan_date, return_date)
+                SELECT member.member_id, lent_book.book_id, ?, ?
+                FROM member, lent_book
+                RETURNING loan_id
+            )
+            SELECT (SELECT member_id FROM member), (SELECT book_id FROM book), (SELECT loan_id FROM loan)
+            """;
+
+    private static final String borrowBookByIdQuery = """
+            WITH lent_book AS (
+                UPDATE books SET is_available = false
+                WHERE book_id = ? AND is_available
+                RETURNING book_id
+            ), loan AS (
+                INSERT INTO loans (member_id, book_id, loan_date, return_date)
+                SELECT ?, book_id, ?, ?
+                FROM lent_book
+                RETURNING loan_id
+            )
+            SELECT CAST(? AS integer), (SELECT book_id FROM books WHERE book_id = ?), (SELECT loan_id FROM loan)
+            """;
+
+    // Batched by borrowAll(), so it returns nothing itself: the loan_id comes back as a generated key.
+    private static final String lendBookByIdStatement = """
+            WITH lent_book AS (
+                UPDATE books SET is_available = false
+                WHERE book_id = ? AND is_available
+                RETURNING book_id
+            )
+            INSERT INTO loans (member_id, book_id, loan_date, return_date)
+            SELECT ?, book_id, ?, ?
+            FROM lent_book
+            """;
+
+    // The member id (repeated on every row) and the first book id for every (title, author) pair, in the order they were asked for.
+    private static final String memberAndBookIdsQuery = """
+            SELECT (SELECT member_id FROM members WHERE email = ? ORDER BY member_id LIMIT 1),
+                   (SELECT book_id FROM books WHERE title = requested.title AND author = requested.author ORDER BY book_id LIMIT 1)
+            FROM unnest(CAST(? AS text[]), CAST(? AS text[])) WITH ORDINALITY AS requested (title, author, position)
+            ORDER BY requested.position
+            """;
+
+    private static final String lookupQuery = """
+            SELECT (SELECT member_id FROM members WHERE email = ? ORDER BY member_id LIMIT 1), book.book_id, book.is_available
+            FROM (SELECT 1) AS one
+            LEFT JOIN LATERAL (
+                SELECT book_id, is_available FROM books WHERE title = ? AND author = ? ORDER BY book_id LIMIT 1
+            ) AS book ON true
+            """;
+
+    // Returning deletes the member's loan and marks the book available again, but only if a loan was actually deleted.
+    private static final String returnBookQuery = """
+            WITH member AS (
+                SELECT member_id FROM members WHERE email = ? ORDER BY member_id LIMIT 1
+            ), book AS (
+                SELECT book_id FROM books WHERE title = ? AND author = ? ORDER BY book_id LIMIT 1
+            ), returned_loan AS (
+                DELETE FROM loans
+                WHERE book_id = (SELECT book_id FROM book) AND member_id = (SELECT member_id FROM member)
+                RETURNING book_id
+            ), returned_book AS (
+                UPDATE books SET is_available = true
+                WHERE book_id IN (SELECT book_id FROM returned_loan)
+                RETURNING book_id
+            )
+            SELECT (SELECT member_id FROM member), (SELECT book_id FROM book), (SELECT CAST(COUNT(*) AS integer) FROM returned_loan)
+            """;
+
+    private static final String returnBookByIdQuery = """
+            WITH returned_loan AS (
+                DELETE FROM loans
+                WHERE book_id = ? AND member_id = ?
+                RETURNING book_id
+            ), returned_book AS (
+                UPDATE books SET is_available = true
+                WHERE book_id IN (SELECT book_id FROM returned_loan)
+                RETURNING book_id
+            )
+            SELECT CAST(? AS integer), (SELECT book_id FROM books WHERE book_id = ?), (SELECT CAST(COUNT(*) AS integer) FROM returned_loan)
+            """;
+
+    private static final String allLoansQuery = "SELECT loan_id, book_id, member_id, loan_date, return_date FROM loans ORDER BY loan_id";
+
+    // The active_loans read model (V4__active_loans_read_model.sql), paged by due date with keyset pagination on (return_date, loan_id).
+    private static final String activeLoansPageQuery = """
+            SELECT loan_id, book_id, member_id, title, author, member_name, member_email, loan_date, return_date
+            FROM active_loans
+            WHERE return_date <= ? AND (return_date, loan_id) > (?, ?)
+            ORDER BY return_date, loan_id
+            LIMIT ?
+            """;
+    private static final String remainingActiveLoansQuery = """
+            SELECT loan_id, book_id, member_id, title, author, member_name, member_email, loan_date, return_date
+            FROM active_loans
+            WHERE return_date <= ? AND (return_date, loan_id) > (?, ?)
+            ORDER BY return_date, loan_id
+            """;
+
+    private static final RowMapper<LoanStatementResult> LOAN_STATEMENT_RESULT_MAPPER = resultSet -> row -> new LoanStatementResult(
+            row.getObject(1, Integer.class),
+            row.getObject(2, Integer.class),
+            row.getObject(3, Integer.class));
+
+    public enum BorrowOutcome {
+        BORROWED, QUEUED, NOT_A_MEMBER, BOOK_NOT_FOUND, ALREADY_BORROWED
+    }
+
+    public enum ReturnOutcome {
+        RETURNED, QUEUED, BOOK_NOT_FOUND, NO_SUCH_LOAN
+    }
+
+    // loanId is only set when the book was BORROWED.
+    public record Checkout(BookRepository.BookKey book, BorrowOutcome outcome, Integer loanId) {
+    }
+
+    // Ids are null when there is no such member or book; bookAvailable is null when there is no such book.
+    public record Lookup(Integer memberId, Integer bookId, Boolean bookAvailable) {
+    }
+
+    private static final RowMapper<Lookup> LOOKUP_MAPPER = resultSet -> row -> new Lookup(
+            row.getObject(1, Integer.class),
+            row.getObject(2, Integer.class),
+            row.getObject(3, Boolean.class));
+
+    private record MemberAndBookId(Integer memberId, Integer bookId) {
+    }
+
+    private static final RowMapper<MemberAndBookId> MEMBER_AND_BOOK_ID_MAPPER = resultSet -> row -> new MemberAndBookId(
+            row.getObject(1, Integer.class),
+            row.getObject(2, Integer.class));
+
+    private record LoanStatementResult(Integer memberId, Integer bookId, Integer loanResult) {
+    }
+
+    private final ReadWriteRouter router;
+    private final MemberRepository memberRepository;
+    private final BookRepository bookRepository;
+    private final LoanWriteBehindQueue writeBehindQueue;
+
+    public LoanRepository(ConnectionPool connectionPool, MemberRepository memberRepository, BookRepository bookRepository) {
+        this(new ReadWriteRouter(connectionPool), memberRepository, bookRepository, null);
+    }
+
+    public LoanRepository(ReadWriteRouter router, MemberRepository memberRepository, BookRepository bookRepository,
+                          LoanWriteBehindQueue writeBehindQueue) {
+        this.router = router;
+        this.memberRepository = memberRepository;
+        this.bookRepository = bookRepository;
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    public BorrowOutcome borrow(String email, String title, String author, LocalDate loanDate, LocalDate returnDate) throws SQLException {
+        BookRepository.BookKey bookKey = new BookRepository.BookKey(title, author);
+        long memberGeneration = memberRepository.getIdGeneration();
+        long bookGeneration = bookRepository.getIdGeneration();
+        Integer cachedMemberId = memberRepository.getCachedId(email);
+        Integer cachedBookId = bookRepository.getCachedId(bookKey);
+
+        // A cached "not found" answers without going to the database at all.
+        if (isCachedAsNotFound(cachedMemberId)) {
+            return BorrowOutcome.NOT_A_MEMBER;
+        }
+        if (isCachedAsNotFound(cachedBookId)) {
+            return BorrowOutcome.BOOK_NOT_FOUND;
+        }
+
+        if (writeBehindQueue != null) {
+            // The ids alone would be enough to queue the loan, but the availability is worth the one round trip.
+            Lookup lookup = lookUp(email, title, author);
+            if (lookup.memberId() == null) {
+                return BorrowOutcome.NOT_A_MEMBER;
+            }
+            if (lookup.bookId() == null) {
+                return BorrowOutcome.BOOK_NOT_FOUND;
+            }
+            if (Boolean.FALSE.equals(lookup.bookAvailable())) {
+                return BorrowOutcome.ALREADY_BORROWED;
+            }
+            writeBehindQueue.enqueueBorrow(lookup.memberId(), lookup.bookId(), loanDate, returnDate);
+            return BorrowOutcome.QUEUED;
+        }
+
+        LoanStatementResult result = inTransaction(connection -> {
+            if (cachedMemberId != null && cachedBookId != null) {
+                LoanStatementResult byIdResult = executeLoanStatement(connection, borrowBookByIdQuery,
+                        cachedBookId, cachedMemberId, loanDate, returnDate, cachedMemberId, cachedBookId);
+
+                if (byIdResult.bookId() != null) {
+                    return byIdResult;
+                }
+                // The cached book is gone (deleted by someone else), so look it up again by title and author.
+                bookRepository.forgetId(bookKey);
+            }
+
+            LoanStatementResult byTitleResult = executeLoanStatement(connection, borrowBookQuery,
+                    email, title, author, loanDate, returnDate);
+            memberRepository.rememberId(email, byTitleResult.memberId(), memberGeneration);
+            bookRepository.rememberId(bookKey, byTitleResult.bookId(), bookGeneration);
+            return byTitleResult;
+        });
+
+        if (result.memberId() == null) {
+            return BorrowOutcome.NOT_A_MEMBER;
+        } else if (result.bookId() == null) {
+            return BorrowOutcome.BOOK_NOT_FOUND;
+        } else if (result.loanResult() == null) {
+            return BorrowOutcome.ALREADY_BORROWED;
+        }
+        bookRepository.markAvailable(result.bookId(), false);
+        return BorrowOutcome.BORROWED;
+    }
+
+    /*
+     * Lends every book in the list to one member and returns one Checkout per book, in the same order.
+     * Books that don't exist or are already borrowed (also earlier in the same list) get their own outcome
+     * and don't stop the others; if the batch itself fails, nothing is lent and the SQLException is thrown.
+     */
+    public List<Checkout> borrowAll(String email, List<BookRepository.BookKey> books, LocalDate loanDate, LocalDate returnDate) throws SQLException {
+        List<Checkout> checkouts = new ArrayList<>(books.size());
+        if (books.isEmpty()) {
+            return checkouts;
+        }
+        long memberGeneration = memberRepository.getIdGeneration();
+        long bookGeneration = bookRepository.getIdGeneration();
+        if (isCachedAsNotFound(memberRepository.getCachedId(email))) {
+            return allNotAMember(books);
+        }
+
+        String[] titles = new String[books.size()];
+        String[] authors = new String[books.size()];
+        for (int i = 0; i < books.size(); i++) {
+            titles[i] = books.get(i).title();
+            authors[i] = books.get(i).author();
+        }
+
+        // The member and every book are resolved by one query, on the same round trip.
+        if (writeBehindQueue != null) {
+            List<MemberAndBookId> ids = queryWithPrimaryRecheck(memberAndBookIdsQuery, MEMBER_AND_BOOK_ID_MAPPER,
+                    id -> id.memberId() == null || id.bookId() == null, email, titles, authors);
+            Integer memberId = ids.get(0).memberId();
+            memberRepository.rememberId(email, memberId, memberGeneration);
+            if (memberId == null) {
+                return allNotAMember(books);
+            }
+
+            for (int i = 0; i < books.size(); i++) {
+                Integer bookId = ids.get(i).bookId();
+                bookRepository.rememberId(books.get(i), bookId, bookGeneration);
+                if (bookId == null) {
+                    checkouts.add(new Checkout(books.get(i), BorrowOutcome.BOOK_NOT_FOUND, null));
+                } else {
+                    writeBehindQueue.enqueueBorrow(memberId, bookId, loanDate, returnDate);
+                    checkouts.add(new Checkout(books.get(i), BorrowOutcome.QUEUED, null));
+                }
+            }
+            return checkouts;
+        }
+
+        List<MemberAndBookId> ids = new ArrayList<>(books.size());
+        List<Integer> loanIds = inTransaction(connection -> {
+            ids.addAll(QueryRunner.queryForList(connection, memberAndBookIdsQuery, MEMBER_AND_BOOK_ID_MAPPER, email, titles, authors));
+            Integer memberId = ids.get(0).memberId();
+            if (memberId == null) {
+                return List.of();
+            }
+
+            List<Object[]> parameterRows = new ArrayList<>(books.size());
+            for (MemberAndBookId id : ids) {
+                if (id.bookId() != null) {
+                    parameterRows.add(new Object[]{id.bookId(), memberId, loanDate, returnDate});
+                }
+            }
+            return QueryRunner.batchInsertReturningKeys(connection, lendBookByIdStatement, "loan_id", parameterRows);
+        });
+
+        memberRepository.rememberId(email, ids.get(0).memberId(), memberGeneration);
+        if (ids.get(0).memberId() == null) {
+            return allNotAMember(books);
+        }
+
+        int lentIndex = 0;
+        for (int i = 0; i < books.size(); i++) {
+            BookRepository.BookKey book = books.get(i);
+            Integer bookId = ids.get(i).bookId();
+            bookRepository.rememberId(book, bookId, bookGeneration);
+
+            if (bookId == null) {
+                checkouts.add(new Checkout(book, BorrowOutcome.BOOK_NOT_FOUND, null));
+                continue;
+            }
+            Integer loanId = loanIds.get(lentIndex++);
+            if (loanId != null) {
+                bookRepository.markAvailable(bookId, false);
+            }
+            checkouts.add(loanId == null
+                    ? new Checkout(book, BorrowOutcome.ALREADY_BORROWED, null)
+                    : new Checkout(book, BorrowOutcome.BORROWED, loanId));
+        }
+        return checkouts;
+    }
+
+    /*
+     * The member's id, the book's id and whether the book is on the shelf, in one round trip, and both ids go
+     * into the lookup caches. As with the single lookups, misses on a replica are checked again on the primary.
+     */
+    public Lookup lookUp(String email, String title, String author) throws SQLException {
+        long memberGeneration = memberRepository.getIdGeneration();
+        long bookGeneration = bookRepository.getIdGeneration();
+        Lookup lookup = queryWithPrimaryRecheck(lookupQuery, LOOKUP_MAPPER,
+                row -> row.memberId() == null || row.bookId() == null, email, title, author).get(0);
+        memberRepository.rememberId(email, lookup.memberId(), memberGeneration);
+        bookRepository.rememberId(new BookRepository.BookKey(title, author), lookup.bookId(), bookGeneration);
+        return lookup;
+    }
+
+    public ReturnOutcome returnBook(String email, String title, String author) throws SQLException {
+        BookRepository.BookKey bookKey = new BookRepository.BookKey(title, author);
+        long memberGeneration = memberRepository.getIdGeneration();
+        long bookGeneration = bookRepository.getIdGeneration();
+        Integer cachedMemberId = memberRepository.getCachedId(email);
+        Integer cachedBookId = bookRepository.getCachedId(bookKey);
+
+        if (isCachedAsNotFound(cachedBookId)) {
+            return ReturnOutcome.BOOK_NOT_FOUND;
+        }
+        if (isCachedAsNotFound(cachedMemberId)) {
+            return ReturnOutcome.NO_SUCH_LOAN;
+        }
+
+        if (writeBehindQueue != null) {
+            Lookup lookup = cachedMemberId != null && cachedBookId != null
+                    ? new Lookup(cachedMemberId, cachedBookId, null)
+                    : lookUp(email, title, author);
+            if (lookup.bookId() == null) {
+                return ReturnOutcome.BOOK_NOT_FOUND;
+            }
+            if (lookup.memberId() == null) {
+                return ReturnOutcome.NO_SUCH_LOAN;
+            }
+            writeBehindQueue.enqueueReturn(lookup.memberId(), lookup.bookId());
+            return ReturnOutcome.QUEUED;
+        }
+
+        LoanStatementResult result = inTransaction(connection -> {
+            if (cachedMemberId != null && cachedBookId != null) {
+                LoanStatementResult byIdResult = executeLoanStatement(connection, returnBookByIdQuery,
+                        cachedBookId, cachedMemberId, cachedMemberId, cachedBookId);
+
+                if (byIdResult.bookId() != null) {
+                    return byIdResult;
+                }
+                bookRepository.forgetId(bookKey);
+            }
+
+            LoanStatementResult byTitleResult = executeLoanStatement(connection, returnBookQuery, email, title, author);
+            memberRepository.rememberId(email, byTitleResult.memberId(), memberGeneration);
+            bookRepository.rememberId(bookKey, byTitleResult.bookId(), bookGeneration);
+            return byTitleResult;
+        });
+
+        if (result.bookId() == null) {
+            return ReturnOutcome.BOOK_NOT_FOUND;
+        } else if (result.loanResult() == 0) {
+            return ReturnOutcome.NO_SUCH_LOAN;
+        }
+        bookRepository.markAvailable(result.bookId(), true);
+        return ReturnOutcome.RETURNED;
+    }
+
+    /*
+     * Streams every loan through a cursor. The stream holds a pooled connection until it is closed.
+     */
+    public Stream<Loan> streamAll(int fetchSize) throws SQLException {
+        return QueryRunner.queryForStream(router.reads(), fetchSize, allLoansQuery, Loan.MAPPER);
+    }
+
+    /*
+     * One page of active loans due on or before dueOnOrBefore (LocalDate.MAX for all of them), earliest due date first,
+     * continuing after lastLoan (null for the first page).
+     * Overdue loans are the ones due on or before yesterday.
+     */
+    public List<ActiveLoan> findActiveLoansPageAfter(ActiveLoan lastLoan, LocalDate dueOnOrBefore, int pageSize) throws SQLException {
+        try (Connection connection = router.getReadConnection()) {
+            return QueryRunner.queryForList(connection, activeLoansPageQuery, ActiveLoan.MAPPER,
+                    dueOnOrBefore, afterReturnDate(lastLoan), afterLoanId(lastLoan), pageSize);
+        }
+    }
+
+    /*
+     * Streams the rest of the active loans after lastLoan through a cursor. The stream holds a pooled connection until it is closed.
+     */
+    public Stream<ActiveLoan> streamActiveLoansAfter(ActiveLoan lastLoan, LocalDate dueOnOrBefore, int fetchSize) throws SQLException {
+        return QueryRunner.queryForStream(router.reads(), fetchSize, remainingActiveLoansQuery, ActiveLoan.MAPPER,
+                dueOnOrBefore, afterReturnDate(lastLoan), afterLoanId(lastLoan));
+    }
+
+    public List<QueryPlanVerifier.HotQuery> hotQueries() {
+        LocalDate today = LocalDate.now();
+        return List.of(
+                new QueryPlanVerifier.HotQuery("borrow by email, title and author", borrowBookQuery,
+                        "someone@example.com", "title", "author", today, today),
+                new QueryPlanVerifier.HotQuery("borrow by ids", borrowBookByIdQuery, 1, 1, today, today, 1, 1),
+                new QueryPlanVerifier.HotQuery("member and book ids by email, titles and authors", memberAndBookIdsQuery,
+                        "someone@example.com", new String[]{"title"}, new String[]{"author"}),
+                new QueryPlanVerifier.HotQuery("member, book and availability", lookupQuery, "someone@example.com", "title", "author"),
+                new QueryPlanVerifier.HotQuery("return by email, title and author", returnBookQuery,
+                        "someone@example.com", "title", "author"),
+                new QueryPlanVerifier.HotQuery("return by ids", returnBookByIdQuery, 1, 1, 1, 1),
+                new QueryPlanVerifier.HotQuery("page of overdue loans", activeLoansPageQuery, today.minusDays(1), LocalDate.MIN, 0, 20));
+    }
+
+    private LoanStatementResult executeLoanStatement(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        return QueryRunner.queryForFirst(connection, sqlQuery, LOAN_STATEMENT_RESULT_MAPPER, parameters).orElseThrow();
+    }
+
+    private <T> List<T> queryWithPrimaryRecheck(String sqlQuery, RowMapper<T> mapper, Predicate<T> isMiss,
+                                                Object... parameters) throws SQLException {
+        try (Connection connection = router.getReadConnection()) {
+            List<T> rows = QueryRunner.queryForList(connection, sqlQuery, mapper, parameters);
+            if (rows.stream().noneMatch(isMiss)) {
+                return rows;
+            }
+        }
+        try (Connection connection = router.getPrimary().getConnection()) {
+            return QueryRunner.queryForList(connection, sqlQuery, mapper, parameters);
+        }
+    }
+
+    private static List<Checkout> allNotAMember(List<BookRepository.BookKey> books) {
+        List<Checkout> checkouts = new ArrayList<>(books.size());
+        for (BookRepository.BookKey book : books) {
+            checkouts.add(new Checkout(book, BorrowOutcome.NOT_A_MEMBER, null));
+        }
+        return checkouts;
+    }
+
+    private <T> T inTransaction(TransactionWork<T> work) throws SQLException {
+        try (Connection connection = router.getWriteConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // LocalDate.MIN is sent as '-infinity', so the first page starts before every loan.
+    private static LocalDate afterReturnDate(ActiveLoan lastLoan) {
+        return lastLoan == null ? LocalDate.MIN : lastLoan.returnDate();
+    }
+
+    private static int afterLoanId(ActiveLoan lastLoan) {
+        return lastLoan == null ? Integer.MIN_VALUE : lastLoan.loanId();
+    }
+
+    private static boolean isCachedAsNotFound(Integer cachedId) {
+        return cachedId != null && cachedId == LookupCache.NOT_FOUND;
+    }
+
+    @FunctionalInterface
+    private interface TransactionWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
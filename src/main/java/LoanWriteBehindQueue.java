@@ -0,0 +1,508 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Write-behind queue for borrows and returns.
+ *
+ * 1) enqueueBorrow()/enqueueReturn() put the change into an in-memory queue of at most capacity entries and return
+ *    right away. When it is full the caller waits (backpressure) for up to enqueueTimeout, then gets an
+ *    SQLTransientException. Room is counted by a Semaphore that is taken before the lock, so each producer waits at
+ *    most one enqueueTimeout, and producers don't queue up behind each other's waits.
+ *    An entry's room is only given back once the entry is written or rejected, not when the flusher takes it.
+ * 2) A background flusher takes up to maxBatchSize entries, waiting at most maxDelay after the first one,
+ *    and writes them as JDBC batches in a single transaction: one commit for the whole group.
+ *    Consecutive entries of the same kind share one batch, so borrows and returns stay in queue order.
+ * 3) The statements keep the synchronous checks: a borrow only inserts a loan if the book is still available,
+ *    and a return only frees the book if a loan was deleted. Entries that match nothing are reported as rejected.
+ * 4) If a group fails with an error of its own (e.g. a constraint violation), it is rolled back and its entries are
+ *    retried one transaction each, so one bad entry doesn't take the rest down with it; that entry is dropped and reported.
+ *    If the database can't be reached, the connection breaks or the transaction is rolled back by the server
+ *    (see ResilientExecutor.classify()), the entries that were not written stay at the head of the queue and are tried
+ *    again with exponential backoff (RETRY_INITIAL_BACKOFF_MILLIS up to RETRY_MAX_BACKOFF_MILLIS). Nothing that was
+ *    accepted is dropped because the database was away.
+ * 5) With a journal file every entry is appended to the journal before it is queued; if that append fails, the entry
+ *    is not queued and enqueue throws, so QUEUED always means journaled. After each commit a checkpoint
+ *    line names the sequences it wrote (C|first|last), so a checkpoint never covers an entry that is still waiting
+ *    for a retry. On startup, the entries no checkpoint covers are written to a new journal that then atomically
+ *    replaces the old one, and queued again: a crash during the replay leaves either journal, and loses nothing.
+ *    The journal is flushed to the OS on every append, so it survives a crash of the program (not of the machine).
+ *    A crash between a commit and its checkpoint replays that group; the conditional statements turn
+ *    most of those replays into no-ops.
+ * 6) close() stops accepting entries and flushes everything that is queued. If the database stays away for longer than
+ *    closeTimeout, the flusher gives up and the unwritten entries stay in the journal for the next start;
+ *    otherwise the journal is truncated.
+ * 7) An optional AvailabilityListener hears about every applied entry after its commit (used to keep the CatalogSnapshot current).
+ */
+public class LoanWriteBehindQueue implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface AvailabilityListener {
+        void bookAvailabilityChanged(int bookId, boolean available);
+    }
+
+    private static final String borrowByIdStatement = """
+            WITH lent_book AS (
+                UPDATE books SET is_available = false
+                WHERE book_id = ? AND is_available
+                RETURNING book_id
+            )
+            INSERT INTO loans (member_id, book_id, loan_date, return_date)
+            SELECT ?, book_id, ?, ?
+            FROM lent_book
+            """;
+
+    private static final String returnByIdStatement = """
+            WITH returned_loan AS (
+                DELETE FROM loans
+                WHERE book_id = ? AND member_id = ?
+                RETURNING book_id
+            )
+            UPDATE books SET is_available = true
+            WHERE book_id IN (SELECT book_id FROM returned_loan)
+            """;
+
+    private static final long RETRY_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 5_000;
+
+    private final ConnectionPool connectionPool;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Semaphore room;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long enqueueTimeoutMillis;
+    private final long closeTimeoutMillis;
+    private final Path journalFile;
+    private final BufferedWriter journal;
+    private final Thread flusher;
+    private long nextSequence = 1;
+    private volatile boolean closed;
+    private volatile long closeDeadline;
+    private volatile int abandonedEntries;
+    private volatile AvailabilityListener availabilityListener;
+
+    private final LongAdder flushedEntries = new LongAdder();
+    private final LongAdder rejectedEntries = new LongAdder();
+    private final LongAdder failedEntries = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder flushRetries = new LongAdder();
+
+    public LoanWriteBehindQueue(ConnectionPool connectionPool, int capacity, int maxBatchSize, Duration maxDelay,
+                                Duration enqueueTimeout, Duration closeTimeout, Path journalFile) throws IOException {
+        this.connectionPool = connectionPool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.enqueueTimeoutMillis = enqueueTimeout.toMillis();
+        this.closeTimeoutMillis = closeTimeout.toMillis();
+        this.journalFile = journalFile;
+
+        List<Entry> unflushedEntries = List.of();
+        if (journalFile != null) {
+            unflushedEntries = readUnflushedEntries(journalFile);
+            rewriteJournal(journalFile, unflushedEntries);
+            for (Entry entry : unflushedEntries) {
+                nextSequence = Math.max(nextSequence, entry.sequence() + 1);
+            }
+            this.journal = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        } else {
+            this.journal = null;
+        }
+        // Replayed entries take their room up front (possibly more than there is), so the constructor never waits.
+        this.room = new Semaphore(capacity - unflushedEntries.size(), true);
+        queue.addAll(unflushedEntries);
+
+        this.flusher = new Thread(this::runFlusher, "loan-write-behind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        if (!unflushedEntries.isEmpty()) {
+            System.out.println("📒 Replaying " + unflushedEntries.size() + " unflushed loan changes from " + journalFile);
+        }
+    }
+
+    public void enqueueBorrow(int memberId, int bookId, LocalDate loanDate, LocalDate returnDate) throws SQLException {
+        enqueue(new Entry(0, EntryType.BORROW, memberId, bookId, loanDate, returnDate));
+    }
+
+    public void enqueueReturn(int memberId, int bookId) throws SQLException {
+        enqueue(new Entry(0, EntryType.RETURN, memberId, bookId, null, null));
+    }
+
+    public void setAvailabilityListener(AvailabilityListener availabilityListener) {
+        this.availabilityListener = availabilityListener;
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() {
+        closeDeadline = System.currentTimeMillis() + closeTimeoutMillis;
+        closed = true;
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (journal != null) {
+            try {
+                synchronized (this) {
+                    journal.close();
+                }
+                if (abandonedEntries == 0 && queue.isEmpty()) {
+                    Files.writeString(journalFile, "", StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+                } else {
+                    System.out.println("📒 " + (abandonedEntries + queue.size()) + " loan changes could not be written;"
+                            + " they stay in " + journalFile + " and are replayed at the next start.");
+                }
+            } catch (IOException e) {
+                System.out.println("Could not close the loan journal: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Write-behind: queued=%d, flushed=%d, rejected=%d, failed=%d, commits=%d (%.1f entries per commit), flush retries=%d",
+                queue.size(), flushedEntries.sum(), rejectedEntries.sum(), failedEntries.sum(), commits.sum(),
+                commits.sum() == 0 ? 0.0 : (double) (flushedEntries.sum() + rejectedEntries.sum()) / commits.sum(),
+                flushRetries.sum());
+    }
+
+    private void enqueue(Entry entry) throws SQLException {
+        if (closed) {
+            throw new SQLException("The write-behind queue is closed.");
+        }
+
+        // Waiting for room happens outside the lock, so one full-queue wait doesn't hold up every other producer.
+        try {
+            if (!room.tryAcquire(enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientException("The write-behind queue stayed full for " + enqueueTimeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for room in the write-behind queue.", e);
+        }
+
+        // The journal and the queue must see entries in the same order; with room taken, add() never waits.
+        synchronized (this) {
+            if (closed) {
+                room.release();
+                throw new SQLException("The write-behind queue is closed.");
+            }
+            Entry sequencedEntry = entry.withSequence(nextSequence++);
+            try {
+                appendToJournal(sequencedEntry.toJournalLine());
+            } catch (IOException e) {
+                // Queuing it anyway would answer QUEUED for a change a crash could lose.
+                room.release();
+                throw new SQLException("The loan change was not queued: the loan journal can't be written (" + e.getMessage() + ").", e);
+            }
+            queue.add(sequencedEntry);
+        }
+    }
+
+    private void runFlusher() {
+        List<Entry> group = new ArrayList<>(maxBatchSize);
+        long backoffMillis = RETRY_INITIAL_BACKOFF_MILLIS;
+        boolean outageReported = false;
+
+        while (!group.isEmpty() || !closed || !queue.isEmpty()) {
+            // A group that could not be written is kept and tried again before anything newer.
+            if (group.isEmpty()) {
+                try {
+                    // Short polls, so close() is noticed quickly; the flusher is never interrupted in the middle of a flush.
+                    Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    group.add(first);
+                    collectGroup(group);
+                } catch (InterruptedException e) {
+                    queue.drainTo(group, maxBatchSize - group.size());
+                }
+            }
+            if (group.isEmpty()) {
+                continue;
+            }
+
+            try {
+                flush(group);
+                backoffMillis = RETRY_INITIAL_BACKOFF_MILLIS;
+                if (outageReported) {
+                    outageReported = false;
+                    System.out.println("✅ Queued loan changes are being written again.");
+                }
+            } catch (SQLException e) {
+                if (!outageReported) {
+                    outageReported = true;
+                    System.out.println("🚨 Could not write " + group.size() + " queued loan changes, retrying: " + e.getMessage());
+                }
+                if (closed && System.currentTimeMillis() + backoffMillis > closeDeadline) {
+                    abandonedEntries = group.size();
+                    return;
+                }
+                flushRetries.increment();
+                sleep(backoffMillis);
+                backoffMillis = Math.min(RETRY_MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            }
+        }
+    }
+
+    private void collectGroup(List<Entry> group) throws InterruptedException {
+        long deadline = System.nanoTime() + maxDelayNanos;
+
+        while (group.size() < maxBatchSize) {
+            queue.drainTo(group, maxBatchSize - group.size());
+            long remainingNanos = deadline - System.nanoTime();
+            if (group.size() >= maxBatchSize || remainingNanos <= 0 || closed) {
+                return;
+            }
+
+            Entry next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    /*
+     * Writes the group and removes every entry that is done with (written, rejected or dropped) from it.
+     * Throws if the database couldn't be reached or rolled the work back; the entries left in the group were not written.
+     */
+    private void flush(List<Entry> group) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                int[] updateCounts = executeInOrder(connection, group);
+                connection.commit();
+                commits.increment();
+                checkpoint(group);
+                recordOutcomes(group, updateCounts);
+                finish(group.size());
+                group.clear();
+            } catch (SQLException e) {
+                connection.rollback();
+                if (isWorthRetrying(e)) {
+                    throw e;
+                }
+                flushOneByOne(connection, group);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Anything but the entries' own fault: no connection, a broken one, a timeout, a serialization failure or deadlock.
+    private static boolean isWorthRetrying(SQLException e) {
+        return ResilientExecutor.classify(e) != ResilientExecutor.Failure.FATAL;
+    }
+
+    // C|first|last: the entries of one commit. Whatever lies between them in the journal was already committed or dropped.
+    private void checkpoint(List<Entry> committed) {
+        appendMarker("C|" + committed.get(0).sequence() + "|" + committed.get(committed.size() - 1).sequence());
+    }
+
+    private void finish(int entries) {
+        room.release(entries);
+    }
+
+    // Runs of consecutive borrows or returns go out as one batch each, so the queue order is kept.
+    private int[] executeInOrder(Connection connection, List<Entry> entries) throws SQLException {
+        int[] updateCounts = new int[entries.size()];
+        int runStart = 0;
+
+        while (runStart < entries.size()) {
+            EntryType type = entries.get(runStart).type();
+            int runEnd = runStart;
+            while (runEnd < entries.size() && entries.get(runEnd).type() == type) {
+                runEnd++;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    type == EntryType.BORROW ? borrowByIdStatement : returnByIdStatement)) {
+                for (int i = runStart; i < runEnd; i++) {
+                    entries.get(i).bind(statement);
+                    statement.addBatch();
+                }
+                int[] runCounts = statement.executeBatch();
+                System.arraycopy(runCounts, 0, updateCounts, runStart, runCounts.length);
+            }
+            runStart = runEnd;
+        }
+        return updateCounts;
+    }
+
+    // Entries leave the group as they are done with, so a retry after a lost connection starts at the first unwritten one.
+    private void flushOneByOne(Connection connection, List<Entry> group) throws SQLException {
+        while (!group.isEmpty()) {
+            List<Entry> entry = List.of(group.get(0));
+            try {
+                int[] updateCount = executeInOrder(connection, entry);
+                connection.commit();
+                commits.increment();
+                checkpoint(entry);
+                recordOutcomes(entry, updateCount);
+            } catch (SQLException e) {
+                connection.rollback();
+                if (isWorthRetrying(e)) {
+                    throw e;
+                }
+                // The entry itself is wrong (e.g. the member was deleted meanwhile): it would fail every time.
+                failedEntries.increment();
+                appendMarker("X|" + entry.get(0).sequence());
+                System.out.println("🚨 Queued " + entry.get(0).describe() + " failed and was dropped: " + e.getMessage());
+            }
+            group.remove(0);
+            finish(1);
+        }
+    }
+
+    private void recordOutcomes(List<Entry> entries, int[] updateCounts) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (updateCounts[i] == 0) {
+                rejectedEntries.increment();
+                String reason = entries.get(i).type() == EntryType.BORROW ? "the book was already borrowed" : "there was no such loan";
+                System.out.println("⚠️ Queued " + entries.get(i).describe() + " was not applied: " + reason + ".");
+            } else {
+                flushedEntries.increment();
+                AvailabilityListener listener = availabilityListener;
+                if (listener != null) {
+                    listener.bookAvailabilityChanged(entries.get(i).bookId(), entries.get(i).type() == EntryType.RETURN);
+                }
+            }
+        }
+    }
+
+    private synchronized void appendToJournal(String line) throws IOException {
+        if (journal == null) {
+            return;
+        }
+
+        journal.write(line);
+        journal.newLine();
+        journal.flush();
+    }
+
+    // A lost checkpoint or drop marker only means the entries are replayed, where the conditional statements skip them.
+    private void appendMarker(String line) {
+        try {
+            appendToJournal(line);
+        } catch (IOException e) {
+            System.out.println("Could not write to the loan journal: " + e.getMessage());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * The entries of the journal that no checkpoint covers, in journal order.
+     * C|first|last covers first..last, X|sequence drops one entry.
+     */
+    static List<Entry> readUnflushedEntries(Path journalFile) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(journalFile)) {
+            return entries;
+        }
+
+        for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (line.startsWith("C|")) {
+                String[] fields = line.split("\\|");
+                long first = Long.parseLong(fields[1]);
+                long last = Long.parseLong(fields[2]);
+                entries.removeIf(entry -> entry.sequence() >= first && entry.sequence() <= last);
+            } else if (line.startsWith("X|")) {
+                long cancelledSequence = Long.parseLong(line.substring(2));
+                entries.removeIf(entry -> entry.sequence() == cancelledSequence);
+            } else {
+                entries.add(Entry.fromJournalLine(line));
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * Replaces the journal with one that holds just the given entries. The new journal is written next to the old one
+     * and then moved over it, so a crash at any point leaves a complete journal: the old one or the new one.
+     */
+    static void rewriteJournal(Path journalFile, List<Entry> entries) throws IOException {
+        Path newJournalFile = journalFile.resolveSibling(journalFile.getFileName() + ".new");
+        List<String> lines = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            lines.add(entry.toJournalLine());
+        }
+
+        Files.write(newJournalFile, lines, StandardCharsets.UTF_8);
+        Files.move(newJournalFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    enum EntryType {
+        BORROW, RETURN
+    }
+
+    record Entry(long sequence, EntryType type, int memberId, int bookId, LocalDate loanDate, LocalDate returnDate) {
+
+        private Entry withSequence(long newSequence) {
+            return new Entry(newSequence, type, memberId, bookId, loanDate, returnDate);
+        }
+
+        private void bind(PreparedStatement statement) throws SQLException {
+            statement.setInt(1, bookId);
+            statement.setInt(2, memberId);
+            if (type == EntryType.BORROW) {
+                statement.setObject(3, loanDate);
+                statement.setObject(4, returnDate);
+            }
+        }
+
+        private String describe() {
+            return (type == EntryType.BORROW ? "borrow" : "return") + " of book " + bookId + " by member " + memberId;
+        }
+
+        // B|sequence|memberId|bookId|loanDate|returnDate or R|sequence|memberId|bookId
+        String toJournalLine() {
+            return type == EntryType.BORROW
+                    ? "B|" + sequence + "|" + memberId + "|" + bookId + "|" + loanDate + "|" + returnDate
+                    : "R|" + sequence + "|" + memberId + "|" + bookId;
+        }
+
+        static Entry fromJournalLine(String line) {
+            String[] fields = line.split("\\|");
+            EntryType type = fields[0].equals("B") ? EntryType.BORROW : EntryType.RETURN;
+            return new Entry(Long.parseLong(fields[1]), type, Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    type == EntryType.BORROW ? LocalDate.parse(fields[4]) : null,
+                    type == EntryType.BORROW ? LocalDate.parse(fields[5]) : null);
+        }
+    }
+}
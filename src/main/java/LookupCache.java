@@ -0,0 +1,150 @@
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded, TTL-based read-through cache for "key -> id" lookups (member by email, book by title and author).
+ *
+ * 1) get() returns the cached id, or calls the loader on a miss and remembers what it returned.
+ * 2) "Not found" (NOT_FOUND) is cached too, so repeated lookups of unknown keys don't hit the database either.
+ * 3) Entries expire after ttl, and the least recently used entry is dropped once maxSize is reached.
+ * 4) Write paths call invalidate() for the keys they change.
+ * 5) Every invalidation (and every put() of a freshly written id) moves a generation counter. A load that started
+ *    before that may have read the old row, so its answer is returned but not cached; otherwise a stale id
+ *    (or a stale "not found") loaded while invalidate() ran would be written back after it and kept for the whole ttl.
+ *    Callers that look ids up themselves take generation() before their query and pass it to putIfUnchanged().
+ */
+public class LookupCache<K> {
+    public static final int NOT_FOUND = -1;
+
+    @FunctionalInterface
+    public interface Loader<K> {
+        int load(K key) throws SQLException;
+    }
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry> entries;
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder discardedLoads = new LongAdder();
+
+    public LookupCache(String name, int maxSize, Duration ttl) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+                if (size() <= LookupCache.this.maxSize) {
+                    return false;
+                }
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public int get(K key, Loader<K> loader) throws SQLException {
+        long loadGeneration = generation();
+        Integer cachedId = getIfPresent(key);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        // Load outside the lock: a slow query must not block lookups of other keys.
+        int id = loader.load(key);
+        putIfUnchanged(key, id, loadGeneration);
+        return id;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized Integer getIfPresent(K key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+            entries.remove(key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (entry.id == NOT_FOUND) {
+            negativeHits.increment();
+        }
+        return entry.id;
+    }
+
+    /*
+     * Caches what a lookup that started at loadGeneration found, unless something was invalidated since.
+     * Returns whether the entry was stored.
+     */
+    public synchronized boolean putIfUnchanged(K key, int id, long loadGeneration) {
+        if (generation != loadGeneration) {
+            discardedLoads.increment();
+            return false;
+        }
+        entries.put(key, new Entry(id, System.nanoTime()));
+        return true;
+    }
+
+    // For an id the caller has just written. Moves the generation too, so a lookup that started earlier can't overwrite it.
+    public synchronized void put(K key, int id) {
+        generation++;
+        entries.put(key, new Entry(id, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: size=%d, hits=%d (negative %d), misses=%d, evictions=%d, expirations=%d, discarded loads=%d, hit ratio=%.1f%%",
+                name, size(), getHits(), negativeHits.sum(), getMisses(), evictions.sum(), expirations.sum(),
+                discardedLoads.sum(), getHitRatio() * 100);
+    }
+
+    private record Entry(int id, long loadedAt) {
+    }
+}
@@ -0,0 +1,12 @@
+/*
+ * One row of the members table.
+ */
+public record Member(int id, String name, String email) {
+    public static final RowMapper<Member> MAPPER = resultSet -> {
+        int idColumn = resultSet.findColumn("member_id");
+        int nameColumn = resultSet.findColumn("name");
+        int emailColumn = resultSet.findColumn("email");
+
+        return row -> new Member(row.getInt(idColumn), row.getString(nameColumn), row.getString(emailColumn));
+    };
+}
@@ -0,0 +1,172 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/*
+ * All SQL that touches the members table.
+ *
+ * Lookups of a member id by email go through a LookupCache, and registering a member invalidates it.
+ *
+ * registerAll() registers a whole list in one JDBC batch and one transaction, and reports per member whether it was added.
+ * members.email is unique (V8__unique_member_email.sql), and both register() and registerAll() insert with
+ * ON CONFLICT (email) DO NOTHING: an email that is already registered, even by a concurrent transaction,
+ * inserts nothing instead of failing the batch.
+ */
+public class MemberRepository {
+    private static final String insertMemberQuery = "INSERT INTO members (name, email) VALUES (?, ?) ON CONFLICT (email) DO NOTHING";
+    // INSERT ... SELECT keeps the driver from rewriting the batch into one multi-row INSERT, which would lose the per-row counts.
+    private static final String insertNewMemberQuery =
+            "INSERT INTO members (name, email) SELECT ?, ? ON CONFLICT (email) DO NOTHING";
+    private static final String findIdQuery = "SELECT member_id FROM members WHERE email = ? ORDER BY member_id LIMIT 1";
+    private static final String allMembersQuery = "SELECT member_id, name, email FROM members ORDER BY member_id";
+
+    private static final RowMapper<Integer> MEMBER_ID_MAPPER = resultSet -> row -> row.getInt(1);
+
+    public record NewMember(String name, String email) {
+    }
+
+    public enum RegistrationOutcome {
+        REGISTERED, ALREADY_REGISTERED, INVALID
+    }
+
+    // memberId is only set when the member was REGISTERED.
+    public record Registration(NewMember member, RegistrationOutcome outcome, Integer memberId) {
+    }
+
+    private final ReadWriteRouter router;
+    private final LookupCache<String> idCache;
+
+    public MemberRepository(ConnectionPool connectionPool, int lookupCacheSize, Duration lookupCacheTtl) {
+        this(new ReadWriteRouter(connectionPool), lookupCacheSize, lookupCacheTtl);
+    }
+
+    public MemberRepository(ReadWriteRouter router, int lookupCacheSize, Duration lookupCacheTtl) {
+        this.router = router;
+        this.idCache = new LookupCache<>("member by email", lookupCacheSize, lookupCacheTtl);
+    }
+
+    // Returns 0 when the email is already registered.
+    public int register(String name, String email) throws SQLException {
+        try (Connection connection = router.getWriteConnection()) {
+            int insertedRows = QueryRunner.update(connection, insertMemberQuery, name, email);
+            idCache.invalidate(email);
+            return insertedRows;
+        }
+    }
+
+    /*
+     * Registers every member in one batch, in list order, and returns one Registration per member in the same order.
+     * Members without a name or with an email that has no '@' are INVALID and never sent;
+     * an email that is already registered (also earlier in the same list) is ALREADY_REGISTERED.
+     * If the batch fails, nothing is registered and the SQLException is thrown.
+     */
+    public List<Registration> registerAll(List<NewMember> members) throws SQLException {
+        List<NewMember> validMembers = new ArrayList<>(members.size());
+        List<Object[]> parameterRows = new ArrayList<>(members.size());
+        for (NewMember member : members) {
+            if (isValid(member)) {
+                validMembers.add(member);
+                parameterRows.add(new Object[]{member.name(), member.email()});
+            }
+        }
+
+        List<Integer> memberIds;
+        try (Connection connection = router.getWriteConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                memberIds = QueryRunner.batchInsertReturningKeys(connection, insertNewMemberQuery, "member_id", parameterRows);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        List<Registration> registrations = new ArrayList<>(members.size());
+        int validIndex = 0;
+        for (NewMember member : members) {
+            if (!isValid(member)) {
+                registrations.add(new Registration(member, RegistrationOutcome.INVALID, null));
+                continue;
+            }
+
+            Integer memberId = memberIds.get(validIndex++);
+            if (memberId == null) {
+                // The member exists after all, so a cached "not found" for this email is stale.
+                idCache.invalidate(member.email());
+                registrations.add(new Registration(member, RegistrationOutcome.ALREADY_REGISTERED, null));
+            } else {
+                idCache.put(member.email(), memberId);
+                registrations.add(new Registration(member, RegistrationOutcome.REGISTERED, memberId));
+            }
+        }
+        return registrations;
+    }
+
+    /*
+     * Returns the member id, or LookupCache.NOT_FOUND.
+     * As in BookRepository, a miss on the replica is checked again on the primary before it gets cached.
+     */
+    public int findIdByEmail(String email) throws SQLException {
+        return idCache.get(email, key -> {
+            try (Connection connection = router.getReadConnection()) {
+                Optional<Integer> memberId = QueryRunner.queryForFirst(connection, findIdQuery, MEMBER_ID_MAPPER, key);
+                if (memberId.isPresent()) {
+                    return memberId.get();
+                }
+            }
+            try (Connection connection = router.getPrimary().getConnection()) {
+                return QueryRunner.queryForFirst(connection, findIdQuery, MEMBER_ID_MAPPER, key)
+                        .orElse(LookupCache.NOT_FOUND);
+            }
+        });
+    }
+
+    /*
+     * Streams every member through a cursor. The stream holds a pooled connection until it is closed.
+     */
+    public Stream<Member> streamAll(int fetchSize) throws SQLException {
+        return QueryRunner.queryForStream(router.reads(), fetchSize, allMembersQuery, Member.MAPPER);
+    }
+
+    public List<QueryPlanVerifier.HotQuery> hotQueries() {
+        return List.of(new QueryPlanVerifier.HotQuery("member id by email", findIdQuery, "someone@example.com"));
+    }
+
+    public Integer getCachedId(String email) {
+        return idCache.getIfPresent(email);
+    }
+
+    // lookupGeneration is getIdGeneration() from before the query that found memberId.
+    public void rememberId(String email, Integer memberId, long lookupGeneration) {
+        idCache.putIfUnchanged(email, memberId == null ? LookupCache.NOT_FOUND : memberId, lookupGeneration);
+    }
+
+    public long getIdGeneration() {
+        return idCache.generation();
+    }
+
+    public void forgetId(String email) {
+        idCache.invalidate(email);
+    }
+
+    public void forgetAllIds() {
+        idCache.invalidateAll();
+    }
+
+    public LookupCache<String> getIdCache() {
+        return idCache;
+    }
+
+    private static boolean isValid(NewMember member) {
+        return member.name() != null && !member.name().isBlank()
+                && member.email() != null && member.email().indexOf('@') > 0;
+    }
+}
@@ -0,0 +1,204 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Background job that queues a notice in the overdue_notices outbox for every loan past its due date.
+ *
+ * 1) Overdue loans are read from the active_loans read model through its (return_date, loan_id) index, chunkSize
+ *    at a time, starting after the position saved in job_checkpoints.
+ * 2) Each chunk is one INSERT ... SELECT that also moves the checkpoint, so the notices and the new position commit
+ *    together: after a restart the job resumes after the last committed chunk, and nothing is queued twice
+ *    (the unique (loan_id, due_date) of the outbox backs that up).
+ * 3) Every chunk is its own short transaction that locks only the job's checkpoint row and writes only to the outbox.
+ *    Loans and books are just read, so borrows and returns never wait for the job.
+ * 4) The checkpoint row is taken with FOR UPDATE SKIP LOCKED: while another instance runs the job, this one skips its run.
+ * 5) start() schedules the runs: the first one INITIAL_DELAY after it, so it doesn't compete with the startup work
+ *    (warming the pool, loading the caches), then one every interval. Each run reports the rows it handled per second.
+ *
+ * Loans only become overdue after they were written, so they always sort after the checkpoint.
+ * A loan entered with a due date that has already passed sorts before it and gets no notice.
+ */
+public class OverdueLoanJob implements AutoCloseable {
+    private static final String JOB_NAME = "overdue-notices";
+    private static final Duration INITIAL_DELAY = Duration.ofSeconds(30);
+
+    private static final String createCheckpointStatement =
+            "INSERT INTO job_checkpoints (job_name) VALUES (?) ON CONFLICT (job_name) DO NOTHING";
+    private static final String lockCheckpointQuery =
+            "SELECT job_name FROM job_checkpoints WHERE job_name = ? FOR UPDATE SKIP LOCKED";
+
+    private static final String queueChunkStatement = """
+            WITH chunk AS (
+                SELECT overdue.loan_id, overdue.book_id, overdue.member_id, overdue.return_date
+                FROM job_checkpoints checkpoint
+                CROSS JOIN LATERAL (
+                    SELECT loan_id, book_id, member_id, return_date
+                    FROM active_loans
+                    WHERE return_date < ? AND (return_date, loan_id) > (checkpoint.last_due_date, checkpoint.last_loan_id)
+                    ORDER BY return_date, loan_id
+                    LIMIT ?
+                ) overdue
+                WHERE checkpoint.job_name = ?
+            ), queued AS (
+                INSERT INTO overdue_notices (loan_id, book_id, member_id, due_date)
+                SELECT loan_id, book_id, member_id, return_date FROM chunk
+                ON CONFLICT (loan_id, due_date) DO NOTHING
+                RETURNING loan_id
+            ), moved_checkpoint AS (
+                UPDATE job_checkpoints
+                SET last_due_date = last_loan.return_date, last_loan_id = last_loan.loan_id,
+                    rows_processed = rows_processed + (SELECT count(*) FROM chunk), updated_at = now()
+                FROM (SELECT return_date, loan_id FROM chunk ORDER BY return_date DESC, loan_id DESC LIMIT 1) last_loan
+                WHERE job_name = ?
+                RETURNING job_name
+            )
+            SELECT (SELECT count(*) FROM chunk) AS overdue_loans, (SELECT count(*) FROM queued) AS queued_notices
+            """;
+
+    private static final RowMapper<String> JOB_NAME_MAPPER = resultSet -> row -> row.getString(1);
+    private static final RowMapper<ChunkResult> CHUNK_RESULT_MAPPER =
+            resultSet -> row -> new ChunkResult(row.getInt(1), row.getInt(2));
+
+    public record RunResult(long overdueLoans, long queuedNotices, long chunks, long elapsedMillis, boolean skipped) {
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? overdueLoans * 1000 : overdueLoans * 1000 / elapsedMillis;
+        }
+    }
+
+    private record ChunkResult(int overdueLoans, int queuedNotices) {
+    }
+
+    private final ConnectionPool connectionPool;
+    private final int chunkSize;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private long runs;
+    private long skippedRuns;
+    private long totalOverdueLoans;
+    private long totalQueuedNotices;
+    private RunResult lastRun;
+
+    public OverdueLoanJob(ConnectionPool connectionPool, int chunkSize, Duration interval) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be at least 1.");
+        }
+        this.connectionPool = connectionPool;
+        this.chunkSize = chunkSize;
+        this.intervalMillis = interval.toMillis();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-loan-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runScheduled, INITIAL_DELAY.toMillis(), intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Queues notices for every loan due before today that the job hasn't handled yet.
+     */
+    public RunResult runOnce(LocalDate today) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+        long overdueLoans = 0;
+        long queuedNotices = 0;
+        long chunks = 0;
+
+        try (Connection connection = connectionPool.getConnection()) {
+            QueryRunner.update(connection, createCheckpointStatement, JOB_NAME);
+        }
+
+        while (true) {
+            ChunkResult chunk = queueChunk(today);
+            if (chunk == null) {
+                RunResult result = new RunResult(overdueLoans, queuedNotices, chunks, System.currentTimeMillis() - startedAt, true);
+                record(result);
+                return result;
+            }
+            overdueLoans += chunk.overdueLoans();
+            queuedNotices += chunk.queuedNotices();
+            chunks++;
+
+            if (chunk.overdueLoans() < chunkSize) {
+                RunResult result = new RunResult(overdueLoans, queuedNotices, chunks, System.currentTimeMillis() - startedAt, false);
+                record(result);
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        String summary = "Overdue job: " + runs + " runs (" + skippedRuns + " skipped), " + totalOverdueLoans
+                + " overdue loans handled, " + totalQueuedNotices + " notices queued";
+        if (lastRun == null) {
+            return summary;
+        }
+        return summary + "; last run " + lastRun.overdueLoans() + " rows in " + lastRun.chunks() + " chunks, "
+                + lastRun.elapsedMillis() + " ms (" + lastRun.rowsPerSecond() + " rows/s)";
+    }
+
+    // One short transaction; returns null when another instance holds the checkpoint.
+    private ChunkResult queueChunk(LocalDate today) throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                if (QueryRunner.queryForFirst(connection, lockCheckpointQuery, JOB_NAME_MAPPER, JOB_NAME).isEmpty()) {
+                    connection.rollback();
+                    return null;
+                }
+                ChunkResult chunk = QueryRunner.queryForFirst(connection, queueChunkStatement, CHUNK_RESULT_MAPPER,
+                        today, chunkSize, JOB_NAME, JOB_NAME).orElseThrow();
+                connection.commit();
+                return chunk;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private synchronized void record(RunResult result) {
+        runs++;
+        if (result.skipped()) {
+            skippedRuns++;
+        }
+        totalOverdueLoans += result.overdueLoans();
+        totalQueuedNotices += result.queuedNotices();
+        lastRun = result;
+    }
+
+    // A failed run is reported and tried again at the next interval, from the last committed chunk.
+    private void runScheduled() {
+        try {
+            RunResult result = runOnce(LocalDate.now());
+            if (result.overdueLoans() > 0) {
+                System.out.println("⏰ Overdue job: " + result.overdueLoans() + " overdue loans, " + result.queuedNotices()
+                        + " notices queued in " + result.elapsedMillis() + " ms (" + result.rowsPerSecond() + " rows/s).");
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("⚠️ Overdue job failed (it resumes at the next run): " + e.getMessage());
+        }
+    }
+}
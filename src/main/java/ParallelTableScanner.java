@@ -0,0 +1,229 @@
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.stream.Collector;
+
+/*
+ * Reads a whole table with several connections at once, split into primary-key ranges.
+ *
+ * 1) The key range [min, max] is cut into equal partitions. Their number follows the table size
+ *    (about rowsPerPartition rows each, from the planner's row estimate), between 1 and 4 x parallelism,
+ *    so small tables stay a single query and uneven key distributions still keep every worker busy.
+ * 2) Each partition runs on its own virtual thread with its own pooled connection; at most parallelism run at a time.
+ * 3) On PostgreSQL every partition reads the same snapshot (pg_export_snapshot, as pg_dump -j does),
+ *    so the result is as consistent as one big SELECT even while the table is being written to.
+ * 4) Rows are fed to a Collector: each partition accumulates on its own, and the partial results are combined
+ *    in key order, so Collectors.toList() returns the rows ordered by key and aggregates need no locking.
+ *
+ * All connections must come from the same server (the snapshot only exists there): use a pool, not a router.
+ */
+public class ParallelTableScanner {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    public record ScanResult<R>(R result, long rows, int partitions, long elapsedMillis) {
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+    }
+
+    private record Partition(long fromKey, long toKey) {
+    }
+
+    private final ConnectionSource connectionSource;
+    private final int parallelism;
+    private final long rowsPerPartition;
+    private final int fetchSize;
+
+    public ParallelTableScanner(ConnectionSource connectionSource, int parallelism, long rowsPerPartition, int fetchSize) {
+        if (parallelism < 1 || rowsPerPartition < 1 || fetchSize < 1) {
+            throw new IllegalArgumentException("Parallelism, rows per partition and fetch size must be at least 1.");
+        }
+        this.connectionSource = connectionSource;
+        this.parallelism = parallelism;
+        this.rowsPerPartition = rowsPerPartition;
+        this.fetchSize = fetchSize;
+    }
+
+    /*
+     * Scans columns (a select list, e.g. "book_id, title") of table, partitioned on the integer keyColumn.
+     */
+    public <T, A, R> ScanResult<R> scan(String table, String keyColumn, String columns, RowMapper<T> mapper,
+                                        Collector<T, A, R> collector) throws SQLException {
+        requireIdentifier(table);
+        requireIdentifier(keyColumn);
+        long startedAt = System.currentTimeMillis();
+
+        // The coordinator's transaction keeps the exported snapshot alive until every partition has started reading.
+        try (Connection coordinator = connectionSource.getConnection()) {
+            coordinator.setAutoCommit(false);
+            try {
+                String snapshot = null;
+                if (coordinator.isWrapperFor(PGConnection.class)) {
+                    try (Statement statement = coordinator.createStatement()) {
+                        statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                        try (ResultSet resultSet = statement.executeQuery("SELECT pg_export_snapshot()")) {
+                            resultSet.next();
+                            snapshot = resultSet.getString(1);
+                        }
+                    }
+                }
+
+                List<Partition> partitions = plan(coordinator, table, keyColumn);
+                String sqlQuery = "SELECT " + columns + " FROM " + table
+                        + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " <= ? ORDER BY " + keyColumn;
+                List<PartialResult<A>> partialResults = scanPartitions(partitions, sqlQuery, snapshot, mapper, collector);
+
+                long rows = 0;
+                A combined = null;
+                for (PartialResult<A> partialResult : partialResults) {
+                    rows += partialResult.rows();
+                    combined = combined == null ? partialResult.container() : collector.combiner().apply(combined, partialResult.container());
+                }
+                if (combined == null) {
+                    combined = collector.supplier().get();
+                }
+                return new ScanResult<>(collector.finisher().apply(combined), rows, partitions.size(),
+                        System.currentTimeMillis() - startedAt);
+            } finally {
+                coordinator.rollback();
+                coordinator.setAutoCommit(true);
+            }
+        }
+    }
+
+    private List<Partition> plan(Connection connection, String table, String keyColumn) throws SQLException {
+        long minKey;
+        long maxKey;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT min(" + keyColumn + "), max(" + keyColumn + ") FROM " + table)) {
+            resultSet.next();
+            minKey = resultSet.getLong(1);
+            if (resultSet.wasNull()) {
+                return List.of();
+            }
+            maxKey = resultSet.getLong(2);
+        }
+
+        long keySpan = maxKey - minKey + 1;
+        long estimatedRows = estimateRows(connection, table, keySpan);
+        int partitionCount = (int) Math.max(1, Math.min((long) parallelism * PARTITIONS_PER_WORKER,
+                Math.min(keySpan, (estimatedRows + rowsPerPartition - 1) / rowsPerPartition)));
+
+        List<Partition> partitions = new ArrayList<>(partitionCount);
+        long partitionSpan = keySpan / partitionCount;
+        long fromKey = minKey;
+        for (int i = 0; i < partitionCount; i++) {
+            long toKey = i == partitionCount - 1 ? maxKey : fromKey + partitionSpan - 1;
+            partitions.add(new Partition(fromKey, toKey));
+            fromKey = toKey + 1;
+        }
+        return partitions;
+    }
+
+    // The planner's estimate costs nothing; a table that was never analyzed has none, so the key span stands in.
+    private static long estimateRows(Connection connection, String table, long keySpan) throws SQLException {
+        if (!connection.isWrapperFor(PGConnection.class)) {
+            return keySpan;
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT reltuples::bigint FROM pg_class WHERE oid = ?::regclass")) {
+            preparedStatement.setString(1, table);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                long estimate = resultSet.next() ? resultSet.getLong(1) : -1;
+                return estimate > 0 ? estimate : keySpan;
+            }
+        }
+    }
+
+    private <T, A> List<PartialResult<A>> scanPartitions(List<Partition> partitions, String sqlQuery, String snapshot,
+                                                         RowMapper<T> mapper, Collector<T, A, ?> collector) throws SQLException {
+        Semaphore workers = new Semaphore(parallelism);
+        List<Future<PartialResult<A>>> futures = new ArrayList<>(partitions.size());
+        List<PartialResult<A>> partialResults = new ArrayList<>(partitions.size());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Partition partition : partitions) {
+                futures.add(executor.submit(() -> {
+                    workers.acquire();
+                    try {
+                        return scanPartition(partition, sqlQuery, snapshot, mapper, collector);
+                    } finally {
+                        workers.release();
+                    }
+                }));
+            }
+
+            for (Future<PartialResult<A>> future : futures) {
+                partialResults.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Partition scan failed: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while scanning partitions.", e);
+        }
+        return partialResults;
+    }
+
+    private <T, A> PartialResult<A> scanPartition(Partition partition, String sqlQuery, String snapshot,
+                                                  RowMapper<T> mapper, Collector<T, A, ?> collector) throws SQLException {
+        A container = collector.supplier().get();
+        long rows = 0;
+
+        try (Connection connection = connectionSource.getConnection()) {
+            // A transaction is needed anyway: PostgreSQL only honours the fetch size inside one.
+            connection.setAutoCommit(false);
+            try {
+                if (snapshot != null) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                        statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+                    }
+                }
+
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
+                    preparedStatement.setFetchSize(fetchSize);
+                    preparedStatement.setLong(1, partition.fromKey());
+                    preparedStatement.setLong(2, partition.toKey());
+
+                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                        RowMapper.RowReader<T> rowReader = mapper.forResultSet(resultSet);
+                        while (resultSet.next()) {
+                            collector.accumulator().accept(container, rowReader.read(resultSet));
+                            rows++;
+                        }
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+        return new PartialResult<>(container, rows);
+    }
+
+    private static void requireIdentifier(String name) {
+        if (!IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Not a plain table or column name: " + name);
+        }
+    }
+
+    private record PartialResult<A>(A container, long rows) {
+    }
+}
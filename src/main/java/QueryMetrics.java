@@ -0,0 +1,448 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Measures every statement that runs through an instrumented Connection.
+ *
+ * 1) instrument(connection) wraps the Connection; its Statements/PreparedStatements and their ResultSets are wrapped too.
+ * 2) For each statement we record the execute time, the time spent iterating the ResultSet (fetch time)
+ *    and the number of rows returned or affected.
+ * 3) Stats are grouped by SQL fingerprint (literals replaced by ?, whitespace collapsed) into lock-free histograms.
+ * 4) Statements slower than the threshold (execute + fetch) are appended to the slow-query log file. The statement only
+ *    queues the line; a background thread keeps the file open and writes the lines. If it falls more than
+ *    10000 lines behind, further lines are dropped (and counted) rather than slowing the statements down.
+ *    close() writes what is still queued and closes the file.
+ * 5) Connect time is tracked separately, so "is it the network, a query, or the iteration?" has an answer.
+ *
+ * PreparedStatements look their stats up once when they are prepared; executing them only reads the clock
+ * and bumps counters. Only the ResultSet wrapper is allocated per execution.
+ */
+public class QueryMetrics implements QueryMetricsMBean, AutoCloseable {
+    private static final int SLOW_QUERY_LOG_QUEUE_CAPACITY = 10_000;
+
+
+    private final ConcurrentHashMap<String, StatementStats> statsByFingerprint = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, StatementStats> statsBySql = new ConcurrentHashMap<>();
+    private final LatencyHistogram connectHistogram = new LatencyHistogram();
+    private final LongAdder slowQueryCount = new LongAdder();
+    private final LongAdder droppedSlowQueryLines = new LongAdder();
+    private final LinkedBlockingQueue<String> slowQueryLines = new LinkedBlockingQueue<>(SLOW_QUERY_LOG_QUEUE_CAPACITY);
+    private final Path slowQueryLogFile;
+    private final Thread slowQueryLogWriter;
+    private volatile long slowQueryThresholdNanos;
+    private volatile boolean closed;
+
+    public QueryMetrics(long slowQueryThresholdMillis, Path slowQueryLogFile) {
+        this.slowQueryThresholdNanos = slowQueryThresholdMillis * 1_000_000;
+        this.slowQueryLogFile = slowQueryLogFile;
+
+        this.slowQueryLogWriter = new Thread(this::runSlowQueryLogWriter, "slow-query-log-writer");
+        slowQueryLogWriter.setDaemon(true);
+        slowQueryLogWriter.start();
+    }
+
+    public Connection instrument(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new InstrumentedConnectionHandler(connection));
+    }
+
+    public void recordConnect(long nanos) {
+        connectHistogram.record(nanos);
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("library:type=QueryMetrics"));
+        } catch (JMException e) {
+            System.err.println("Query metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getStatementExecutions() {
+        long executions = 0;
+        for (StatementStats stats : statsByFingerprint.values()) {
+            executions += stats.executeHistogram.getCount();
+        }
+        return executions;
+    }
+
+    @Override
+    public long getSlowQueryCount() {
+        return slowQueryCount.sum();
+    }
+
+    @Override
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdNanos / 1_000_000;
+    }
+
+    @Override
+    public void setSlowQueryThresholdMillis(long thresholdMillis) {
+        this.slowQueryThresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Connect: count=%d, avg=%.2f ms, p99=%.2f ms, max=%.2f ms%n",
+                connectHistogram.getCount(), connectHistogram.getAverageMillis(),
+                connectHistogram.getPercentileMillis(99), connectHistogram.getMaxMillis()));
+        report.append(String.format("Slow queries (> %d ms): %d, logged to %s%s%n%n",
+                getSlowQueryThresholdMillis(), getSlowQueryCount(), slowQueryLogFile,
+                droppedSlowQueryLines.sum() == 0 ? "" : " (" + droppedSlowQueryLines.sum() + " not logged, the log fell behind)"));
+        report.append(String.format("%8s %10s %9s %9s %9s %9s %9s  %s%n",
+                "execs", "rows", "avg ms", "p50 ms", "p99 ms", "max ms", "fetch ms", "statement"));
+
+        List<StatementStats> allStats = new ArrayList<>(statsByFingerprint.values());
+        allStats.sort(Comparator.comparingDouble(StatementStats::totalMillis).reversed());
+
+        for (StatementStats stats : allStats) {
+            LatencyHistogram execute = stats.executeHistogram;
+            report.append(String.format("%8d %10d %9.2f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                    execute.getCount(), stats.rows.sum(), execute.getAverageMillis(),
+                    execute.getPercentileMillis(50), execute.getPercentileMillis(99), execute.getMaxMillis(),
+                    stats.fetchHistogram.getAverageMillis(), abbreviate(stats.fingerprint, 80)));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        statsByFingerprint.values().forEach(StatementStats::reset);
+        connectHistogram.reset();
+        slowQueryCount.reset();
+        droppedSlowQueryLines.reset();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            slowQueryLogWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private StatementStats statsForSql(String sql) {
+        return statsBySql.computeIfAbsent(sql, this::statsForFingerprintOf);
+    }
+
+    private StatementStats statsForFingerprintOf(String sql) {
+        return statsByFingerprint.computeIfAbsent(fingerprint(sql), StatementStats::new);
+    }
+
+    private void recordExecution(StatementStats stats, long executeNanos, long fetchNanos, long rows) {
+        stats.executeHistogram.record(executeNanos);
+        stats.fetchHistogram.record(fetchNanos);
+        stats.rows.add(rows);
+
+        if (executeNanos + fetchNanos > slowQueryThresholdNanos) {
+            slowQueryCount.increment();
+            logSlowQuery(stats.fingerprint, executeNanos, fetchNanos, rows);
+        }
+    }
+
+    private void logSlowQuery(String fingerprint, long executeNanos, long fetchNanos, long rows) {
+        String line = String.format("%s execute=%.2f ms fetch=%.2f ms rows=%d %s%n",
+                LocalDateTime.now(), executeNanos / 1_000_000.0, fetchNanos / 1_000_000.0, rows, fingerprint);
+        if (closed || !slowQueryLines.offer(line)) {
+            droppedSlowQueryLines.increment();
+        }
+    }
+
+    /*
+     * Opens the log on the first slow statement and keeps it open; each wake-up writes everything queued and flushes once.
+     * After a write error the file is closed and opened again for the next line.
+     */
+    private void runSlowQueryLogWriter() {
+        BufferedWriter writer = null;
+        List<String> lines = new ArrayList<>();
+
+        while (!closed || !slowQueryLines.isEmpty()) {
+            try {
+                // Short polls, so close() is noticed quickly.
+                String first = slowQueryLines.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                lines.add(first);
+            } catch (InterruptedException e) {
+                // Only close() stops the writer.
+            }
+            slowQueryLines.drainTo(lines);
+
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(slowQueryLogFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+                }
+                for (String line : lines) {
+                    writer.write(line);
+                }
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write to the slow-query log: " + e.getMessage());
+                droppedSlowQueryLines.add(lines.size());
+                closeQuietly(writer);
+                writer = null;
+            }
+            lines.clear();
+        }
+        closeQuietly(writer);
+    }
+
+    private static void closeQuietly(BufferedWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the slow-query log: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Normalizes SQL so the same statement with different literals or formatting is counted once:
+     * 'strings' and numbers become ?, runs of whitespace become one space.
+     */
+    static String fingerprint(String sql) {
+        StringBuilder fingerprint = new StringBuilder(sql.length());
+        int i = 0;
+
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+
+            if (c == '\'') {
+                i++;
+                while (i < sql.length() && !(sql.charAt(i) == '\'' && (i + 1 >= sql.length() || sql.charAt(i + 1) != '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                fingerprint.append('?');
+                i++;
+            } else if (Character.isDigit(c) && (fingerprint.isEmpty() || !Character.isLetterOrDigit(fingerprint.charAt(fingerprint.length() - 1))
+                    && fingerprint.charAt(fingerprint.length() - 1) != '_')) {
+                while (i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                fingerprint.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (!fingerprint.isEmpty()) {
+                    fingerprint.append(' ');
+                }
+            } else {
+                fingerprint.append(c);
+                i++;
+            }
+        }
+
+        return fingerprint.toString().trim();
+    }
+
+    private static String abbreviate(String text, int maxLength) {
+        return text.length() <= maxLength ? text : text.substring(0, maxLength - 3) + "...";
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class StatementStats {
+        private final String fingerprint;
+        private final LatencyHistogram executeHistogram = new LatencyHistogram();
+        private final LatencyHistogram fetchHistogram = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+
+        private StatementStats(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private double totalMillis() {
+            return executeHistogram.getAverageMillis() * executeHistogram.getCount()
+                    + fetchHistogram.getAverageMillis() * fetchHistogram.getCount();
+        }
+
+        private void reset() {
+            executeHistogram.reset();
+            fetchHistogram.reset();
+            rows.reset();
+        }
+    }
+
+    private final class InstrumentedConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        private InstrumentedConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = invokeDelegate(connection, method, args);
+
+            return switch (method.getName()) {
+                case "prepareStatement", "prepareCall" -> wrapStatement((Statement) result, statsForSql((String) args[0]));
+                case "createStatement" -> wrapStatement((Statement) result, null);
+                default -> result;
+            };
+        }
+    }
+
+    private Statement wrapStatement(Statement statement, StatementStats preparedStats) {
+        Class<?> type = statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(
+                Statement.class.getClassLoader(),
+                new Class<?>[]{type},
+                new InstrumentedStatementHandler(statement, preparedStats));
+    }
+
+    /*
+     * Times execute*() calls. executeQuery() results are wrapped so the fetch time and row count
+     * are recorded when the ResultSet is closed (or when the statement is closed/re-executed).
+     */
+    private final class InstrumentedStatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final StatementStats preparedStats;
+        private InstrumentedResultSetHandler openResultSet;
+
+        private InstrumentedStatementHandler(Statement statement, StatementStats preparedStats) {
+            this.statement = statement;
+            this.preparedStats = preparedStats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+
+            if (methodName.equals("close")) {
+                finishOpenResultSet();
+                return invokeDelegate(statement, method, args);
+            }
+            if (!methodName.startsWith("execute")) {
+                return invokeDelegate(statement, method, args);
+            }
+
+            finishOpenResultSet();
+            StatementStats stats = preparedStats != null || args == null || !(args[0] instanceof String sql)
+                    ? preparedStats
+                    : statsForFingerprintOf(sql);
+
+            long startedAt = System.nanoTime();
+            Object result = invokeDelegate(statement, method, args);
+            long executeNanos = System.nanoTime() - startedAt;
+
+            if (stats == null) {
+                return result;
+            }
+
+            if (result instanceof ResultSet resultSet) {
+                openResultSet = new InstrumentedResultSetHandler(resultSet, stats, executeNanos);
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, openResultSet);
+            }
+
+            recordExecution(stats, executeNanos, 0, affectedRows(result));
+            return result;
+        }
+
+        private void finishOpenResultSet() {
+            if (openResultSet != null) {
+                openResultSet.finish();
+                openResultSet = null;
+            }
+        }
+
+        private long affectedRows(Object result) {
+            if (result instanceof Integer count) {
+                return Math.max(0, count);
+            }
+            if (result instanceof Long count) {
+                return Math.max(0, count);
+            }
+            if (result instanceof int[] counts) {
+                long total = 0;
+                for (int count : counts) {
+                    total += Math.max(0, count);
+                }
+                return total;
+            }
+            return 0;
+        }
+    }
+
+    private final class InstrumentedResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final StatementStats stats;
+        private final long executeNanos;
+        private long fetchNanos;
+        private long rows;
+        private boolean finished;
+
+        private InstrumentedResultSetHandler(ResultSet resultSet, StatementStats stats, long executeNanos) {
+            this.resultSet = resultSet;
+            this.stats = stats;
+            this.executeNanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next" -> {
+                    long startedAt = System.nanoTime();
+                    boolean hasRow = resultSet.next();
+                    fetchNanos += System.nanoTime() - startedAt;
+                    if (hasRow) {
+                        rows++;
+                    }
+                    return hasRow;
+                }
+                case "close" -> {
+                    finish();
+                    return invokeDelegate(resultSet, method, args);
+                }
+                default -> {
+                    return invokeDelegate(resultSet, method, args);
+                }
+            }
+        }
+
+        private void finish() {
+            if (!finished) {
+                finished = true;
+                recordExecution(stats, executeNanos, fetchNanos, rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * What QueryMetrics exposes over JMX (jconsole, VisualVM, ...).
+ */
+public interface QueryMetricsMBean {
+    long getStatementExecutions();
+
+    long getSlowQueryCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long thresholdMillis);
+
+    String dump();
+
+    void reset();
+}
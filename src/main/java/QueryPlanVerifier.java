@@ -0,0 +1,101 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/*
+ * Checks with EXPLAIN that the hot queries can be answered through an index.
+ *
+ * On small tables PostgreSQL rightly prefers a sequential scan, so the plans are taken with enable_seqscan off:
+ * the planner then uses an index whenever one applies, and a scan without an index condition left in the plan
+ * means no index fits the query.
+ * EXPLAIN without ANALYZE doesn't execute anything, so checking data-modifying queries is safe.
+ */
+public class QueryPlanVerifier {
+    private static final Pattern PLAN_DETAIL_LINE = Pattern.compile("\\s*[A-Za-z][A-Za-z -]*: .*");
+
+    public record HotQuery(String name, String sql, Object... sampleParameters) {
+    }
+
+    public record Verdict(HotQuery query, boolean usesIndexes, List<String> plan) {
+        @Override
+        public String toString() {
+            return (usesIndexes ? "✅ " : "🚨 full scan: ") + query.name()
+                    + (usesIndexes ? "" : "\n    " + String.join("\n    ", plan));
+        }
+    }
+
+    private final ConnectionPool connectionPool;
+
+    public QueryPlanVerifier(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public List<Verdict> verify(List<HotQuery> hotQueries) throws SQLException {
+        List<Verdict> verdicts = new ArrayList<>();
+
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LOCAL enable_seqscan = off");
+                }
+                for (HotQuery hotQuery : hotQueries) {
+                    verdicts.add(verify(connection, hotQuery));
+                }
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+        return verdicts;
+    }
+
+    private Verdict verify(Connection connection, HotQuery hotQuery) throws SQLException {
+        List<String> plan = new ArrayList<>();
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + hotQuery.sql())) {
+            Object[] parameters = hotQuery.sampleParameters();
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.add(resultSet.getString(1));
+                }
+            }
+        }
+
+        return new Verdict(hotQuery, usesIndexes(plan), plan);
+    }
+
+    /*
+     * A Seq Scan fails the check, and so does an Index Scan without an "Index Cond":
+     * with sequential scans disabled, the planner walks a whole index (e.g. the primary key) and filters every row.
+     */
+    private static boolean usesIndexes(List<String> plan) {
+        for (int i = 0; i < plan.size(); i++) {
+            String line = plan.get(i);
+
+            if (line.contains("Seq Scan")) {
+                return false;
+            }
+            if (line.contains("Index Scan") || line.contains("Index Only Scan")) {
+                boolean hasIndexCondition = false;
+                // The node's details ("Index Cond: ...", "Filter: ...") follow it until the next node starts.
+                for (int j = i + 1; j < plan.size() && PLAN_DETAIL_LINE.matcher(plan.get(j)).matches(); j++) {
+                    hasIndexCondition |= plan.get(j).contains("Index Cond:");
+                }
+                if (!hasIndexCondition) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
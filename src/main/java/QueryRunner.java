@@ -0,0 +1,176 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * The "prepare, bind, execute, map rows, close" boilerplate in one place.
+ *
+ * Parameters are bound in order with setObject(), and rows are mapped with a RowMapper,
+ * so column indexes are resolved once per result set instead of once per row.
+ */
+public final class QueryRunner {
+
+    private QueryRunner() {
+    }
+
+    public static <T> List<T> queryForList(Connection connection, String sqlQuery, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        try (PreparedStatement preparedStatement = prepare(connection, sqlQuery, parameters);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            return toList(resultSet, mapper);
+        }
+    }
+
+    public static <T> Optional<T> queryForFirst(Connection connection, String sqlQuery, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        try (PreparedStatement preparedStatement = prepare(connection, sqlQuery, parameters);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            return Optional.of(mapper.forResultSet(resultSet).read(resultSet));
+        }
+    }
+
+    public static int update(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        try (PreparedStatement preparedStatement = prepare(connection, sqlQuery, parameters)) {
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    /*
+     * Sends one statement per parameter row in a single executeBatch() and returns, per row, the generated keyColumn value,
+     * or null for rows that inserted nothing (WHERE guards, ON CONFLICT DO NOTHING). Each row may insert at most one row.
+     * Run it inside a transaction if the rows must succeed or fail together.
+     */
+    public static List<Integer> batchInsertReturningKeys(Connection connection, String sqlQuery, String keyColumn,
+                                                         List<Object[]> parameterRows) throws SQLException {
+        List<Integer> keys = new ArrayList<>(parameterRows.size());
+        if (parameterRows.isEmpty()) {
+            return keys;
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery, new String[]{keyColumn})) {
+            for (Object[] parameters : parameterRows) {
+                for (int i = 0; i < parameters.length; i++) {
+                    preparedStatement.setObject(i + 1, parameters[i]);
+                }
+                preparedStatement.addBatch();
+            }
+            int[] updateCounts = preparedStatement.executeBatch();
+
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                for (int updateCount : updateCounts) {
+                    keys.add(updateCount > 0 && generatedKeys.next() ? generatedKeys.getInt(1) : null);
+                }
+            }
+        }
+        return keys;
+    }
+
+    public static <T> List<T> toList(ResultSet resultSet, RowMapper<T> mapper) throws SQLException {
+        List<T> rows = new ArrayList<>();
+        RowMapper.RowReader<T> rowReader = mapper.forResultSet(resultSet);
+
+        while (resultSet.next()) {
+            rows.add(rowReader.read(resultSet));
+        }
+        return rows;
+    }
+
+    /*
+     * Lazily maps rows as the stream is consumed, fetching fetchSize rows per round trip through a cursor.
+     *
+     * The stream leases a connection from the source and keeps it until the stream is closed,
+     * so always consume it inside try-with-resources.
+     */
+    public static <T> Stream<T> queryForStream(ConnectionSource connectionSource, int fetchSize, String sqlQuery,
+                                               RowMapper<T> mapper, Object... parameters) throws SQLException {
+        Connection connection = connectionSource.getConnection();
+        PreparedStatement preparedStatement = null;
+
+        try {
+            // pgjdbc only fetches through a cursor (honouring the fetch size) inside a transaction.
+            connection.setAutoCommit(false);
+            preparedStatement = prepare(connection, sqlQuery, parameters);
+            preparedStatement.setFetchSize(fetchSize);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            RowMapper.RowReader<T> rowReader = mapper.forResultSet(resultSet);
+            PreparedStatement statementToClose = preparedStatement;
+
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (!resultSet.next()) {
+                            return false;
+                        }
+                        action.accept(rowReader.read(resultSet));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new UncheckedSQLException(e);
+                    }
+                }
+            };
+
+            return StreamSupport.stream(spliterator, false)
+                    .onClose(() -> closeStream(connection, statementToClose, resultSet));
+        } catch (SQLException | RuntimeException e) {
+            closeStream(connection, preparedStatement, null);
+            throw e;
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sqlQuery, Object... parameters) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery);
+
+        try {
+            for (int i = 0; i < parameters.length; i++) {
+                preparedStatement.setObject(i + 1, parameters[i]);
+            }
+            return preparedStatement;
+        } catch (SQLException e) {
+            preparedStatement.close();
+            throw e;
+        }
+    }
+
+    private static void closeStream(Connection connection, PreparedStatement preparedStatement, ResultSet resultSet) {
+        try (connection) {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (preparedStatement != null) {
+                preparedStatement.close();
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    /*
+     * Streams can't throw checked exceptions, so SQLExceptions raised while iterating are wrapped in this one.
+     */
+    public static class UncheckedSQLException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public UncheckedSQLException(SQLException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Sends writes to the primary and read-only queries to replicas.
+ *
+ * 1) getWriteConnection() always leases from the primary pool.
+ * 2) getReadConnection() picks a healthy replica, round-robin or the one with the lowest measured latency,
+ *    and falls back to the primary when there is none (or when leasing from the chosen replica fails).
+ * 3) Read-your-writes: after a session (= the thread that runs it) leased a write connection, its reads stay on the
+ *    primary for readYourWritesWindow, so a clerk never misses the book they just added because a replica lags behind.
+ *    The window should be longer than the usual replication lag.
+ * 4) A background health check runs "SELECT 1" on every replica each healthCheckInterval, takes failing replicas
+ *    out of rotation, puts them back once they answer again, and keeps a moving average of their latency.
+ *
+ * Without replicas every read simply goes to the primary.
+ */
+public class ReadWriteRouter implements AutoCloseable {
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 2;
+
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_LATENCY
+    }
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas;
+    private final Balancing balancing;
+    private final long readYourWritesWindowNanos;
+    private final ScheduledExecutorService healthChecker;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ThreadLocal<Long> lastWriteAt = new ThreadLocal<>();
+
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder stickyReads = new LongAdder();
+    private final LongAdder replicaFailovers = new LongAdder();
+
+    public ReadWriteRouter(ConnectionPool primary) {
+        this(primary, List.of(), Balancing.ROUND_ROBIN, Duration.ZERO, Duration.ZERO);
+    }
+
+    public ReadWriteRouter(ConnectionPool primary, List<ConnectionPool> replicaPools, Balancing balancing,
+                           Duration readYourWritesWindow, Duration healthCheckInterval) {
+        this.primary = primary;
+        this.balancing = balancing;
+        this.readYourWritesWindowNanos = readYourWritesWindow.toNanos();
+
+        List<Replica> replicaList = new ArrayList<>(replicaPools.size());
+        for (int i = 0; i < replicaPools.size(); i++) {
+            replicaList.add(new Replica("replica-" + (i + 1), replicaPools.get(i)));
+        }
+        this.replicas = List.copyOf(replicaList);
+
+        if (replicas.isEmpty()) {
+            this.healthChecker = null;
+        } else {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = healthCheckInterval.toMillis();
+            healthChecker.scheduleWithFixedDelay(this::checkReplicas, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public ConnectionPool getPrimary() {
+        return primary;
+    }
+
+    public Connection getWriteConnection() throws SQLException {
+        lastWriteAt.set(System.nanoTime());
+        return primary.getConnection();
+    }
+
+    public Connection getReadConnection() throws SQLException {
+        if (replicas.isEmpty()) {
+            primaryReads.increment();
+            return primary.getConnection();
+        }
+
+        Long lastWrite = lastWriteAt.get();
+        if (lastWrite != null && System.nanoTime() - lastWrite < readYourWritesWindowNanos) {
+            stickyReads.increment();
+            return primary.getConnection();
+        }
+
+        Replica replica = chooseReplica();
+        if (replica != null) {
+            try {
+                Connection connection = replica.pool.getConnection();
+                replica.reads.increment();
+                return connection;
+            } catch (SQLException e) {
+                // Don't wait for the next health check to stop sending reads there.
+                replica.healthy = false;
+                replicaFailovers.increment();
+            }
+        }
+
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /*
+     * The pool a whole read-only job should use when all its connections must reach the same server
+     * (ParallelTableScanner's shared snapshot): a healthy replica, or the primary when there is none or right after a write.
+     */
+    public ConnectionPool choosePoolForReads() {
+        Long lastWrite = lastWriteAt.get();
+        if (replicas.isEmpty() || lastWrite != null && System.nanoTime() - lastWrite < readYourWritesWindowNanos) {
+            return primary;
+        }
+
+        Replica replica = chooseReplica();
+        return replica != null ? replica.pool : primary;
+    }
+
+    /*
+     * The read side as a ConnectionSource, e.g. for QueryRunner.queryForStream().
+     */
+    public ConnectionSource reads() {
+        return this::getReadConnection;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder(String.format(
+                "Read routing (%s): primary reads=%d, sticky reads=%d, failovers=%d",
+                balancing, primaryReads.sum(), stickyReads.sum(), replicaFailovers.sum()));
+
+        for (Replica replica : replicas) {
+            description.append(String.format("%n   %s: %s, reads=%d, latency=%.2f ms",
+                    replica.name, replica.healthy ? "healthy" : "out of rotation", replica.reads.sum(), replica.latencyMillis));
+        }
+        return description.toString();
+    }
+
+    /*
+     * Closes the replica pools; the primary pool belongs to the caller.
+     */
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private Replica chooseReplica() {
+        if (balancing == Balancing.LEAST_LATENCY) {
+            Replica fastest = null;
+            for (Replica replica : replicas) {
+                if (replica.healthy && (fastest == null || replica.latencyMillis < fastest.latencyMillis)) {
+                    fastest = replica;
+                }
+            }
+            return fastest;
+        }
+
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.pool.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout(HEALTH_CHECK_TIMEOUT_SECONDS);
+                // Only the round trip counts, not opening a new connection.
+                long startedAt = System.nanoTime();
+                statement.execute("SELECT 1");
+
+                double latencyMillis = (System.nanoTime() - startedAt) / 1_000_000.0;
+                // Exponential moving average, so one slow check doesn't flip the least-latency choice.
+                replica.latencyMillis = replica.latencyMillis == 0 ? latencyMillis : 0.8 * replica.latencyMillis + 0.2 * latencyMillis;
+                if (replica.failed) {
+                    System.out.println("✅ " + replica.name + " is back in rotation.");
+                }
+                replica.healthy = true;
+                replica.failed = false;
+            } catch (SQLException e) {
+                if (!replica.failed) {
+                    System.out.println("🚨 " + replica.name + " failed its health check and is out of rotation: " + e.getMessage());
+                }
+                replica.healthy = false;
+                replica.failed = true;
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final ConnectionPool pool;
+        private final LongAdder reads = new LongAdder();
+        // Not healthy until the first check passed; failed only after a check didn't.
+        private volatile boolean healthy;
+        private volatile boolean failed;
+        private volatile double latencyMillis;
+
+        private Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+}
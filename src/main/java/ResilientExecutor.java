@@ -0,0 +1,226 @@
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Runs database work with retries for failures that are worth retrying, and through a CircuitBreaker.
+ *
+ * 1) Every SQLException is classified by its SQLState (see classify()):
+ *    NOT_SENT: no connection could be had (refused, too many connections, starting up, pool exhausted),
+ *      so the work never reached the server and can always be run again.
+ *    CONNECTION_LOST: the connection broke while the work was running, so it may or may not have happened.
+ *    TRANSIENT: the server rolled the transaction back (serialization failure, deadlock, lock not available).
+ *    TIMEOUT: the statement ran longer than its query timeout and was cancelled.
+ *    FATAL: everything else (constraint violations, bad SQL, permissions, ...), never retried.
+ * 2) read() retries NOT_SENT, CONNECTION_LOST and TRANSIENT failures: running a read again is always safe.
+ *    transaction() retries NOT_SENT and TRANSIENT failures, for work that runs as one transaction which is rolled back
+ *    when it fails. It doesn't retry CONNECTION_LOST: the connection may have broken after the COMMIT went through,
+ *    and running the transaction again would then lend a book or register a member twice.
+ *    write() only retries NOT_SENT: a lost single-statement write may already have been applied.
+ *    Timeouts are not retried, so a slow statement costs one query timeout and not maxAttempts of them.
+ * 3) Attempts are spaced with exponential backoff and full jitter (a random wait between 0 and
+ *    min(maxBackoff, initialBackoff x 2^attempt)), so many sessions hitting the same blip don't retry in lockstep.
+ *    No retry starts later than retryDeadline after the first attempt.
+ * 4) Only connection failures (SQLState class 08: the connect was refused or the connection broke) count as failures
+ *    for the circuit breaker; while it is open, calls fail at once. A borrow timeout of the pool (local saturation)
+ *    says nothing about the database and counts neither way. Every other error, a query timeout included, came
+ *    from a server that answered, so it counts as a success.
+ */
+public class ResilientExecutor {
+
+    public enum Failure {
+        NOT_SENT, CONNECTION_LOST, TRANSIENT, TIMEOUT, FATAL
+    }
+
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private static final Set<Failure> READ_RETRIES = EnumSet.of(Failure.NOT_SENT, Failure.CONNECTION_LOST, Failure.TRANSIENT);
+    private static final Set<Failure> TRANSACTION_RETRIES = EnumSet.of(Failure.NOT_SENT, Failure.TRANSIENT);
+    private static final Set<Failure> WRITE_RETRIES = EnumSet.of(Failure.NOT_SENT);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long retryDeadlineMillis;
+    private final CircuitBreaker circuitBreaker;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder recoveredCalls = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+
+    public ResilientExecutor(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration retryDeadline,
+                             CircuitBreaker circuitBreaker) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("There must be at least one attempt.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.retryDeadlineMillis = retryDeadline.toMillis();
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public <T> T read(SqlCall<T> work) throws SQLException {
+        return run(work, READ_RETRIES);
+    }
+
+    /*
+     * work must run one whole transaction and roll it back when it fails (as the repositories' transactions do).
+     */
+    public <T> T transaction(SqlCall<T> work) throws SQLException {
+        return run(work, TRANSACTION_RETRIES);
+    }
+
+    public <T> T write(SqlCall<T> work) throws SQLException {
+        return run(work, WRITE_RETRIES);
+    }
+
+    public static Failure classify(SQLException e) {
+        String sqlState = e.getSQLState();
+
+        if (sqlState != null) {
+            switch (sqlState) {
+                // sqlclient_unable_to_establish_sqlconnection, sqlserver_rejected_establishment_of_sqlconnection,
+                // too_many_connections, cannot_connect_now
+                case "08001", "08004", "53300", "57P03" -> {
+                    return Failure.NOT_SENT;
+                }
+                // admin_shutdown, crash_shutdown: the server went away under us
+                case "57P01", "57P02" -> {
+                    return Failure.CONNECTION_LOST;
+                }
+                // serialization_failure, deadlock_detected, lock_not_available
+                case "40001", "40P01", "55P03" -> {
+                    return Failure.TRANSIENT;
+                }
+                // query_canceled: pgjdbc cancels statements that exceed setQueryTimeout()
+                case "57014" -> {
+                    return Failure.TIMEOUT;
+                }
+                default -> {
+                    if (sqlState.startsWith("08")) {
+                        return Failure.CONNECTION_LOST;
+                    }
+                    if (sqlState.startsWith("40")) {
+                        return Failure.TRANSIENT;
+                    }
+                }
+            }
+        }
+
+        // The pool reports "no free connection in time" without a SQLState.
+        if (e instanceof SQLTransientConnectionException) {
+            return Failure.NOT_SENT;
+        }
+        if (e instanceof SQLTimeoutException) {
+            return Failure.TIMEOUT;
+        }
+        if (e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException) {
+            return Failure.CONNECTION_LOST;
+        }
+        if (e instanceof SQLTransientException) {
+            return Failure.TRANSIENT;
+        }
+        return Failure.FATAL;
+    }
+
+    /*
+     * Whether the failure shows the database can't be reached: the connect failed or the connection broke.
+     * The pool's borrow timeout has no SQLState and doesn't count.
+     */
+    public static boolean isConnectionFailure(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    /*
+     * A one-line explanation for the menu.
+     */
+    public static String describe(SQLException e) {
+        if (e instanceof CircuitBreaker.CircuitOpenException) {
+            return e.getMessage();
+        }
+        return switch (classify(e)) {
+            case NOT_SENT -> "Could not reach the database: " + e.getMessage();
+            case CONNECTION_LOST -> "The connection to the database was lost; the last change may not have been saved: " + e.getMessage();
+            case TRANSIENT -> "The database could not complete the operation right now, please try again: " + e.getMessage();
+            case TIMEOUT -> "The operation took too long and was cancelled: " + e.getMessage();
+            case FATAL -> "Database error: " + e.getMessage();
+        };
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    private <T> T run(SqlCall<T> work, Set<Failure> retryableFailures) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+
+        for (int attempt = 1; ; attempt++) {
+            circuitBreaker.beforeCall();
+
+            Failure failure;
+            try {
+                T result = work.call();
+                circuitBreaker.recordSuccess();
+                if (attempt > 1) {
+                    recoveredCalls.increment();
+                }
+                return result;
+            } catch (SQLException e) {
+                failure = classify(e);
+                if (isConnectionFailure(e)) {
+                    circuitBreaker.recordFailure();
+                } else if (e.getSQLState() == null && failure == Failure.NOT_SENT) {
+                    // The pool had no free connection in time: nothing was learned about the database.
+                    circuitBreaker.recordInconclusive();
+                } else {
+                    circuitBreaker.recordSuccess();
+                }
+
+                long backoffMillis = backoffMillis(attempt);
+                if (!retryableFailures.contains(failure) || attempt >= maxAttempts
+                        || System.currentTimeMillis() + backoffMillis - startedAt > retryDeadlineMillis) {
+                    failedCalls.increment();
+                    throw e;
+                }
+                sleep(backoffMillis, e);
+                retries.increment();
+            } catch (RuntimeException e) {
+                // Not a database failure: don't leave a half-open trial hanging.
+                circuitBreaker.recordSuccess();
+                throw e;
+            }
+        }
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void sleep(long millis, SQLException failure) throws SQLException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Resilience: " + retries.sum() + " retries, " + recoveredCalls.sum() + " calls recovered by retrying, "
+                + failedCalls.sum() + " calls failed; " + circuitBreaker;
+    }
+}
@@ -0,0 +1,18 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Turns the rows of a ResultSet into objects.
+ *
+ * forResultSet() is called once per result set: this is where column names are resolved to indexes
+ * (findColumn), so reading each row afterwards is only getInt(index)/getString(index) calls.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    RowReader<T> forResultSet(ResultSet resultSet) throws SQLException;
+
+    @FunctionalInterface
+    interface RowReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+}
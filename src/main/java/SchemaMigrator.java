@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Versioned schema migrations, run at startup from classpath SQL files.
+ *
+ * 1) Files are named V<version>__<description>.sql (e.g. V2__hot_predicate_indexes.sql) and applied in version order.
+ * 2) Every applied migration is recorded in schema_migrations with a SHA-256 checksum of its file.
+ *    If an applied file was edited afterwards, migrate() refuses to run: add a new migration instead.
+ * 3) schema_migration_lock holds a single row that is locked (SELECT ... FOR UPDATE) for the whole run,
+ *    so two instances starting at the same time don't apply the same migration twice.
+ * 4) All pending migrations run in one transaction (PostgreSQL DDL is transactional):
+ *    either all of them are applied or none. That also means CREATE INDEX CONCURRENTLY can't be used in them.
+ */
+public class SchemaMigrator {
+    private static final Pattern MIGRATION_FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    private static final String createHistoryTable = """
+            CREATE TABLE IF NOT EXISTS schema_migrations (
+                version      INTEGER PRIMARY KEY,
+                description  TEXT        NOT NULL,
+                checksum     TEXT        NOT NULL,
+                installed_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+                execution_ms BIGINT      NOT NULL
+            )
+            """;
+    private static final String createLockTable = """
+            CREATE TABLE IF NOT EXISTS schema_migration_lock (
+                id        INTEGER PRIMARY KEY CHECK (id = 1),
+                locked_by TEXT,
+                locked_at TIMESTAMPTZ
+            )
+            """;
+    private static final String insertLockRow = "INSERT INTO schema_migration_lock (id) VALUES (1) ON CONFLICT (id) DO NOTHING";
+    private static final String acquireLock = "SELECT id FROM schema_migration_lock WHERE id = 1 FOR UPDATE";
+    private static final String recordLockHolder = "UPDATE schema_migration_lock SET locked_by = ?, locked_at = now() WHERE id = 1";
+    private static final String appliedMigrationsQuery = "SELECT version, checksum FROM schema_migrations ORDER BY version";
+    private static final String recordMigration =
+            "INSERT INTO schema_migrations (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)";
+
+    public record Migration(int version, String description, String checksum, String sql) {
+    }
+
+    private final ConnectionPool connectionPool;
+    private final String location;
+
+    public SchemaMigrator(ConnectionPool connectionPool, String location) {
+        this.connectionPool = connectionPool;
+        this.location = location;
+    }
+
+    /*
+     * Applies every pending migration and returns the ones that were applied.
+     */
+    public List<Migration> migrate() throws SQLException, IOException {
+        List<Migration> migrations = loadMigrations();
+
+        try (Connection connection = connectionPool.getConnection()) {
+            // The socket timeout (db.driver.socketTimeout) is meant for dead servers, not for a long migration or lock wait.
+            int networkTimeout = connection.getNetworkTimeout();
+            connection.setNetworkTimeout(Runnable::run, 0);
+            try {
+                return migrate(connection, migrations);
+            } finally {
+                connection.setNetworkTimeout(Runnable::run, networkTimeout);
+            }
+        }
+    }
+
+    private List<Migration> migrate(Connection connection, List<Migration> migrations) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(createHistoryTable);
+            statement.execute(createLockTable);
+            statement.execute(insertLockRow);
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            lock(connection);
+            List<Migration> pendingMigrations = findPendingMigrations(connection, migrations);
+
+            for (Migration migration : pendingMigrations) {
+                apply(connection, migration);
+            }
+            connection.commit();
+            return pendingMigrations;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void lock(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // Another instance holding the lock makes us wait here until its run commits or rolls back.
+            statement.setQueryTimeout(0);
+            statement.executeQuery(acquireLock).close();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(recordLockHolder)) {
+            preparedStatement.setString(1, ProcessHandle.current().pid() + "@" + System.getProperty("user.name"));
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private List<Migration> findPendingMigrations(Connection connection, List<Migration> migrations) throws SQLException {
+        Map<Integer, String> appliedChecksums = new TreeMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(appliedMigrationsQuery)) {
+            while (resultSet.next()) {
+                appliedChecksums.put(resultSet.getInt(1), resultSet.getString(2));
+            }
+        }
+
+        List<Migration> pendingMigrations = new ArrayList<>();
+        for (Migration migration : migrations) {
+            String appliedChecksum = appliedChecksums.get(migration.version());
+
+            if (appliedChecksum == null) {
+                pendingMigrations.add(migration);
+            } else if (!appliedChecksum.equals(migration.checksum())) {
+                throw new SQLException("Migration V" + migration.version() + "__" + migration.description()
+                        + " was changed after it was applied (checksum mismatch). Add a new migration instead.");
+            }
+        }
+        return pendingMigrations;
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        long startedAt = System.nanoTime();
+
+        // Migrations may rewrite big tables: no query timeout for them.
+        try (Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(0);
+            statement.execute(migration.sql());
+        } catch (SQLException e) {
+            throw new SQLException("Migration V" + migration.version() + "__" + migration.description() + " failed: "
+                    + e.getMessage(), e.getSQLState(), e);
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(recordMigration)) {
+            preparedStatement.setInt(1, migration.version());
+            preparedStatement.setString(2, migration.description());
+            preparedStatement.setString(3, migration.checksum());
+            preparedStatement.setLong(4, (System.nanoTime() - startedAt) / 1_000_000);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private List<Migration> loadMigrations() throws IOException {
+        URL locationUrl = SchemaMigrator.class.getClassLoader().getResource(location);
+        if (locationUrl == null) {
+            throw new IOException("No migrations found on the classpath at " + location);
+        }
+
+        URI locationUri;
+        try {
+            locationUri = locationUrl.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid migration location " + locationUrl, e);
+        }
+
+        // Inside a jar the directory has to be listed through a zip file system.
+        if (locationUri.getScheme().equals("jar")) {
+            try (FileSystem jarFileSystem = FileSystems.newFileSystem(locationUri, Map.of())) {
+                return readMigrations(jarFileSystem.getPath(location));
+            }
+        }
+        return readMigrations(Path.of(locationUri));
+    }
+
+    static List<Migration> readMigrations(Path directory) throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = MIGRATION_FILE_NAME.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+
+                byte[] content = Files.readAllBytes(file);
+                migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2),
+                        sha256(content), new String(content, StandardCharsets.UTF_8)));
+            }
+        }
+
+        migrations.sort(Comparator.comparingInt(Migration::version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version() == migrations.get(i - 1).version()) {
+                throw new IOException("Two migrations have version " + migrations.get(i).version());
+            }
+        }
+        return migrations;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * LRU cache of PreparedStatements keyed by SQL text, owned by one physical connection.
+ *
+ * prepare() hands out a proxy of the cached statement. Calling close() on the proxy only clears
+ * the parameters and puts the statement back, so the usual "prepare, execute, close" code keeps
+ * working while the driver gets to reuse the parsed (and later server-prepared) statement.
+ *
+ * The real statements are closed when they fall out of the cache or when the cache itself is closed
+ * together with its connection.
+ */
+public class StatementCache implements AutoCloseable {
+    private final Connection connection;
+    private final int maxSize;
+    private final Counters counters;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    public StatementCache(Connection connection, int maxSize, Counters counters) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize) {
+                    return false;
+                }
+                counters.evictions.increment();
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cachedStatement = statements.get(sql);
+
+        if (cachedStatement == null) {
+            counters.misses.increment();
+            cachedStatement = new CachedStatement(connection.prepareStatement(sql));
+            statements.put(sql, cachedStatement);
+        } else if (cachedStatement.inUse) {
+            // The same SQL is already open on this connection (nested use), so don't share the statement.
+            counters.misses.increment();
+            return connection.prepareStatement(sql);
+        } else {
+            counters.hits.increment();
+        }
+
+        return cachedStatement.checkOut();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    @Override
+    public void close() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().evict();
+            iterator.remove();
+        }
+    }
+
+    /*
+     * Hit/miss/eviction counters, shared by every cache of one connection pool.
+     */
+    public static class Counters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public double getHitRatio() {
+            long hitCount = getHits();
+            long total = hitCount + getMisses();
+            return total == 0 ? 0.0 : (double) hitCount / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, evictions=%d, hit ratio=%.1f%%",
+                    getHits(), getMisses(), getEvictions(), getHitRatio() * 100);
+        }
+    }
+
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private final int defaultFetchSize;
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+        }
+
+        private PreparedStatement checkOut() {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new CheckedOutStatementHandler(this));
+        }
+
+        private void checkIn() {
+            inUse = false;
+
+            if (evicted) {
+                closeQuietly();
+                return;
+            }
+
+            // Settings like the fetch size stick to the statement, so undo them before the next caller gets it.
+            try {
+                statement.clearParameters();
+                statement.clearWarnings();
+                if (statement.getFetchSize() != defaultFetchSize) {
+                    statement.setFetchSize(defaultFetchSize);
+                }
+                if (statement.getMaxRows() != 0) {
+                    statement.setMaxRows(0);
+                }
+            } catch (SQLException e) {
+                evicted = true;
+                closeQuietly();
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Nothing useful to do with a statement we are discarding.
+            }
+        }
+    }
+
+    private static final class CheckedOutStatementHandler implements InvocationHandler {
+        private final CachedStatement cachedStatement;
+        private boolean returned;
+
+        private CheckedOutStatementHandler(CachedStatement cachedStatement) {
+            this.cachedStatement = cachedStatement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        cachedStatement.checkIn();
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned || cachedStatement.statement.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return cachedStatement.statement.toString();
+                }
+                default -> {
+                    if (returned) {
+                        throw new SQLException("Statement has already been closed.");
+                    }
+                }
+            }
+
+            try {
+                return method.invoke(cachedStatement.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,483 @@
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Streams a whole table (or the active loans read model) into a file, the counterpart of CatalogImporter.
+ *
+ * 1) CSV/TSV over a PostgreSQL connection: the server writes the file contents itself with COPY (...) TO STDOUT,
+ *    and CopyManager pipes them straight into the file.
+ * 2) CSV/TSV over any other connection, and the columnar format: rows are read through a cursor, fetchSize at a time.
+ * 3) The file is written through a buffered FileChannel stream, optionally gzip-compressed, into <file>.part,
+ *    which is renamed to <file> only once the export succeeded, so a reporting job never picks up half a file.
+ *
+ * Only one buffer, one fetch and (columnar) one row group are held at a time, so memory stays the same
+ * whether the table has a thousand rows or tens of millions.
+ * Progress lines go to the PrintStream of the session (or the --export run) that started the export.
+ *
+ * Columnar layout (all numbers big-endian, as written by DataOutputStream):
+ *   "LIBCOL1\n", column count (u16), then per column: name (DataOutput UTF), type (u8: 1 int, 2 text, 3 boolean, 4 date)
+ *   row groups of up to ROW_GROUP_ROWS rows: row count (i32), then per column:
+ *     null bitmap (ceil(rows / 8) bytes, bit i % 8 of byte i / 8 set = row i is null), then the non-null values:
+ *     int -> i32, date -> epoch day (i32), boolean -> bitmap, text -> varint byte lengths followed by the UTF-8 bytes
+ *   end marker: row count 0 (i32), then the total number of rows (i64)
+ */
+public class TableExporter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ROW_GROUP_ROWS = 65_536;
+    private static final int PROGRESS_INTERVAL_ROWS = 100_000;
+    private static final byte[] COLUMNAR_MAGIC = "LIBCOL1\n".getBytes(StandardCharsets.US_ASCII);
+
+    public enum ColumnType {
+        INT(1), TEXT(2), BOOLEAN(3), DATE(4);
+
+        private final int code;
+
+        ColumnType(int code) {
+            this.code = code;
+        }
+    }
+
+    private record Column(String name, ColumnType type) {
+    }
+
+    public enum Source {
+        BOOKS("SELECT book_id, title, author, is_available FROM books ORDER BY book_id",
+                new Column("book_id", ColumnType.INT), new Column("title", ColumnType.TEXT),
+                new Column("author", ColumnType.TEXT), new Column("is_available", ColumnType.BOOLEAN)),
+        MEMBERS("SELECT member_id, name, email FROM members ORDER BY member_id",
+                new Column("member_id", ColumnType.INT), new Column("name", ColumnType.TEXT), new Column("email", ColumnType.TEXT)),
+        LOANS("SELECT loan_id, book_id, member_id, loan_date, return_date FROM loans ORDER BY loan_id",
+                new Column("loan_id", ColumnType.INT), new Column("book_id", ColumnType.INT), new Column("member_id", ColumnType.INT),
+                new Column("loan_date", ColumnType.DATE), new Column("return_date", ColumnType.DATE)),
+        // The read model stores a missing return date as 'infinity' (see V4__active_loans_read_model.sql); exports show it as empty.
+        ACTIVE_LOANS("""
+                SELECT loan_id, book_id, member_id, title, author, member_name, member_email, loan_date,
+                       NULLIF(return_date, 'infinity') AS return_date
+                FROM active_loans
+                ORDER BY active_loans.return_date, loan_id
+                """,
+                new Column("loan_id", ColumnType.INT), new Column("book_id", ColumnType.INT), new Column("member_id", ColumnType.INT),
+                new Column("title", ColumnType.TEXT), new Column("author", ColumnType.TEXT),
+                new Column("member_name", ColumnType.TEXT), new Column("member_email", ColumnType.TEXT),
+                new Column("loan_date", ColumnType.DATE), new Column("return_date", ColumnType.DATE));
+
+        private final String query;
+        private final Column[] columns;
+
+        Source(String query, Column... columns) {
+            this.query = query;
+            this.columns = columns;
+        }
+    }
+
+    public enum Format {
+        CSV(','),
+        TSV('\t'),
+        COLUMNAR('\0'); // binary, see the layout above
+
+        private final char delimiter;
+
+        Format(char delimiter) {
+            this.delimiter = delimiter;
+        }
+    }
+
+    public record ExportResult(long rows, long bytes, long elapsedMillis, boolean usedCopy) {
+        public long rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+        }
+    }
+
+    private final ConnectionSource connectionSource;
+    private final int fetchSize;
+    private final PrintStream progress;
+
+    public TableExporter(ConnectionSource connectionSource, int fetchSize, PrintStream progress) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be at least 1.");
+        }
+        this.connectionSource = connectionSource;
+        this.fetchSize = fetchSize;
+        this.progress = progress;
+    }
+
+    public ExportResult export(Source source, Format format, Path file, boolean gzip) throws SQLException, IOException {
+        long startedAt = System.currentTimeMillis();
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+
+        try (Connection connection = connectionSource.getConnection()) {
+            boolean useCopy = format != Format.COLUMNAR && connection.isWrapperFor(PGConnection.class);
+            long rows;
+
+            try (OutputStream output = openOutput(partFile, gzip)) {
+                if (useCopy) {
+                    rows = copyOut(connection, source, format, output, startedAt);
+                } else {
+                    // PostgreSQL only streams through a cursor inside a transaction; otherwise it sends every row at once.
+                    connection.setAutoCommit(false);
+                    try {
+                        rows = format == Format.COLUMNAR
+                                ? writeColumnar(connection, source, output, startedAt)
+                                : writeDelimited(connection, source, format, output, startedAt);
+                    } finally {
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                }
+            }
+
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new ExportResult(rows, Files.size(file), System.currentTimeMillis() - startedAt, useCopy);
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+    }
+
+    /*
+     * The format from the file name: .tsv, .col (columnar) or anything else as CSV, each optionally followed by .gz.
+     */
+    public static Format formatOf(Path file) {
+        String name = stripGzipSuffix(file.getFileName().toString().toLowerCase(Locale.ROOT));
+        if (name.endsWith(".tsv")) {
+            return Format.TSV;
+        }
+        return name.endsWith(".col") ? Format.COLUMNAR : Format.CSV;
+    }
+
+    public static boolean isGzipped(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    private static String stripGzipSuffix(String name) {
+        return name.endsWith(".gz") ? name.substring(0, name.length() - ".gz".length()) : name;
+    }
+
+    private static OutputStream openOutput(Path file, boolean gzip) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        OutputStream channelOutput = Channels.newOutputStream(channel);
+
+        // gzip gets big chunks to compress; its own output already leaves in BUFFER_SIZE blocks.
+        return gzip
+                ? new BufferedOutputStream(new GZIPOutputStream(channelOutput, BUFFER_SIZE), BUFFER_SIZE)
+                : new BufferedOutputStream(channelOutput, BUFFER_SIZE);
+    }
+
+    private long copyOut(Connection connection, Source source, Format format, OutputStream output,
+                         long startedAt) throws SQLException, IOException {
+        String delimiter = format == Format.TSV ? "E'\\t'" : "','";
+        String sqlQuery = "COPY (" + source.query + ") TO STDOUT WITH (FORMAT csv, DELIMITER " + delimiter + ", HEADER true)";
+
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        return copyManager.copyOut(sqlQuery, new ProgressOutputStream(output, startedAt));
+    }
+
+    private long writeDelimited(Connection connection, Source source, Format format, OutputStream output,
+                                long startedAt) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        StringBuilder line = new StringBuilder(256);
+        long rows = 0;
+
+        for (int i = 0; i < source.columns.length; i++) {
+            line.append(i == 0 ? "" : format.delimiter).append(source.columns[i].name());
+        }
+        writer.append(line).append('\n');
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(source.query)) {
+            preparedStatement.setFetchSize(fetchSize);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    line.setLength(0);
+                    for (int i = 0; i < source.columns.length; i++) {
+                        if (i > 0) {
+                            line.append(format.delimiter);
+                        }
+                        appendField(line, resultSet, i + 1, source.columns[i].type(), format.delimiter);
+                    }
+                    writer.append(line).append('\n');
+
+                    if (++rows % PROGRESS_INTERVAL_ROWS == 0) {
+                        printProgress(rows, startedAt);
+                    }
+                }
+            }
+        }
+
+        writer.flush();
+        return rows;
+    }
+
+    // Same text COPY ... WITH (FORMAT csv) produces, so both paths write identical files: t/f, ISO dates, NULL as nothing.
+    private static void appendField(StringBuilder line, ResultSet resultSet, int columnIndex, ColumnType type,
+                                    char delimiter) throws SQLException {
+        switch (type) {
+            case INT -> {
+                int value = resultSet.getInt(columnIndex);
+                if (!resultSet.wasNull()) {
+                    line.append(value);
+                }
+            }
+            case BOOLEAN -> {
+                boolean value = resultSet.getBoolean(columnIndex);
+                if (!resultSet.wasNull()) {
+                    line.append(value ? 't' : 'f');
+                }
+            }
+            case DATE -> {
+                LocalDate value = resultSet.getObject(columnIndex, LocalDate.class);
+                if (value != null) {
+                    line.append(value);
+                }
+            }
+            case TEXT -> {
+                String value = resultSet.getString(columnIndex);
+                if (value != null) {
+                    appendQuotedIfNeeded(line, value, delimiter);
+                }
+            }
+        }
+    }
+
+    private static void appendQuotedIfNeeded(StringBuilder line, String value, char delimiter) {
+        boolean needsQuotes = value.isEmpty();
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!needsQuotes) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c);
+            if (c == '"') {
+                line.append('"');
+            }
+        }
+        line.append('"');
+    }
+
+    private long writeColumnar(Connection connection, Source source, OutputStream output, long startedAt) throws SQLException, IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.write(COLUMNAR_MAGIC);
+        dataOutput.writeShort(source.columns.length);
+        for (Column column : source.columns) {
+            dataOutput.writeUTF(column.name());
+            dataOutput.writeByte(column.type().code);
+        }
+
+        ColumnChunk[] chunks = new ColumnChunk[source.columns.length];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new ColumnChunk(source.columns[i].type());
+        }
+
+        long rows = 0;
+        int rowsInGroup = 0;
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(source.query)) {
+            preparedStatement.setFetchSize(fetchSize);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    for (int i = 0; i < chunks.length; i++) {
+                        chunks[i].add(resultSet, i + 1, rowsInGroup);
+                    }
+                    rows++;
+
+                    if (++rowsInGroup == ROW_GROUP_ROWS) {
+                        writeRowGroup(dataOutput, chunks, rowsInGroup);
+                        rowsInGroup = 0;
+                    }
+                    if (rows % PROGRESS_INTERVAL_ROWS == 0) {
+                        printProgress(rows, startedAt);
+                    }
+                }
+            }
+        }
+
+        if (rowsInGroup > 0) {
+            writeRowGroup(dataOutput, chunks, rowsInGroup);
+        }
+        dataOutput.writeInt(0);
+        dataOutput.writeLong(rows);
+        dataOutput.flush();
+        return rows;
+    }
+
+    private static void writeRowGroup(DataOutputStream dataOutput, ColumnChunk[] chunks, int rows) throws IOException {
+        dataOutput.writeInt(rows);
+        for (ColumnChunk chunk : chunks) {
+            chunk.writeTo(dataOutput, rows);
+        }
+    }
+
+    private void printProgress(long rows, long startedAt) {
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startedAt);
+        progress.println("📤 " + rows + " rows exported (" + rows * 1000 / elapsedMillis + " rows/s)");
+    }
+
+    /*
+     * The values of one column for the current row group. The arrays are reused from group to group.
+     */
+    private static final class ColumnChunk {
+        private final ColumnType type;
+        private final BitSet nulls = new BitSet(ROW_GROUP_ROWS);
+        private final BitSet booleans = new BitSet();
+        private int[] values = new int[1024];
+        private byte[] textBytes = new byte[16 * 1024];
+        private int valueCount;
+        private int textLength;
+
+        private ColumnChunk(ColumnType type) {
+            this.type = type;
+        }
+
+        private void add(ResultSet resultSet, int columnIndex, int row) throws SQLException {
+            switch (type) {
+                case INT -> {
+                    int value = resultSet.getInt(columnIndex);
+                    if (resultSet.wasNull()) {
+                        nulls.set(row);
+                    } else {
+                        addValue(value);
+                    }
+                }
+                case DATE -> {
+                    LocalDate value = resultSet.getObject(columnIndex, LocalDate.class);
+                    if (value == null) {
+                        nulls.set(row);
+                    } else {
+                        addValue(Math.toIntExact(value.toEpochDay()));
+                    }
+                }
+                case BOOLEAN -> {
+                    boolean value = resultSet.getBoolean(columnIndex);
+                    if (resultSet.wasNull()) {
+                        nulls.set(row);
+                    } else {
+                        booleans.set(valueCount, value);
+                        valueCount++;
+                    }
+                }
+                case TEXT -> {
+                    String value = resultSet.getString(columnIndex);
+                    if (value == null) {
+                        nulls.set(row);
+                    } else {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        if (textLength + bytes.length > textBytes.length) {
+                            textBytes = Arrays.copyOf(textBytes, Math.max(textBytes.length * 2, textLength + bytes.length));
+                        }
+                        System.arraycopy(bytes, 0, textBytes, textLength, bytes.length);
+                        textLength += bytes.length;
+                        addValue(bytes.length);
+                    }
+                }
+            }
+        }
+
+        private void addValue(int value) {
+            if (valueCount == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[valueCount++] = value;
+        }
+
+        private void writeTo(DataOutputStream dataOutput, int rows) throws IOException {
+            writeBitmap(dataOutput, nulls, rows);
+
+            switch (type) {
+                case INT, DATE -> {
+                    for (int i = 0; i < valueCount; i++) {
+                        dataOutput.writeInt(values[i]);
+                    }
+                }
+                case BOOLEAN -> writeBitmap(dataOutput, booleans, valueCount);
+                case TEXT -> {
+                    for (int i = 0; i < valueCount; i++) {
+                        writeVarInt(dataOutput, values[i]);
+                    }
+                    dataOutput.write(textBytes, 0, textLength);
+                }
+            }
+
+            nulls.clear();
+            booleans.clear();
+            valueCount = 0;
+            textLength = 0;
+        }
+
+        private static void writeBitmap(DataOutputStream dataOutput, BitSet bits, int size) throws IOException {
+            byte[] bytes = bits.toByteArray();
+            int length = (size + 7) / 8;
+            dataOutput.write(bytes, 0, Math.min(bytes.length, length));
+            for (int i = bytes.length; i < length; i++) {
+                dataOutput.writeByte(0);
+            }
+        }
+
+        private static void writeVarInt(DataOutputStream dataOutput, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                dataOutput.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            dataOutput.writeByte(value);
+        }
+    }
+
+    /*
+     * Counts the lines CopyManager pushes through it, so COPY can report progress as well.
+     */
+    private final class ProgressOutputStream extends FilterOutputStream {
+        private final long startedAt;
+        private long lines;
+
+        private ProgressOutputStream(OutputStream out, long startedAt) {
+            super(out);
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+
+            for (int i = offset; i < offset + length; i++) {
+                // The header line is counted too, so progress lines fall on the same row numbers as the cursor path.
+                if (buffer[i] == '\n' && ++lines % PROGRESS_INTERVAL_ROWS == 1 && lines > 1) {
+                    printProgress(lines - 1, startedAt);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+-- Baseline schema of the library. IF NOT EXISTS keeps it safe to apply to databases created by hand before migrations existed.
+
+CREATE TABLE IF NOT EXISTS books (
+    book_id      SERIAL PRIMARY KEY,
+    title        TEXT    NOT NULL,
+    author       TEXT    NOT NULL,
+    is_available BOOLEAN NOT NULL DEFAULT true
+);
+
+CREATE TABLE IF NOT EXISTS members (
+    member_id SERIAL PRIMARY KEY,
+    name      TEXT NOT NULL,
+    email     TEXT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS loans (
+    loan_id     SERIAL PRIMARY KEY,
+    book_id     INTEGER REFERENCES books (book_id),
+    member_id   INTEGER REFERENCES members (member_id),
+    loan_date   DATE,
+    return_date DATE
+);
@@ -0,0 +1,16 @@
+-- Indexes for the predicates of the hot queries, so none of them needs a sequential scan on large tables.
+
+-- Member lookup by email (borrow, return, register).
+CREATE INDEX IF NOT EXISTS members_email_idx ON members (email);
+
+-- Book lookup by title and author (add, delete, borrow, return).
+CREATE INDEX IF NOT EXISTS books_title_author_idx ON books (title, author);
+
+-- "View borrowed books": keyset pages over the (usually few) borrowed books.
+CREATE INDEX IF NOT EXISTS books_borrowed_idx ON books (book_id) WHERE is_available = false;
+
+-- Returning a book deletes the loan by book and member; also covers the foreign key on loans.book_id.
+CREATE INDEX IF NOT EXISTS loans_book_member_idx ON loans (book_id, member_id);
+
+-- Covers the foreign key on loans.member_id.
+CREATE INDEX IF NOT EXISTS loans_member_idx ON loans (member_id);
@@ -0,0 +1,23 @@
+-- Indexes behind BookRepository.search(). The tsvector expression must match BookRepository.searchDocument.
+
+CREATE INDEX IF NOT EXISTS books_search_document_idx ON books USING gin (to_tsvector('simple', title || ' ' || author));
+
+-- Typo-tolerant search needs pg_trgm. Installing it needs privileges the application user may not have;
+-- in that case search falls back to prefix matching instead of failing the migration.
+DO $$
+BEGIN
+    CREATE EXTENSION IF NOT EXISTS pg_trgm;
+EXCEPTION
+    WHEN insufficient_privilege OR undefined_file THEN
+        RAISE NOTICE 'pg_trgm is not available, book search will not forgive typos: %', SQLERRM;
+END
+$$;
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'pg_trgm') THEN
+        CREATE INDEX IF NOT EXISTS books_title_trgm_idx ON books USING gin (lower(title) gin_trgm_ops);
+        CREATE INDEX IF NOT EXISTS books_author_trgm_idx ON books USING gin (lower(author) gin_trgm_ops);
+    END IF;
+END
+$$;
@@ -0,0 +1,93 @@
+-- Read model of the active loans: who has which book and when it is due, without joining books and members.
+-- Triggers keep it in sync with every write to loans, and with renames of books and members.
+
+CREATE TABLE IF NOT EXISTS active_loans (
+    loan_id      INTEGER PRIMARY KEY,
+    book_id      INTEGER,
+    member_id    INTEGER,
+    title        TEXT,
+    author       TEXT,
+    member_name  TEXT,
+    member_email TEXT,
+    loan_date    DATE,
+    -- Loans without a return date sort last ('infinity'), which keeps keyset pagination on (return_date, loan_id) simple.
+    return_date  DATE NOT NULL
+);
+
+-- Sorting by due date, paging through it, and "everything due before today" are all range scans of this index.
+CREATE INDEX IF NOT EXISTS active_loans_due_idx ON active_loans (return_date, loan_id);
+
+CREATE OR REPLACE FUNCTION active_loans_on_loan_change() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        DELETE FROM active_loans WHERE loan_id = OLD.loan_id;
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO active_loans (loan_id, book_id, member_id, title, author, member_name, member_email, loan_date, return_date)
+        SELECT NEW.loan_id, NEW.book_id, NEW.member_id, b.title, b.author, m.name, m.email,
+               NEW.loan_date, COALESCE(NEW.return_date, 'infinity')
+        FROM (SELECT 1) AS loan
+        LEFT JOIN books b ON b.book_id = NEW.book_id
+        LEFT JOIN members m ON m.member_id = NEW.member_id;
+    END IF;
+
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION active_loans_on_loans_truncate() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    TRUNCATE active_loans;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION active_loans_on_book_rename() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    UPDATE active_loans SET title = NEW.title, author = NEW.author WHERE book_id = NEW.book_id;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION active_loans_on_member_change() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    UPDATE active_loans SET member_name = NEW.name, member_email = NEW.email WHERE member_id = NEW.member_id;
+    RETURN NULL;
+END
+$$;
+
+DROP TRIGGER IF EXISTS loans_active_loans_sync ON loans;
+CREATE TRIGGER loans_active_loans_sync
+    AFTER INSERT OR UPDATE OR DELETE ON loans
+    FOR EACH ROW EXECUTE FUNCTION active_loans_on_loan_change();
+
+DROP TRIGGER IF EXISTS loans_active_loans_truncate ON loans;
+CREATE TRIGGER loans_active_loans_truncate
+    AFTER TRUNCATE ON loans
+    FOR EACH STATEMENT EXECUTE FUNCTION active_loans_on_loans_truncate();
+
+-- Borrowing flips books.is_available, which must not touch the read model: only renames do.
+DROP TRIGGER IF EXISTS books_active_loans_sync ON books;
+CREATE TRIGGER books_active_loans_sync
+    AFTER UPDATE OF title, author ON books
+    FOR EACH ROW WHEN (OLD.title IS DISTINCT FROM NEW.title OR OLD.author IS DISTINCT FROM NEW.author)
+    EXECUTE FUNCTION active_loans_on_book_rename();
+
+DROP TRIGGER IF EXISTS members_active_loans_sync ON members;
+CREATE TRIGGER members_active_loans_sync
+    AFTER UPDATE OF name, email ON members
+    FOR EACH ROW WHEN (OLD.name IS DISTINCT FROM NEW.name OR OLD.email IS DISTINCT FROM NEW.email)
+    EXECUTE FUNCTION active_loans_on_member_change();
+
+-- Backfill the loans that exist already.
+INSERT INTO active_loans (loan_id, book_id, member_id, title, author, member_name, member_email, loan_date, return_date)
+SELECT l.loan_id, l.book_id, l.member_id, b.title, b.author, m.name, m.email, l.loan_date, COALESCE(l.return_date, 'infinity')
+FROM loans l
+LEFT JOIN books b ON b.book_id = l.book_id
+LEFT JOIN members m ON m.member_id = l.member_id
+ON CONFLICT (loan_id) DO NOTHING;
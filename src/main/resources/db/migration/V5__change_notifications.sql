@@ -0,0 +1,131 @@
+-- Change notifications for the in-process caches (see ChangeNotificationListener): every write to books and members,
+-- whoever makes it (another instance of the program, psql, an import), sends a NOTIFY on the library_changes channel
+-- when its transaction commits.
+--
+-- One notification per changed row, fields separated by the unit separator (\x1f):
+--   books|I/U/D|book_id|is_available|title|author[|old title|old author]   (the old key only when an UPDATE changed it)
+--   members|I/U/D|member_id|email[|old email]
+-- Statements that change more than 100 rows, TRUNCATE, and rows too long for a payload (8000 bytes) send "books|*"
+-- or "members|*" instead, which means "drop everything cached for that table".
+--
+-- Loans are not covered: nothing caches them, and lending or returning a book also updates books.is_available.
+-- Committing a transaction that notified takes a database-wide lock for a moment, which is the price of this.
+
+CREATE OR REPLACE FUNCTION notify_library_change(table_name TEXT, payloads TEXT[]) RETURNS void
+LANGUAGE plpgsql AS $$
+DECLARE
+    payload TEXT;
+BEGIN
+    IF coalesce(array_length(payloads, 1), 0) > 100 THEN
+        PERFORM pg_notify('library_changes', table_name || E'\x1f*');
+        RETURN;
+    END IF;
+
+    FOREACH payload IN ARRAY coalesce(payloads, '{}') LOOP
+        PERFORM pg_notify('library_changes',
+                          CASE WHEN octet_length(payload) < 7900 THEN payload ELSE table_name || E'\x1f*' END);
+    END LOOP;
+END
+$$;
+
+-- Statement-level triggers with transition tables, so a bulk statement costs one trigger call, not one per row.
+-- Only the first 101 rows are read: more than 100 become a single "*" notification anyway.
+CREATE OR REPLACE FUNCTION notify_book_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    payloads TEXT[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'I', book_id, is_available, title, author) AS payload
+            FROM new_rows LIMIT 101) changes;
+    ELSIF TG_OP = 'UPDATE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'U', n.book_id, n.is_available, n.title, n.author,
+                             CASE WHEN (o.title, o.author) IS DISTINCT FROM (n.title, n.author) THEN o.title END,
+                             CASE WHEN (o.title, o.author) IS DISTINCT FROM (n.title, n.author) THEN o.author END) AS payload
+            FROM new_rows n JOIN old_rows o ON o.book_id = n.book_id LIMIT 101) changes;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'D', book_id, is_available, title, author) AS payload
+            FROM old_rows LIMIT 101) changes;
+    ELSE
+        -- TRUNCATE
+        PERFORM pg_notify('library_changes', 'books' || E'\x1f*');
+        RETURN NULL;
+    END IF;
+
+    PERFORM notify_library_change('books', payloads);
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION notify_member_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    payloads TEXT[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'I', member_id, email) AS payload
+            FROM new_rows LIMIT 101) changes;
+    ELSIF TG_OP = 'UPDATE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'U', n.member_id, n.email,
+                             CASE WHEN o.email IS DISTINCT FROM n.email THEN o.email END) AS payload
+            FROM new_rows n JOIN old_rows o ON o.member_id = n.member_id LIMIT 101) changes;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'D', member_id, email) AS payload
+            FROM old_rows LIMIT 101) changes;
+    ELSE
+        -- TRUNCATE
+        PERFORM pg_notify('library_changes', 'members' || E'\x1f*');
+        RETURN NULL;
+    END IF;
+
+    PERFORM notify_library_change('members', payloads);
+    RETURN NULL;
+END
+$$;
+
+-- A trigger with transition tables can only have one event, hence one trigger per event.
+DROP TRIGGER IF EXISTS books_notify_insert ON books;
+CREATE TRIGGER books_notify_insert
+    AFTER INSERT ON books REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_book_changes();
+
+DROP TRIGGER IF EXISTS books_notify_update ON books;
+CREATE TRIGGER books_notify_update
+    AFTER UPDATE ON books REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_book_changes();
+
+DROP TRIGGER IF EXISTS books_notify_delete ON books;
+CREATE TRIGGER books_notify_delete
+    AFTER DELETE ON books REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_book_changes();
+
+DROP TRIGGER IF EXISTS books_notify_truncate ON books;
+CREATE TRIGGER books_notify_truncate
+    AFTER TRUNCATE ON books
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_book_changes();
+
+DROP TRIGGER IF EXISTS members_notify_insert ON members;
+CREATE TRIGGER members_notify_insert
+    AFTER INSERT ON members REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_member_changes();
+
+DROP TRIGGER IF EXISTS members_notify_update ON members;
+CREATE TRIGGER members_notify_update
+    AFTER UPDATE ON members REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_member_changes();
+
+DROP TRIGGER IF EXISTS members_notify_delete ON members;
+CREATE TRIGGER members_notify_delete
+    AFTER DELETE ON members REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_member_changes();
+
+DROP TRIGGER IF EXISTS members_notify_truncate ON members;
+CREATE TRIGGER members_notify_truncate
+    AFTER TRUNCATE ON members
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_member_changes();
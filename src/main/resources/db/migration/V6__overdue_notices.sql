@@ -0,0 +1,28 @@
+-- Outbox of overdue-loan notices, filled by OverdueLoanJob, and the checkpoints of background jobs.
+
+-- One row per loan that went past its due date. Whatever sends the notices reads the unsent rows and sets sent_at.
+-- No foreign key to loans on purpose: a returned loan keeps its notice, and the job never locks loan rows.
+CREATE TABLE IF NOT EXISTS overdue_notices (
+    notice_id  BIGSERIAL PRIMARY KEY,
+    loan_id    INTEGER     NOT NULL,
+    book_id    INTEGER,
+    member_id  INTEGER,
+    due_date   DATE        NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    sent_at    TIMESTAMPTZ,
+    -- A loan gets one notice per due date, even if a chunk were ever processed twice.
+    UNIQUE (loan_id, due_date)
+);
+
+-- "Notices still to send", in the order they were queued.
+CREATE INDEX IF NOT EXISTS overdue_notices_unsent_idx ON overdue_notices (notice_id) WHERE sent_at IS NULL;
+
+-- Where a job got to. For the overdue job: the (return_date, loan_id) of the last loan it handled,
+-- a position in active_loans_due_idx.
+CREATE TABLE IF NOT EXISTS job_checkpoints (
+    job_name       TEXT PRIMARY KEY,
+    last_due_date  DATE        NOT NULL DEFAULT '-infinity',
+    last_loan_id   INTEGER     NOT NULL DEFAULT 0,
+    rows_processed BIGINT      NOT NULL DEFAULT 0,
+    updated_at     TIMESTAMPTZ NOT NULL DEFAULT now()
+);
@@ -0,0 +1,96 @@
+-- Narrower update notifications than V5__change_notifications.sql. There, every UPDATE of books notified, and lending or
+-- returning a book is an UPDATE of is_available: a write-behind group commit of more than 100 loans sent "books|*"
+-- and made every listener reload the whole catalog.
+--
+-- 1) Updates only send the rows whose lookup key really changed, so their payload always carries the old key:
+--      books|U|book_id|is_available|title|author|old title|old author
+--      members|U|member_id|email|old email
+--    Updates of members that leave the email alone send nothing.
+-- 2) Books whose availability flipped without a key change are sent in bulk, up to 500 ids per notification:
+--      books|A|t or f|book_id,book_id,...
+--    Only a statement that flips more than 10000 books still sends "books|*".
+-- The triggers stay as V5 created them (transition tables rule out "AFTER UPDATE OF column"), only their functions change.
+-- Inserts, deletes and TRUNCATE are notified as before.
+
+CREATE OR REPLACE FUNCTION notify_book_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    payloads TEXT[];
+    availability_payload TEXT;
+    flipped BIGINT;
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'I', book_id, is_available, title, author) AS payload
+            FROM new_rows LIMIT 101) changes;
+    ELSIF TG_OP = 'UPDATE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'U', n.book_id, n.is_available, n.title, n.author, o.title, o.author) AS payload
+            FROM new_rows n JOIN old_rows o ON o.book_id = n.book_id
+            WHERE (o.title, o.author) IS DISTINCT FROM (n.title, n.author) LIMIT 101) changes;
+
+        SELECT count(*) INTO flipped
+        FROM new_rows n JOIN old_rows o ON o.book_id = n.book_id
+        WHERE o.is_available IS DISTINCT FROM n.is_available AND (o.title, o.author) IS NOT DISTINCT FROM (n.title, n.author);
+
+        IF flipped > 10000 THEN
+            PERFORM pg_notify('library_changes', 'books' || E'\x1f*');
+            RETURN NULL;
+        END IF;
+
+        -- 500 ids of at most 11 characters stay well under the 8000-byte payload limit.
+        FOR availability_payload IN
+            SELECT concat_ws(E'\x1f', 'books', 'A', is_available, string_agg(book_id::TEXT, ',' ORDER BY book_id))
+            FROM (
+                SELECT n.book_id, n.is_available,
+                       (row_number() OVER (PARTITION BY n.is_available ORDER BY n.book_id) - 1) / 500 AS chunk
+                FROM new_rows n JOIN old_rows o ON o.book_id = n.book_id
+                WHERE o.is_available IS DISTINCT FROM n.is_available
+                  AND (o.title, o.author) IS NOT DISTINCT FROM (n.title, n.author)) flips
+            GROUP BY is_available, chunk
+        LOOP
+            PERFORM pg_notify('library_changes', availability_payload);
+        END LOOP;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'books', 'D', book_id, is_available, title, author) AS payload
+            FROM old_rows LIMIT 101) changes;
+    ELSE
+        -- TRUNCATE
+        PERFORM pg_notify('library_changes', 'books' || E'\x1f*');
+        RETURN NULL;
+    END IF;
+
+    PERFORM notify_library_change('books', payloads);
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION notify_member_changes() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    payloads TEXT[];
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'I', member_id, email) AS payload
+            FROM new_rows LIMIT 101) changes;
+    ELSIF TG_OP = 'UPDATE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'U', n.member_id, n.email, o.email) AS payload
+            FROM new_rows n JOIN old_rows o ON o.member_id = n.member_id
+            WHERE o.email IS DISTINCT FROM n.email LIMIT 101) changes;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(payload) INTO payloads FROM (
+            SELECT concat_ws(E'\x1f', 'members', 'D', member_id, email) AS payload
+            FROM old_rows LIMIT 101) changes;
+    ELSE
+        -- TRUNCATE
+        PERFORM pg_notify('library_changes', 'members' || E'\x1f*');
+        RETURN NULL;
+    END IF;
+
+    PERFORM notify_library_change('members', payloads);
+    RETURN NULL;
+END
+$$;
@@ -0,0 +1,23 @@
+-- One member per email. Until now only the application checked it (and only in registerAll()), which two concurrent
+-- registrations of the same email both passed under READ COMMITTED.
+
+-- Duplicates are merged into the oldest member with that email: their loans and overdue notices move to it
+-- (the loans trigger of V4 moves the active_loans rows along), then the younger rows are deleted.
+UPDATE loans
+SET member_id = duplicates.kept_member_id
+FROM (SELECT member_id, min(member_id) OVER (PARTITION BY email) AS kept_member_id FROM members) duplicates
+WHERE loans.member_id = duplicates.member_id AND duplicates.member_id <> duplicates.kept_member_id;
+
+UPDATE overdue_notices
+SET member_id = duplicates.kept_member_id
+FROM (SELECT member_id, min(member_id) OVER (PARTITION BY email) AS kept_member_id FROM members) duplicates
+WHERE overdue_notices.member_id = duplicates.member_id AND duplicates.member_id <> duplicates.kept_member_id;
+
+DELETE FROM members
+USING members kept
+WHERE kept.email = members.email AND kept.member_id < members.member_id;
+
+-- Also the arbiter of INSERT ... ON CONFLICT (email) DO NOTHING, and it serves the lookups by email,
+-- so the plain index of V2 is no longer needed.
+CREATE UNIQUE INDEX IF NOT EXISTS members_email_key ON members (email);
+DROP INDEX IF EXISTS members_email_idx;
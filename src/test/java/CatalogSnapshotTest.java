@@ -0,0 +1,184 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogSnapshotTest {
+    @Test
+    void pagesFollowBookIdOrderWhateverOrderTheBooksArriveIn() {
+        CatalogSnapshot snapshot = loaded(book(2, true), book(5, true));
+
+        // 4, 1 and 3 are lower than the last id, so they shift the positions after them.
+        snapshot.put(book(4, false));
+        snapshot.put(book(1, true));
+        snapshot.put(book(3, false));
+
+        assertEquals(List.of(1, 2, 3, 4, 5), ids(snapshot.findPageAfter(0, 10, false)));
+        assertEquals(List.of(3, 4), ids(snapshot.findPageAfter(2, 2, false)));
+        assertEquals(List.of(3, 4), ids(snapshot.findPageAfter(0, 10, true)));
+        for (int id = 1; id <= 5; id++) {
+            assertEquals(id != 3 && id != 4, snapshot.isAvailable(id));
+        }
+        assertEquals("Title 5", snapshot.findPageAfter(4, 1, false).get(0).title());
+    }
+
+    @Test
+    void removedBooksLeaveThePagesAndTheLookups() {
+        CatalogSnapshot snapshot = loaded(IntStream.rangeClosed(1, 200).mapToObj(id -> book(id, id % 3 != 0)));
+
+        IntStream.rangeClosed(1, 200).filter(id -> id % 2 == 0).forEach(snapshot::remove);
+
+        assertEquals(100, snapshot.size());
+        assertNull(snapshot.isAvailable(100));
+        assertTrue(snapshot.isAvailable(101));
+        assertFalse(snapshot.isAvailable(99));
+        assertEquals(List.of(99, 101, 103), ids(snapshot.findPageAfter(97, 3, false)));
+        // Borrowed and odd: the multiples of 3 that are odd, spread over several 64-bit words.
+        assertEquals(IntStream.rangeClosed(1, 200).filter(id -> id % 6 == 3).boxed().toList(),
+                ids(snapshot.streamAfter(0, true).toList()));
+    }
+
+    @Test
+    void renameReusesTheTitleBytesWhenTheNewTitleFits() {
+        CatalogSnapshot snapshot = loaded(new Book(1, "The Long Title", "Author", true));
+        int used = snapshot.titleBytesUsed();
+
+        snapshot.put(new Book(1, "Short", "Author", true));
+        snapshot.put(new Book(1, "Short", "Author", false));
+        snapshot.put(new Book(1, "Tiny", "Author", false));
+
+        assertEquals(used, snapshot.titleBytesUsed());
+        assertEquals("Tiny", snapshot.findPageAfter(0, 1, false).get(0).title());
+
+        snapshot.put(new Book(1, "A Much Longer Title", "Author", true));
+
+        assertEquals(used + "A Much Longer Title".length(), snapshot.titleBytesUsed());
+        assertEquals("A Much Longer Title", snapshot.findPageAfter(0, 1, false).get(0).title());
+    }
+
+    @Test
+    void changesMadeDuringAReloadAreReplayedOnTheFreshCopy() {
+        CatalogSnapshot snapshot = loaded(book(1, true), book(2, true), book(3, true));
+
+        // The changes arrive while the reload has read book 2: book 1 is already in the fresh copy, book 3 not yet.
+        snapshot.reload(Stream.of(book(1, true), book(2, true), book(3, true)).peek(book -> {
+            if (book.id() == 2) {
+                snapshot.remove(1);
+                snapshot.setAvailable(3, false);
+                snapshot.put(book(4, false));
+            }
+        }));
+
+        assertEquals(List.of(2, 3, 4), ids(snapshot.findPageAfter(0, 10, false)));
+        assertNull(snapshot.isAvailable(1));
+        assertFalse(snapshot.isAvailable(3));
+        assertFalse(snapshot.isAvailable(4));
+    }
+
+    @Test
+    void failedReloadKeepsTheCurrentCopyWithItsChanges() {
+        CatalogSnapshot snapshot = loaded(book(1, true), book(2, true));
+
+        assertThrows(IllegalStateException.class, () -> snapshot.reload(Stream.of(book(1, true), book(2, true)).peek(book -> {
+            snapshot.setAvailable(1, false);
+            if (book.id() == 2) {
+                throw new IllegalStateException("connection lost");
+            }
+        })));
+
+        assertEquals(List.of(1, 2), ids(snapshot.findPageAfter(0, 10, false)));
+        assertFalse(snapshot.isAvailable(1));
+
+        // The next reload no longer records changes for the failed one.
+        snapshot.reload(Stream.of(book(1, true)));
+        assertTrue(snapshot.isAvailable(1));
+        assertNull(snapshot.isAvailable(2));
+    }
+
+    @Test
+    void notLoadedSnapshotKnowsNoBook() {
+        CatalogSnapshot snapshot = new CatalogSnapshot();
+        snapshot.put(book(1, true));
+
+        assertFalse(snapshot.isLoaded());
+        assertNull(snapshot.isAvailable(1));
+    }
+
+    @Test
+    void intIntMapKeepsCollidingKeysReachableAfterRemovals() {
+        CatalogSnapshot.IntIntMap map = new CatalogSnapshot.IntIntMap(16);
+        for (int key = 1; key <= 1000; key++) {
+            map.put(key, key * 10);
+        }
+
+        for (int key = 2; key <= 1000; key += 2) {
+            assertEquals(key * 10, map.remove(key));
+        }
+
+        assertEquals(500, map.size());
+        for (int key = 1; key <= 1000; key++) {
+            assertEquals(key % 2 == 0 ? -1 : key * 10, map.get(key));
+        }
+        assertEquals(-1, map.remove(2));
+        assertEquals(-1, map.get(0));
+    }
+
+    @Test
+    void intIntMapAgreesWithAHashMap() {
+        CatalogSnapshot.IntIntMap map = new CatalogSnapshot.IntIntMap(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        // A small key range keeps the probe chains long, so most removals move entries back.
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, -1), map.remove(key));
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int key = -1000; key < 1000; key++) {
+            assertEquals(expected.getOrDefault(key, -1), map.get(key));
+        }
+    }
+
+    @Test
+    void intIntMapRejectsTheFreeMarkerAsKey() {
+        CatalogSnapshot.IntIntMap map = new CatalogSnapshot.IntIntMap(16);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(Integer.MIN_VALUE, 1));
+    }
+
+    private static CatalogSnapshot loaded(Book... books) {
+        return loaded(Stream.of(books));
+    }
+
+    private static CatalogSnapshot loaded(Stream<Book> books) {
+        CatalogSnapshot snapshot = new CatalogSnapshot();
+        snapshot.reload(books);
+        return snapshot;
+    }
+
+    private static Book book(int id, boolean available) {
+        return new Book(id, "Title " + id, "Author " + id % 7, available);
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::id).toList();
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+    private static final Duration OPEN_DURATION = Duration.ofMillis(50);
+
+    @Test
+    void opensAfterThresholdFailuresInARow() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_DURATION);
+
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::beforeCall);
+    }
+
+    @Test
+    void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_DURATION);
+
+        fail(breaker, 2);
+        breaker.beforeCall();
+        breaker.recordSuccess();
+        fail(breaker, 2);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void letsOneTrialThroughOnceTheOpenDurationHasPassed() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_DURATION);
+        fail(breaker, 1);
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+
+        breaker.beforeCall();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::beforeCall);
+    }
+
+    @Test
+    void successfulTrialClosesTheCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_DURATION);
+        fail(breaker, 1);
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+
+        breaker.beforeCall();
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertDoesNotThrow(breaker::beforeCall);
+    }
+
+    @Test
+    void failedTrialOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(5, OPEN_DURATION);
+        fail(breaker, 5);
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+
+        // One failure is enough in HALF_OPEN, whatever the threshold.
+        fail(breaker, 1);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, breaker::beforeCall);
+    }
+
+    @Test
+    void inconclusiveTrialLetsTheNextCallTry() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_DURATION);
+        fail(breaker, 1);
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+
+        breaker.beforeCall();
+        breaker.recordInconclusive();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertDoesNotThrow(breaker::beforeCall);
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            breaker.beforeCall();
+            breaker.recordFailure();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getAverageMillis(), DELTA);
+        assertEquals(0.0, histogram.getPercentileMillis(99), DELTA);
+    }
+
+    @Test
+    void percentileIsTheUpperBoundOfItsBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(3_000_000); // 3 ms -> bucket [2.048, 4.096) ms
+        }
+        histogram.record(100_000_000); // 100 ms
+
+        assertEquals(4.096, histogram.getPercentileMillis(50), DELTA);
+        assertEquals(4.096, histogram.getPercentileMillis(99), DELTA);
+        assertEquals(100.0, histogram.getPercentileMillis(100), DELTA);
+    }
+
+    @Test
+    void percentileNeverExceedsTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3_000_000);
+
+        assertEquals(3.0, histogram.getPercentileMillis(50), DELTA);
+        assertEquals(3.0, histogram.getMaxMillis(), DELTA);
+    }
+
+    @Test
+    void averageAndCount() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        histogram.record(3_000_000);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(2.0, histogram.getAverageMillis(), DELTA);
+    }
+
+    @Test
+    void subMicrosecondDurationsLandInTheFirstBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+
+        assertEquals(0.0005, histogram.getPercentileMillis(50), DELTA);
+    }
+
+    @Test
+    void resetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000);
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMaxMillis(), DELTA);
+        assertEquals(0.0, histogram.getPercentileMillis(50), DELTA);
+    }
+}
@@ -0,0 +1,189 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Journal replay and checkpointing, and what the queue does while the database can't be reached.
+ * The pool points at a port nothing listens on, so every flush fails the way it does when the database is down.
+ */
+class LoanWriteBehindQueueTest {
+    private static final LocalDate LOAN_DATE = LocalDate.of(2026, 10, 1);
+    private static final LocalDate RETURN_DATE = LocalDate.of(2026, 10, 15);
+
+    @TempDir
+    Path directory;
+
+    private final ConnectionPool unreachablePool = new ConnectionPool("jdbc:postgresql://127.0.0.1:1/library", "nobody", "none",
+            2, Duration.ofMinutes(1), Duration.ofMinutes(30), Duration.ofMillis(200), 0);
+
+    @AfterEach
+    void closePool() {
+        unreachablePool.close();
+    }
+
+    @Test
+    void checkpointRangesCoverOnlyTheirOwnEntries() throws Exception {
+        Path journal = writeJournal(
+                "B|1|10|100|2026-10-01|2026-10-15",
+                "B|2|11|101|2026-10-01|2026-10-15",
+                "R|3|12|102",
+                "R|4|13|103",
+                "C|3|4",
+                "B|5|14|104|2026-10-01|2026-10-15");
+
+        assertEquals(List.of(1L, 2L, 5L), sequences(LoanWriteBehindQueue.readUnflushedEntries(journal)));
+    }
+
+    @Test
+    void droppedEntriesAreNotReplayed() throws Exception {
+        Path journal = writeJournal(
+                "B|1|10|100|2026-10-01|2026-10-15",
+                "R|2|11|101",
+                "X|1");
+
+        assertEquals(List.of(2L), sequences(LoanWriteBehindQueue.readUnflushedEntries(journal)));
+    }
+
+    @Test
+    void journalLinesRoundTrip() {
+        String borrow = "B|7|10|100|2026-10-01|2026-10-15";
+        String giveBack = "R|8|11|101";
+
+        assertEquals(borrow, LoanWriteBehindQueue.Entry.fromJournalLine(borrow).toJournalLine());
+        assertEquals(giveBack, LoanWriteBehindQueue.Entry.fromJournalLine(giveBack).toJournalLine());
+    }
+
+    @Test
+    void rewriteKeepsJustTheUnflushedEntries() throws Exception {
+        Path journal = writeJournal(
+                "B|1|10|100|2026-10-01|2026-10-15",
+                "R|2|11|101",
+                "C|1|1");
+
+        LoanWriteBehindQueue.rewriteJournal(journal, LoanWriteBehindQueue.readUnflushedEntries(journal));
+
+        assertEquals(List.of("R|2|11|101"), Files.readAllLines(journal, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(journal.resolveSibling(journal.getFileName() + ".new")));
+    }
+
+    @Test
+    void entriesThatCouldNotBeWrittenStayInTheJournal() throws Exception {
+        Path journal = directory.resolve("loans.journal");
+
+        LoanWriteBehindQueue queue = newQueue(10, journal);
+        queue.enqueueBorrow(10, 100, LOAN_DATE, RETURN_DATE);
+        queue.enqueueReturn(11, 101);
+        queue.enqueueBorrow(12, 102, LOAN_DATE, RETURN_DATE);
+        Thread.sleep(300);
+        queue.close();
+
+        // No flush succeeded, so no checkpoint may cover them, and close() must not truncate the journal.
+        assertEquals(List.of(1L, 2L, 3L), sequences(LoanWriteBehindQueue.readUnflushedEntries(journal)));
+        assertTrue(queue.toString().contains("flushed=0"));
+    }
+
+    @Test
+    void replayedEntriesSurviveAnotherFailedStart() throws Exception {
+        Path journal = writeJournal(
+                "B|1|10|100|2026-10-01|2026-10-15",
+                "R|2|11|101",
+                "C|1|1",
+                "R|3|12|102");
+
+        LoanWriteBehindQueue queue = newQueue(10, journal);
+        queue.enqueueReturn(13, 103);
+        queue.close();
+
+        // The replayed entries keep their sequences and new ones continue after them.
+        List<LoanWriteBehindQueue.Entry> unflushed = LoanWriteBehindQueue.readUnflushedEntries(journal);
+        assertEquals(List.of(2L, 3L, 4L), sequences(unflushed));
+        assertEquals(13, unflushed.get(2).memberId());
+    }
+
+    @Test
+    void moreReplayedEntriesThanCapacityDoNotBlockStartup() throws Exception {
+        Path journal = writeJournal(
+                "R|1|10|100",
+                "R|2|11|101",
+                "R|3|12|102");
+
+        LoanWriteBehindQueue queue = newQueue(1, journal);
+        queue.close();
+
+        assertEquals(List.of(1L, 2L, 3L), sequences(LoanWriteBehindQueue.readUnflushedEntries(journal)));
+    }
+
+    @Test
+    void fullQueueCostsEachProducerOneTimeoutAtMost() throws Exception {
+        long enqueueTimeoutMillis = 300;
+        LoanWriteBehindQueue queue = new LoanWriteBehindQueue(unreachablePool, 1, 10, Duration.ofMillis(10),
+                Duration.ofMillis(enqueueTimeoutMillis), Duration.ofMillis(100), null);
+        // Its room is only given back once it is written, which never happens here.
+        queue.enqueueReturn(10, 100);
+
+        int producers = 4;
+        long startedAt = System.nanoTime();
+        List<Future<Exception>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(producers)) {
+            for (int i = 0; i < producers; i++) {
+                int memberId = 20 + i;
+                results.add(executor.submit(() -> {
+                    try {
+                        queue.enqueueReturn(memberId, 200);
+                        return null;
+                    } catch (Exception e) {
+                        return e;
+                    }
+                }));
+            }
+            for (Future<Exception> result : results) {
+                assertInstanceOf(SQLTransientException.class, result.get());
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+        queue.close();
+
+        assertTrue(elapsedMillis < enqueueTimeoutMillis * 2, "producers waited " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void closedQueueRefusesEntries() throws Exception {
+        LoanWriteBehindQueue queue = newQueue(10, null);
+        queue.close();
+
+        assertThrows(java.sql.SQLException.class, () -> queue.enqueueReturn(10, 100));
+    }
+
+    private LoanWriteBehindQueue newQueue(int capacity, Path journal) throws Exception {
+        return new LoanWriteBehindQueue(unreachablePool, capacity, 10, Duration.ofMillis(10), Duration.ofMillis(200),
+                Duration.ofMillis(200), journal);
+    }
+
+    private Path writeJournal(String... lines) throws Exception {
+        Path journal = directory.resolve("loans.journal");
+        Files.write(journal, List.of(lines), StandardCharsets.UTF_8);
+        return journal;
+    }
+
+    private static List<Long> sequences(List<LoanWriteBehindQueue.Entry> entries) {
+        return entries.stream().map(LoanWriteBehindQueue.Entry::sequence).toList();
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LookupCacheTest {
+    private static final Duration TTL = Duration.ofMinutes(5);
+
+    @Test
+    void loadsOnceAndServesHitsFromMemory() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(7, cache.get("a", key -> {
+            loads.incrementAndGet();
+            return 7;
+        }));
+        assertEquals(7, cache.get("a", key -> {
+            loads.incrementAndGet();
+            return 8;
+        }));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void cachesNotFound() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+
+        cache.get("missing", key -> LookupCache.NOT_FOUND);
+
+        assertEquals(LookupCache.NOT_FOUND, cache.getIfPresent("missing"));
+    }
+
+    @Test
+    void invalidateDropsTheEntry() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+        cache.get("a", key -> LookupCache.NOT_FOUND);
+
+        cache.invalidate("a");
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(3, cache.get("a", key -> 3));
+    }
+
+    @Test
+    void loadOverlappingAnInvalidationIsNotCached() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+
+        // The row is inserted (and the key invalidated) while the loader is still holding its stale "not found".
+        int id = cache.get("new@example.com", key -> {
+            cache.invalidate(key);
+            return LookupCache.NOT_FOUND;
+        });
+
+        assertEquals(LookupCache.NOT_FOUND, id);
+        assertNull(cache.getIfPresent("new@example.com"));
+    }
+
+    @Test
+    void loadOverlappingInvalidateAllIsNotCached() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+
+        cache.get("a", key -> {
+            cache.invalidateAll();
+            return 1;
+        });
+
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    @Test
+    void putIfUnchangedRejectsAnOutdatedGeneration() {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+        long generation = cache.generation();
+
+        cache.invalidate("other");
+
+        assertFalse(cache.putIfUnchanged("a", 1, generation));
+        assertNull(cache.getIfPresent("a"));
+        assertTrue(cache.putIfUnchanged("a", 1, cache.generation()));
+        assertEquals(1, cache.getIfPresent("a"));
+    }
+
+    @Test
+    void writtenIdIsNotOverwrittenByAnOlderLookup() {
+        LookupCache<String> cache = new LookupCache<>("test", 10, TTL);
+        long lookupGeneration = cache.generation();
+
+        cache.put("a", 42);
+
+        assertFalse(cache.putIfUnchanged("a", LookupCache.NOT_FOUND, lookupGeneration));
+        assertEquals(42, cache.getIfPresent("a"));
+    }
+
+    @Test
+    void expiredEntriesAreLoadedAgain() throws Exception {
+        LookupCache<String> cache = new LookupCache<>("test", 10, Duration.ZERO);
+        cache.get("a", key -> 1);
+        Thread.sleep(1);
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(2, cache.get("a", key -> 2));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        LookupCache<String> cache = new LookupCache<>("test", 2, TTL);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.getIfPresent("a");
+
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.getIfPresent("b"));
+        assertEquals(1, cache.getIfPresent("a"));
+    }
+}
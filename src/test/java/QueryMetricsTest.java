@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryMetricsTest {
+
+    @Test
+    void literalsBecomePlaceholders() {
+        assertEquals("SELECT * FROM books WHERE title = ? AND book_id > ?",
+                QueryMetrics.fingerprint("SELECT * FROM books WHERE title = 'Dune' AND book_id > 42"));
+    }
+
+    @Test
+    void escapedQuotesStayInsideTheString() {
+        assertEquals("SELECT ? FROM members WHERE name = ?",
+                QueryMetrics.fingerprint("SELECT 'it''s' FROM members WHERE name = 'O''Brien'"));
+    }
+
+    @Test
+    void decimalsAreOneLiteral() {
+        assertEquals("SELECT ? * price", QueryMetrics.fingerprint("SELECT 1.25 * price"));
+    }
+
+    @Test
+    void digitsInsideIdentifiersAreKept() {
+        assertEquals("SELECT col1, t2.x_3 FROM t2 LIMIT ?",
+                QueryMetrics.fingerprint("SELECT col1, t2.x_3 FROM t2 LIMIT 10"));
+    }
+
+    @Test
+    void whitespaceIsCollapsed() {
+        assertEquals("SELECT book_id FROM books WHERE is_available",
+                QueryMetrics.fingerprint("  SELECT book_id\n\t  FROM books\n WHERE is_available  "));
+    }
+
+    @Test
+    void sameStatementWithDifferentLiteralsHasOneFingerprint() {
+        assertEquals(QueryMetrics.fingerprint("DELETE FROM loans WHERE loan_id = 1"),
+                QueryMetrics.fingerprint("DELETE FROM loans   WHERE loan_id = 98765"));
+    }
+
+    @Test
+    void unterminatedStringDoesNotThrow() {
+        assertEquals("SELECT ?", QueryMetrics.fingerprint("SELECT 'oops"));
+    }
+
+    @Test
+    void slowStatementsAreAppendedToTheLogByClose(@TempDir Path dir) throws Exception {
+        Path logFile = dir.resolve("slow-queries.log");
+        Files.writeString(logFile, "earlier line\n");
+        QueryMetrics metrics = new QueryMetrics(0, logFile);
+        Connection connection = metrics.instrument(fakeConnection());
+
+        for (int loanId = 1; loanId <= 3; loanId++) {
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM loans WHERE loan_id = " + loanId)) {
+                statement.executeUpdate();
+            }
+        }
+        metrics.close();
+
+        List<String> lines = Files.readAllLines(logFile);
+        assertEquals(4, lines.size());
+        assertEquals("earlier line", lines.get(0));
+        assertTrue(lines.get(3).endsWith("rows=1 DELETE FROM loans WHERE loan_id = ?"), lines.get(3));
+        assertEquals(3, metrics.getSlowQueryCount());
+    }
+
+    // A Connection whose PreparedStatements affect one row and do nothing else.
+    private static Connection fakeConnection() {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> method.getName().equals("executeUpdate") ? 1 : null);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> method.getName().equals("prepareStatement") ? statement : null);
+    }
+}
@@ -0,0 +1,152 @@
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResilientExecutorTest {
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Test
+    void classifiesBySqlState() {
+        assertEquals(ResilientExecutor.Failure.NOT_SENT, ResilientExecutor.classify(new SQLException("refused", "08001")));
+        assertEquals(ResilientExecutor.Failure.NOT_SENT, ResilientExecutor.classify(new SQLException("full", "53300")));
+        assertEquals(ResilientExecutor.Failure.CONNECTION_LOST, ResilientExecutor.classify(new SQLException("io", "08006")));
+        assertEquals(ResilientExecutor.Failure.CONNECTION_LOST, ResilientExecutor.classify(new SQLException("shutdown", "57P01")));
+        assertEquals(ResilientExecutor.Failure.TRANSIENT, ResilientExecutor.classify(new SQLException("serialization", "40001")));
+        assertEquals(ResilientExecutor.Failure.TRANSIENT, ResilientExecutor.classify(new SQLException("deadlock", "40P01")));
+        assertEquals(ResilientExecutor.Failure.TIMEOUT, ResilientExecutor.classify(new SQLException("canceled", "57014")));
+        assertEquals(ResilientExecutor.Failure.FATAL, ResilientExecutor.classify(new SQLException("duplicate", "23505")));
+        assertEquals(ResilientExecutor.Failure.NOT_SENT, ResilientExecutor.classify(poolTimeout()));
+    }
+
+    @Test
+    void onlyConnectionClassStatesAreConnectionFailures() {
+        assertTrue(ResilientExecutor.isConnectionFailure(new SQLException("refused", "08001")));
+        assertTrue(ResilientExecutor.isConnectionFailure(new SQLException("io", "08006")));
+        assertFalse(ResilientExecutor.isConnectionFailure(poolTimeout()));
+        assertFalse(ResilientExecutor.isConnectionFailure(new SQLException("canceled", "57014")));
+        assertFalse(ResilientExecutor.isConnectionFailure(new SQLException("deadlock", "40P01")));
+    }
+
+    @Test
+    void readRetriesALostConnection() throws Exception {
+        ResilientExecutor executor = newExecutor(new CircuitBreaker(10, Duration.ofMinutes(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        int result = executor.read(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("io", "08006");
+            }
+            return 5;
+        });
+
+        assertEquals(5, result);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void transactionDoesNotRetryALostConnection() {
+        ResilientExecutor executor = newExecutor(new CircuitBreaker(10, Duration.ofMinutes(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        // The COMMIT may have gone through before the connection broke.
+        assertThrows(SQLException.class, () -> executor.transaction(() -> {
+            attempts.incrementAndGet();
+            throw new SQLException("io", "08006");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void transactionRetriesSerializationFailures() throws Exception {
+        ResilientExecutor executor = newExecutor(new CircuitBreaker(10, Duration.ofMinutes(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        executor.transaction(() -> {
+            if (attempts.incrementAndGet() < MAX_ATTEMPTS) {
+                throw new SQLException("serialization", "40001");
+            }
+            return null;
+        });
+
+        assertEquals(MAX_ATTEMPTS, attempts.get());
+    }
+
+    @Test
+    void writeOnlyRetriesWorkThatWasNotSent() throws Exception {
+        ResilientExecutor executor = newExecutor(new CircuitBreaker(10, Duration.ofMinutes(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(SQLException.class, () -> executor.write(() -> {
+            attempts.incrementAndGet();
+            throw new SQLException("deadlock", "40P01");
+        }));
+        assertEquals(1, attempts.get());
+
+        attempts.set(0);
+        executor.write(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("refused", "08001");
+            }
+            return null;
+        });
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void timeoutsAreNotRetried() {
+        ResilientExecutor executor = newExecutor(new CircuitBreaker(10, Duration.ofMinutes(1)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(SQLException.class, () -> executor.read(() -> {
+            attempts.incrementAndGet();
+            throw new SQLException("canceled", "57014");
+        }));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void connectionFailuresOpenTheCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker(MAX_ATTEMPTS, Duration.ofMinutes(1));
+        ResilientExecutor executor = newExecutor(breaker);
+
+        assertThrows(SQLException.class, () -> executor.read(() -> {
+            throw new SQLException("refused", "08001");
+        }));
+
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, () -> executor.read(() -> 1));
+    }
+
+    @Test
+    void poolTimeoutsAndQueryTimeoutsDoNotOpenTheCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ofMinutes(1));
+        ResilientExecutor executor = newExecutor(breaker);
+
+        assertThrows(SQLException.class, () -> executor.read(() -> {
+            throw poolTimeout();
+        }));
+        assertThrows(SQLException.class, () -> executor.read(() -> {
+            throw new SQLException("canceled", "57014");
+        }));
+
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static ResilientExecutor newExecutor(CircuitBreaker breaker) {
+        return new ResilientExecutor(MAX_ATTEMPTS, Duration.ofMillis(1), Duration.ofMillis(2), Duration.ofSeconds(5), breaker);
+    }
+
+    // What ConnectionPool throws when no connection becomes free in time.
+    private static SQLException poolTimeout() {
+        return new SQLTransientConnectionException("No free connection within 200 ms.");
+    }
+}
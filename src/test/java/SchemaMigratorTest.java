@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SchemaMigratorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void migrationsAreOrderedByVersionNumber() throws Exception {
+        write("V10__tenth.sql", "SELECT 10;");
+        write("V2__second.sql", "SELECT 2;");
+        write("V1__first.sql", "SELECT 1;");
+
+        List<SchemaMigrator.Migration> migrations = SchemaMigrator.readMigrations(directory);
+
+        assertEquals(List.of(1, 2, 10), migrations.stream().map(SchemaMigrator.Migration::version).toList());
+        assertEquals("tenth", migrations.get(2).description());
+    }
+
+    @Test
+    void otherFilesAreIgnored() throws Exception {
+        write("V1__first.sql", "SELECT 1;");
+        write("README.md", "notes");
+        write("V2-second.sql", "SELECT 2;");
+
+        assertEquals(1, SchemaMigrator.readMigrations(directory).size());
+    }
+
+    @Test
+    void twoMigrationsWithTheSameVersionAreRefused() throws Exception {
+        write("V3__one.sql", "SELECT 1;");
+        write("V3__other.sql", "SELECT 2;");
+
+        assertThrows(IOException.class, () -> SchemaMigrator.readMigrations(directory));
+    }
+
+    @Test
+    void checksumChangesWithTheContent() throws Exception {
+        Path file = write("V1__first.sql", "SELECT 1;");
+        String checksum = SchemaMigrator.readMigrations(directory).get(0).checksum();
+
+        assertEquals(checksum, SchemaMigrator.readMigrations(directory).get(0).checksum());
+
+        Files.writeString(file, "SELECT 1; ", StandardCharsets.UTF_8);
+        assertNotEquals(checksum, SchemaMigrator.readMigrations(directory).get(0).checksum());
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content, StandardCharsets.UTF_8);
+    }
+}